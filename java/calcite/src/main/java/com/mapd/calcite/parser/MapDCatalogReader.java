@@ -39,15 +39,24 @@ import org.apache.calcite.util.Util;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.mapd.metadata.MetaConnect;
 import com.mapd.thrift.server.TColumnType;
 import com.mapd.thrift.server.TDatumType;
 import com.mapd.thrift.server.TTypeInfo;
 
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -62,8 +71,12 @@ public class MapDCatalogReader implements Prepare.CatalogReader {
   protected static final String DEFAULT_CATALOG = "CATALOG";
   protected String CURRENT_DEFAULT_SCHEMA = "mapd";
 
-  private static volatile Map<List<String>, MapDTable> MAPD_TABLES = Maps.newConcurrentMap();
-  private static volatile Map<String, MapDDatabase> MAPD_DATABASE = Maps.newConcurrentMap();
+  private static final ConcurrentMap<List<String>, MapDTable> MAPD_TABLES = Maps.newConcurrentMap();
+  private static final ConcurrentMap<String, MapDDatabase> MAPD_DATABASE = Maps.newConcurrentMap();
+  // loads in flight, concurrent lookups of the same table wait on the first one
+  private static final ConcurrentMap<List<String>, FutureTask<MapDTable>> MAPD_TABLE_LOADS = Maps.newConcurrentMap();
+  // bumped on every invalidation so a load that raced with one is not kept
+  private static final AtomicLong METADATA_VERSION = new AtomicLong();
 
   //~ Instance fields --------------------------------------------------------
   protected final RelDataTypeFactory typeFactory;
@@ -74,6 +87,9 @@ public class MapDCatalogReader implements Prepare.CatalogReader {
   private MapDUser currentMapDUser;
   private final String dataDir;
   private final MapDParser parser;
+  private final Set<List<String>> accessedTables = Sets.newHashSet();
+  // tables read by each view being expanded, innermost view first
+  private final Deque<Set<List<String>>> viewExpansions = new ArrayDeque<Set<List<String>>>();
 
   //~ Constructors -----------------------------------------------------------
   /**
@@ -119,27 +135,119 @@ public class MapDCatalogReader implements Prepare.CatalogReader {
 
     MetaConnect metaConnect = new MetaConnect(dataDir, currentMapDUser.getDB());
     metaConnect.connectToDBCatalog();
-    // Now get tables column details
-    Map<String, TColumnType> tableDescriptor = metaConnect.getTableDescriptor(tableName);
+    // Now get tables column details, view flag and view sql in one go
+    MetaConnect.TableDetails details = metaConnect.getTableDetails(tableName);
+    return createTable(currentMapDUser.getDB(), tableName, details);
+  }
+
+  /**
+   * Run a table load at most once at a time per table. The first caller runs
+   * the load, any others arriving while it is in flight wait for its result.
+   * Loads of different tables do not block each other.
+   */
+  private MapDTable loadTable(List<String> names, Callable<MapDTable> loader) {
+    FutureTask<MapDTable> task = new FutureTask<MapDTable>(loader);
+    FutureTask<MapDTable> inFlight = MAPD_TABLE_LOADS.putIfAbsent(names, task);
+    if (inFlight == null) {
+      long version = METADATA_VERSION.get();
+      try {
+        task.run();
+      } finally {
+        MAPD_TABLE_LOADS.remove(names, task);
+      }
+      inFlight = task;
+      MapDTable table = getLoadResult(inFlight);
+      if (table != null && version != METADATA_VERSION.get()) {
+        // metadata changed while we were reading it, let the next lookup reload
+        MAPD_TABLES.remove(names, table);
+      }
+      return table;
+    }
+    return getLoadResult(inFlight);
+  }
+
+  private static MapDTable getLoadResult(FutureTask<MapDTable> task) {
+    boolean interrupted = false;
+    try {
+      while (true) {
+        try {
+          return task.get();
+        } catch (InterruptedException ex) {
+          interrupted = true;
+        }
+      }
+    } catch (ExecutionException ex) {
+      Throwable cause = ex.getCause();
+      if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new RuntimeException(cause);
+    } finally {
+      if (interrupted) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
+  /**
+   * Load every table and view of a database into the shared table map, so
+   * queries against it do not have to go to the catalog first.
+   *
+   * @param dbName the database to load
+   * @return the number of tables added
+   */
+  public int preloadDatabase(String dbName) {
+    MetaConnect metaConnect = new MetaConnect(dataDir, dbName);
+    metaConnect.connectToDBCatalog();
+    Map<String, MetaConnect.TableDetails> allDetails = metaConnect.getAllTableDetails();
+    int loaded = 0;
+    for (Map.Entry<String, MetaConnect.TableDetails> entry : allDetails.entrySet()) {
+      // tables are named the way the validator looks them up
+      final String tableName = entry.getKey().toUpperCase();
+      final MetaConnect.TableDetails details = entry.getValue();
+      List<String> names = ImmutableList.of(DEFAULT_CATALOG, dbName.toUpperCase(), tableName);
+      if (MAPD_TABLES.containsKey(names)) {
+        continue;
+      }
+      final String db = dbName;
+      MapDTable table = loadTable(names, new Callable<MapDTable>() {
+        @Override
+        public MapDTable call() {
+          return createTable(db, tableName, details);
+        }
+      });
+      if (table != null) {
+        loaded++;
+      }
+    }
+    return loaded;
+  }
+
+  private MapDTable createTable(String dbName, String tableName, MetaConnect.TableDetails details) {
+    Map<String, TColumnType> tableDescriptor = details.getColumns();
 
     // get database
-    MapDDatabase db = MAPD_DATABASE.get(currentMapDUser.getDB());
-    // if schema doesn't exist create it and store it
-    // note we are in sync block here as all table create is managed in sync
+    MapDDatabase db = MAPD_DATABASE.get(dbName);
+    // if schema doesn't exist create it and store it, unless another load beat us to it
     if (db == null) {
-      db = new MapDDatabase(currentMapDUser.getDB());
-      registerSchema(db);
+      MapDDatabase newDb = new MapDDatabase(dbName);
+      db = MAPD_DATABASE.putIfAbsent(dbName, newDb);
+      if (db == null) {
+        db = newDb;
+      }
     }
 
-    MAPDLOGGER.debug("Database is " + currentMapDUser.getDB());
+    MAPDLOGGER.debug("Database is " + dbName);
 
     MAPDLOGGER.debug("\t table  is " + tableName);
     MapDTable mtable = null;
 
-    final boolean isView = metaConnect.isView(tableName);
-    if (isView) {
+    if (details.isView()) {
       mtable = new MapDView(this, db.getCatalogName(), db.getSchemaName(), tableName,
-              false, metaConnect.getViewSql(tableName), parser);
+              false, details.getViewSql(), parser);
     } else {
       mtable = MapDTable.create(this, db, tableName, false);
     }
@@ -400,18 +508,28 @@ public class MapDCatalogReader implements Prepare.CatalogReader {
     }
   }
 
-  private MapDTable getMapDTable(List<String> names) {
+  private MapDTable getMapDTable(final List<String> names) {
     // get the mapd table if we have it in map
     // if not see if it exists and add it to list and then return it
     MapDTable returnTable = MAPD_TABLES.get(names);
 
-    // in case a table doesn't exist in map check it has not been added
-    // so check the mapd server for the new table
+    // in case a table doesn't exist in map check the mapd server for the new
+    // table, only one caller does the read for any one table
     if (returnTable == null) {
-      synchronized (this) {
-        returnTable = MAPD_TABLES.get(names);
-        if (returnTable == null) {
-          returnTable = getTableData(names.get(2));
+      returnTable = loadTable(names, new Callable<MapDTable>() {
+        @Override
+        public MapDTable call() {
+          MapDTable table = MAPD_TABLES.get(names);
+          return table != null ? table : getTableData(names.get(2));
+        }
+      });
+    }
+    if (returnTable != null) {
+      recordAccess(names);
+      // a cached view is not expanded again so count what it reads as well
+      if (returnTable instanceof MapDView) {
+        for (List<String> dependency : ((MapDView) returnTable).getDependencies()) {
+          recordAccess(dependency);
         }
       }
     }
@@ -508,6 +626,16 @@ public class MapDCatalogReader implements Prepare.CatalogReader {
     currentMapDUser = mapDUser;
   }
 
+  /**
+   * Tables (including views and the tables underneath them) resolved by this
+   * reader, as upper cased catalog, schema, table triples.
+   *
+   * @return names of every table looked up since the reader was created
+   */
+  public Set<List<String>> getAccessedTables() {
+    return Collections.unmodifiableSet(accessedTables);
+  }
+
   // Convert our TDataumn type in to a base calcite SqlType
   // todo confirm whether it is ok to ignore thinsg like lengths
   // since we do not use them on the validator side of the calcite 'fence'
@@ -545,23 +673,60 @@ public class MapDCatalogReader implements Prepare.CatalogReader {
     }
   }
 
+  private void recordAccess(List<String> names) {
+    accessedTables.add(names);
+    for (Set<List<String>> viewDependencies : viewExpansions) {
+      viewDependencies.add(names);
+    }
+  }
+
+  void beginViewExpansion() {
+    viewExpansions.push(Sets.<List<String>>newHashSet());
+  }
+
+  Set<List<String>> endViewExpansion() {
+    return viewExpansions.pop();
+  }
+
   void updateMetaData(String schema, String table) {
+    // bump the version first so loads already reading the old metadata drop their result
+    METADATA_VERSION.incrementAndGet();
+    String schemaName = schema.toUpperCase();
     // Check if table is specified, if not we are dropping an entire DB so need to remove all tables for that DB
-    synchronized (this) {
-      if (table.equals("")) {
-        //Drop db and all tables
-        // iterate through all and remove matching schema
-        for (List<String> keys : MAPD_TABLES.keySet()) {
-          if (keys.get(1).equals(schema.toUpperCase())){
-            MAPDLOGGER.debug("removing schema "+ keys.get(1)+ " table " +keys.get(2));
-            MAPD_TABLES.remove(ImmutableList.of(DEFAULT_CATALOG, keys.get(1), keys.get(2)));
-          }
+    if (table.equals("")) {
+      //Drop db and all tables
+      // iterate through all and remove matching schema
+      for (List<String> keys : MAPD_TABLE_LOADS.keySet()) {
+        if (keys.get(1).equals(schemaName)) {
+          MAPD_TABLE_LOADS.remove(keys);
         }
-         MAPDLOGGER.debug("removing schema "+ schema);
-        MAPD_DATABASE.remove(schema.toUpperCase());
-      } else {
-         MAPDLOGGER.debug("removing schema "+ schema.toUpperCase() + " table " + table.toUpperCase());
-        MAPD_TABLES.remove(ImmutableList.of(DEFAULT_CATALOG, schema.toUpperCase(), table.toUpperCase()));
+      }
+      for (List<String> keys : MAPD_TABLES.keySet()) {
+        if (keys.get(1).equals(schemaName)) {
+          MAPDLOGGER.debug("removing schema " + keys.get(1) + " table " + keys.get(2));
+          MAPD_TABLES.remove(keys);
+        }
+      }
+      MAPDLOGGER.debug("removing schema " + schema);
+      MAPD_DATABASE.remove(schema);
+      MAPD_DATABASE.remove(schemaName);
+      MetaConnect.closeDBCatalog(dataDir, schema);
+    } else {
+      MAPDLOGGER.debug("removing schema " + schemaName + " table " + table.toUpperCase());
+      List<String> keys = ImmutableList.of(DEFAULT_CATALOG, schemaName, table.toUpperCase());
+      MAPD_TABLE_LOADS.remove(keys);
+      MAPD_TABLES.remove(keys);
+      // views keep their expanded sql, drop those built on the changed table
+      for (Map.Entry<List<String>, MapDTable> entry : MAPD_TABLES.entrySet()) {
+        if (entry.getValue() instanceof MapDView
+                && ((MapDView) entry.getValue()).getDependencies().contains(keys)) {
+          MAPDLOGGER.debug("removing dependent view " + entry.getKey().get(2));
+          MAPD_TABLES.remove(entry.getKey(), entry.getValue());
+        }
+      }
+      MapDDatabase db = MAPD_DATABASE.get(schema);
+      if (db != null) {
+        db.removeTable(table.toUpperCase());
       }
     }
   }
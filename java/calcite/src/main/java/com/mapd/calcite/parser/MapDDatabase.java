@@ -16,9 +16,9 @@
 
 package com.mapd.calcite.parser;
 
-import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
 import static com.mapd.calcite.parser.MapDCatalogReader.DEFAULT_CATALOG;
-import java.util.List;
+import java.util.Set;
 
 /**
  *
@@ -29,7 +29,7 @@ import java.util.List;
  */
 public class MapDDatabase {
 
-  private final List<String> tableNames = Lists.newArrayList();
+  private final Set<String> tableNames = Sets.newConcurrentHashSet();
   private final String name;
 
   public MapDDatabase(String name) {
@@ -40,6 +40,10 @@ public class MapDDatabase {
     tableNames.add(name);
   }
 
+  public void removeTable(String name) {
+    tableNames.remove(name);
+  }
+
   public String getCatalogName() {
     return DEFAULT_CATALOG;
   }
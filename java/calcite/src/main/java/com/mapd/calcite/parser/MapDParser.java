@@ -17,8 +17,10 @@
 package com.mapd.calcite.parser;
 
 import com.mapd.parser.server.ExtensionFunction;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import org.apache.calcite.avatica.util.Casing;
 import org.apache.calcite.plan.RelOptCluster;
 import org.apache.calcite.plan.RelOptTable;
@@ -64,21 +66,35 @@ public final class MapDParser {
 
     final static Logger MAPDLOGGER = LoggerFactory.getLogger(MapDParser.class);
 
-    private SqlTypeFactoryImpl typeFactory;
+    private final SqlTypeFactoryImpl typeFactory;
     private MapDCatalogReader catalogReader;
-    private SqlValidatorImpl validator;
-    private SqlToRelConverter converter;
-    private final Map<String, ExtensionFunction> extSigs;
+    private final SqlOperatorTable operatorTable;
     private final String dataDir;
 
     private int callCount = 0;
 
+    // the serialized plan is built here, kept between queries to save regrowing it
+    private final StringBuilder raBuffer = new StringBuilder();
+
     public MapDParser(String dataDir, final Map<String, ExtensionFunction> extSigs) {
+        this(dataDir, createOperatorTable(extSigs));
+    }
+
+    /**
+     * Creates a parser sharing an operator table built once by
+     * {@link #createOperatorTable}. The table is only read while parsing so
+     * one instance can serve every parser in the pool.
+     *
+     * @param dataDir directory containing the mapd data
+     * @param operatorTable operator table including the extension functions
+     */
+    public MapDParser(String dataDir, final SqlOperatorTable operatorTable) {
         System.setProperty("saffron.default.charset", ConversionUtil.NATIVE_UTF16_CHARSET_NAME);
         System.setProperty("saffron.default.nationalcharset", ConversionUtil.NATIVE_UTF16_CHARSET_NAME);
         System.setProperty("saffron.default.collation.name", ConversionUtil.NATIVE_UTF16_CHARSET_NAME + "$en_US");
         this.dataDir = dataDir;
-        this.extSigs = extSigs;
+        this.operatorTable = operatorTable;
+        this.typeFactory = new SqlTypeFactoryImpl(RelDataTypeSystem.DEFAULT);
     }
 
     public class Expander implements RelOptTable.ViewExpander {
@@ -97,23 +113,40 @@ public final class MapDParser {
     public String getRelAlgebra(String sql, final boolean legacy_syntax, final MapDUser mapDUser, final boolean isExplain)
             throws SqlParseException {
         callCount++;
-        catalogReader = new MapDCatalogReader(new SqlTypeFactoryImpl(RelDataTypeSystem.DEFAULT), dataDir, this);
-        catalogReader.setCurrentMapDUser(mapDUser);
-        final RelRoot sqlRel = queryToSqlNode(sql, legacy_syntax);
+        final RelRoot sqlRel = getRelRoot(sql, legacy_syntax, mapDUser);
         RelNode project = sqlRel.project();
 
         if (isExplain) {
             return RelOptUtil.toString(sqlRel.project());
         }
 
-        String res = MapDSerializer.toString(project);
+        String res = MapDSerializer.toString(project, raBuffer);
 
         return res;
     }
 
-    RelRoot queryToSqlNode(final String sql, final boolean legacy_syntax) throws SqlParseException {
-        typeFactory = new SqlTypeFactoryImpl(RelDataTypeSystem.DEFAULT);
+    RelRoot getRelRoot(String sql, final boolean legacy_syntax, final MapDUser mapDUser)
+            throws SqlParseException {
+        catalogReader = new MapDCatalogReader(typeFactory, dataDir, this);
+        catalogReader.setCurrentMapDUser(mapDUser);
+        return queryToSqlNode(sql, legacy_syntax);
+    }
 
+    /**
+     * Expand a view for caching, collecting the tables and views its sql
+     * reads into dependencies.
+     */
+    RelRoot expandView(final String viewSql, final Set<List<String>> dependencies) throws SqlParseException {
+        final MapDCatalogReader reader = catalogReader;
+        reader.beginViewExpansion();
+        try {
+            return queryToSqlNode(viewSql, true);
+        } finally {
+            dependencies.addAll(reader.endViewExpansion());
+        }
+    }
+
+    RelRoot queryToSqlNode(final String sql, final boolean legacy_syntax) throws SqlParseException {
         SqlNode node = processSQL(sql, legacy_syntax);
         if (legacy_syntax) {
             node = processSQL(node.toSqlString(SqlDialect.CALCITE).toString(), false);
@@ -121,8 +154,10 @@ public final class MapDParser {
 
         boolean is_select_star = isSelectStar(node);
 
-        validator = new MapDValidator(
-                createOperatorTable(extSigs),
+        // the validator keeps per statement scopes so it can not be shared,
+        // views are expanded re-entrantly through here as well
+        final SqlValidatorImpl validator = new MapDValidator(
+                operatorTable,
                 catalogReader,
                 typeFactory,
                 SqlConformance.DEFAULT);
@@ -149,7 +184,7 @@ public final class MapDParser {
         final RexBuilder rexBuilder = new RexBuilder(typeFactory);
         final RelOptCluster cluster = RelOptCluster.create(new MapDRelOptPlanner(), rexBuilder);
         final Config config = SqlToRelConverter.configBuilder().withExpand(false).withInSubQueryThreshold(Integer.MAX_VALUE).build();
-        converter = new SqlToRelConverter(new Expander(), validator, catalogReader, cluster,
+        final SqlToRelConverter converter = new SqlToRelConverter(new Expander(), validator, catalogReader, cluster,
                 StandardConvertletTable.INSTANCE, config);
 
         return converter.convertQuery(validate, true, true);
@@ -583,12 +618,13 @@ public final class MapDParser {
     }
 
     /**
-     * Creates an operator table.
+     * Creates an operator table. Callers should build it once and share it,
+     * registering the extension functions is expensive.
      *
      * @param extSigs
      * @return New operator table
      */
-    protected SqlOperatorTable createOperatorTable(final Map<String, ExtensionFunction> extSigs) {
+    public static SqlOperatorTable createOperatorTable(final Map<String, ExtensionFunction> extSigs) {
         final MapDSqlOperatorTable tempOpTab
                 = new MapDSqlOperatorTable(SqlStdOperatorTable.instance());
         // MAT 11 Nov 2015
@@ -609,9 +645,35 @@ public final class MapDParser {
         return callCount;
     }
 
+    /**
+     * Tables touched by the last call to {@link #getRelAlgebra}, used to key
+     * plan cache invalidation.
+     *
+     * @return catalog, schema, table triples of the accessed tables
+     */
+    public Set<List<String>> getAccessedTables() {
+        if (catalogReader == null) {
+            return Collections.emptySet();
+        }
+        return catalogReader.getAccessedTables();
+    }
+
     public void updateMetaData(String catalog, String table) {
         MAPDLOGGER.debug("catalog :" + catalog + " table :" + table);
-        catalogReader = new MapDCatalogReader(new SqlTypeFactoryImpl(RelDataTypeSystem.DEFAULT), dataDir, this);
+        catalogReader = new MapDCatalogReader(typeFactory, dataDir, this);
         catalogReader.updateMetaData(catalog, table);
     }
+
+    /**
+     * Load all tables and views of a database into the shared catalog.
+     *
+     * @return the number of tables added
+     */
+    public int preloadCatalog(String catalog) {
+        MAPDLOGGER.debug("preloading catalog :" + catalog);
+        catalogReader = new MapDCatalogReader(typeFactory, dataDir, this);
+        // registering a view validates its sql, which resolves names in the current db
+        catalogReader.setCurrentMapDUser(new MapDUser(null, null, catalog, -1));
+        return catalogReader.preloadDatabase(catalog);
+    }
 }
@@ -17,7 +17,7 @@
 package com.mapd.calcite.parser;
 
 import org.apache.calcite.rel.RelNode;
-import org.apache.calcite.rel.externalize.MapDRelJsonWriter;
+import org.apache.calcite.rel.externalize.MapDRelJsonStreamWriter;
 
 /**
  *
@@ -25,12 +25,30 @@ import org.apache.calcite.rel.externalize.MapDRelJsonWriter;
  */
 public class MapDSerializer {
 
+  // a buffer grown past this by an unusually large plan is not kept
+  private static final int MAX_RETAINED_BUFFER = 1 << 20;
+
   public static String toString(final RelNode rel) {
+    return toString(rel, new StringBuilder());
+  }
+
+  /**
+   * Serializes the plan through a caller owned buffer, which is cleared first
+   * and can be passed in again for the next plan.
+   */
+  public static String toString(final RelNode rel, final StringBuilder buf) {
     if (rel == null) {
       return null;
     }
-    final MapDRelJsonWriter planWriter = new MapDRelJsonWriter();
+    buf.setLength(0);
+    final MapDRelJsonStreamWriter planWriter = new MapDRelJsonStreamWriter(buf, 0);
     rel.explain(planWriter);
-    return planWriter.asString();
+    planWriter.finish();
+    final String res = buf.toString();
+    buf.setLength(0);
+    if (buf.capacity() > MAX_RETAINED_BUFFER) {
+      buf.trimToSize();
+    }
+    return res;
   }
 }
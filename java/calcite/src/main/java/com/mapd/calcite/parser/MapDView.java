@@ -16,9 +16,16 @@
 
 package com.mapd.calcite.parser;
 
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
 import org.apache.calcite.plan.RelOptTable;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.RelRoot;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rel.logical.LogicalValues;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.schema.Schema;
@@ -40,6 +47,14 @@ class MapDView extends MapDTable implements TranslatableTable {
         return viewSql;
     }
 
+    /**
+     * @return the tables and views read by the view sql, including those of
+     * nested views, empty until the view has been expanded
+     */
+    Set<List<String>> getDependencies() {
+        return dependencies;
+    }
+
     @Override
     public Schema.TableType getJdbcTableType() {
         return Schema.TableType.VIEW;
@@ -52,13 +67,8 @@ class MapDView extends MapDTable implements TranslatableTable {
 
     @Override
     public RelDataType getRowType() {
-        try {
-            final RelRoot relAlg = parser.queryToSqlNode(viewSql, true);
-            return relAlg.validatedRowType;
-        } catch (SqlParseException e) {
-            assert false;
-            return null;
-        }
+        final RelRoot relAlg = expand();
+        return relAlg == null ? null : relAlg.validatedRowType;
     }
 
     @Override
@@ -68,9 +78,64 @@ class MapDView extends MapDTable implements TranslatableTable {
 
     @Override
     public RelNode toRel(RelOptTable.ToRelContext context, RelOptTable relOptTable) {
-        return context.expandView(relOptTable.getRowType(), viewSql, null, null).rel;
+        final RelRoot relAlg = expand();
+        if (relAlg == null) {
+            return context.expandView(relOptTable.getRowType(), viewSql, null, null).rel;
+        }
+        return copyOf(relAlg.rel);
+    }
+
+    /**
+     * Parse, validate and convert the view sql the first time it is needed,
+     * which is when the view is registered. The view is dropped from the
+     * catalog when it or anything it depends on changes, so the result holds
+     * for as long as the view does.
+     */
+    private RelRoot expand() {
+        RelRoot relAlg = expanded;
+        if (relAlg == null) {
+            synchronized (this) {
+                relAlg = expanded;
+                if (relAlg == null) {
+                    final Set<List<String>> deps = Sets.newHashSet();
+                    try {
+                        relAlg = parser.expandView(viewSql, deps);
+                    } catch (SqlParseException e) {
+                        assert false;
+                        return null;
+                    }
+                    dependencies = ImmutableSet.copyOf(deps);
+                    expanded = relAlg;
+                }
+            }
+        }
+        return relAlg;
+    }
+
+    /**
+     * Every use of the view gets its own copy of the cached tree, so a view
+     * used twice in a query still serializes as two separate inputs.
+     */
+    private static RelNode copyOf(RelNode rel) {
+        final List<RelNode> inputs = new ArrayList<RelNode>(rel.getInputs().size());
+        for (RelNode input : rel.getInputs()) {
+            inputs.add(copyOf(input));
+        }
+        if (rel instanceof LogicalTableScan) {
+            return LogicalTableScan.create(rel.getCluster(), rel.getTable());
+        }
+        if (rel instanceof LogicalValues) {
+            final LogicalValues values = (LogicalValues) rel;
+            return LogicalValues.create(values.getCluster(), values.getRowType(), values.getTuples());
+        }
+        if (inputs.isEmpty()) {
+            return rel;
+        }
+        return rel.copy(rel.getTraitSet(), inputs);
     }
 
     private final String viewSql;
     private final MapDParser parser;
+    private volatile RelRoot expanded;
+    private volatile Set<List<String>> dependencies = ImmutableSet.of();
 }
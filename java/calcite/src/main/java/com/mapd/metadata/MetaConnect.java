@@ -20,15 +20,20 @@ import com.mapd.thrift.server.TColumnType;
 import com.mapd.thrift.server.TDatumType;
 import com.mapd.thrift.server.TEncodingType;
 import com.mapd.thrift.server.TTypeInfo;
+import java.io.File;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.sqlite.SQLiteConfig;
 
 /**
  *
@@ -39,7 +44,40 @@ public class MetaConnect {
   final static Logger MAPDLOGGER = LoggerFactory.getLogger(MetaConnect.class);
   private final String dataDir;
   private final String db;
-  private Connection catConn;
+  private CatalogConnection catConn;
+
+  // one open read only connection per catalog file, shared by every MetaConnect
+  private static final ConcurrentMap<String, CatalogConnection> CATALOG_CONNECTIONS
+          = new ConcurrentHashMap<String, CatalogConnection>();
+
+  private static final String BUSY_TIMEOUT_MS = "5000";
+
+  private static final String TABLE_ID_SQL
+          = "SELECT tableid FROM mapd_tables where name = ? COLLATE NOCASE;";
+  private static final String IS_VIEW_SQL
+          = "SELECT isview FROM mapd_tables where name = ? COLLATE NOCASE;";
+  private static final String VIEW_SQL
+          = "SELECT sql FROM mapd_views where tableid = ?;";
+  private static final String COLUMNS_SQL
+          = "SELECT * FROM mapd_columns where tableid = ? order by columnid;";
+  // table id, view flag, view sql and columns in one round trip, a table
+  // without columns still returns one row with null column values
+  private static final String TABLE_DETAILS_SQL
+          = "SELECT t.tableid, t.isview, v.sql, c.name, c.coltype, c.colsubtype, c.coldim,"
+          + " c.colscale, c.is_notnull"
+          + " FROM mapd_tables t"
+          + " LEFT JOIN mapd_views v ON v.tableid = t.tableid"
+          + " LEFT JOIN mapd_columns c ON c.tableid = t.tableid"
+          + " WHERE t.name = ? COLLATE NOCASE"
+          + " ORDER BY c.columnid;";
+  // the same for every table in the catalog, used to preload it in bulk
+  private static final String ALL_TABLE_DETAILS_SQL
+          = "SELECT t.tableid, t.name AS tablename, t.isview, v.sql, c.name, c.coltype, c.colsubtype,"
+          + " c.coldim, c.colscale, c.is_notnull"
+          + " FROM mapd_tables t"
+          + " LEFT JOIN mapd_views v ON v.tableid = t.tableid"
+          + " LEFT JOIN mapd_columns c ON c.tableid = t.tableid"
+          + " ORDER BY t.tableid, c.columnid;";
 
   private static final int KBOOLEAN = 1;
   private static final int KCHAR = 2;
@@ -68,9 +106,70 @@ public class MetaConnect {
     this.db = db;
   }
 
+  /**
+   * Everything the catalog reader needs to know about one table.
+   */
+  public static class TableDetails {
+
+    private final int tableId;
+    private final boolean isView;
+    private final String viewSql;
+    private final Map<String, TColumnType> columns;
+
+    TableDetails(int tableId, boolean isView, String viewSql, Map<String, TColumnType> columns) {
+      this.tableId = tableId;
+      this.isView = isView;
+      this.viewSql = viewSql;
+      this.columns = columns;
+    }
+
+    public int getTableId() {
+      return tableId;
+    }
+
+    public boolean isView() {
+      return isView;
+    }
+
+    public String getViewSql() {
+      return viewSql;
+    }
+
+    public Map<String, TColumnType> getColumns() {
+      return columns;
+    }
+  }
+
   public void connectToDBCatalog() {
+    String connectURL = "jdbc:sqlite:" + dataDir + "/mapd_catalogs/" + db;
+    CatalogConnection conn = CATALOG_CONNECTIONS.get(connectURL);
+    if (conn == null) {
+      CatalogConnection newConn = new CatalogConnection(openConnection(connectURL));
+      conn = CATALOG_CONNECTIONS.putIfAbsent(connectURL, newConn);
+      if (conn == null) {
+        conn = newConn;
+        MAPDLOGGER.debug("Opened database successfully");
+      } else {
+        newConn.close();
+      }
+    }
+    catConn = conn;
+  }
+
+  /**
+   * Close the cached connection to a catalog, used when the database is
+   * dropped so a database recreated under the same name is read afresh.
+   */
+  public static void closeDBCatalog(String dataDir, String db) {
+    String connectURL = "jdbc:sqlite:" + dataDir + "/mapd_catalogs/" + db;
+    CatalogConnection conn = CATALOG_CONNECTIONS.remove(connectURL);
+    if (conn != null) {
+      conn.close();
+    }
+  }
+
+  private Connection openConnection(String connectURL) {
     try {
-      //try {
       Class.forName("org.sqlite.JDBC");
     } catch (ClassNotFoundException ex) {
       String err = "Could not find class for metadata connection; DB: '" + db +
@@ -78,57 +177,143 @@ public class MetaConnect {
       MAPDLOGGER.error(err);
       throw new RuntimeException(err);
     }
-    String connectURL = "jdbc:sqlite:" + dataDir + "/mapd_catalogs/" + db;
+    // the server owns the catalog, we only ever read it; the busy timeout lets
+    // our reads wait out a server write instead of failing
+    SQLiteConfig config = new SQLiteConfig();
+    config.setReadOnly(true);
+    config.setBusyTimeout(BUSY_TIMEOUT_MS);
+    config.setSharedCache(false);
     try {
-      catConn = DriverManager.getConnection(connectURL);
+      return config.createConnection(connectURL);
     } catch (SQLException ex) {
       String err = "Could not establish a connection for metadata; DB: '" + db +
               "' data dir '" + dataDir + "', error was " + ex.getMessage();
       MAPDLOGGER.error(err);
       throw new RuntimeException(err);
     }
-    MAPDLOGGER.debug("Opened database successfully");
   }
 
-  public Map<String, TColumnType> getTableDescriptor(String tableName) {
-    int id = -1;
-    Statement stmt = null;
-    ResultSet rs = null;
-    try {
-      stmt = catConn.createStatement();
-      rs = stmt.executeQuery(String.format("SELECT tableid FROM mapd_tables where name = '%s' COLLATE NOCASE;", tableName));
-      while (rs.next()) {
-        id = rs.getInt("tableid");
-        MAPDLOGGER.debug("ID = " + id);
-        MAPDLOGGER.debug("");
-      }
-      rs.close();
-      stmt.close();
-    } catch (Exception e) {
-      String err = "Error trying to read from metadata table mapd_tables;DB: " + db +
-              " data dir " + dataDir + ", error was " + e.getMessage();
-      MAPDLOGGER.error(err);
-      throw new RuntimeException(err);
-    } finally {
-      if (rs != null) {
-        try {
-          rs.close();
-        } catch (SQLException ex) {
-          String err = "Could not close resultset, error was " + ex.getMessage();
-          MAPDLOGGER.error(err);
-          throw new RuntimeException(err);
+  /**
+   * Read the table id, view flag, view sql and column descriptors of a table
+   * with a single query.
+   *
+   * @param tableName name of the table or view, case insensitive
+   * @return the table details
+   */
+  public TableDetails getTableDetails(String tableName) {
+    synchronized (catConn) {
+      ResultSet rs = null;
+      int id = -1;
+      boolean isView = false;
+      String viewSql = null;
+      Map<String, TColumnType> columns = new LinkedHashMap<String, TColumnType>();
+      try {
+        PreparedStatement ps = catConn.prepare(TABLE_DETAILS_SQL);
+        ps.setString(1, tableName);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          if (id == -1) {
+            id = rs.getInt("tableid");
+            isView = rs.getInt("isview") == 1;
+            viewSql = rs.getString("sql");
+            MAPDLOGGER.debug("ID = " + id + " isview = " + isView);
+          }
+          if (rs.getString("name") != null) {
+            TColumnType tct = readColumn(rs);
+            columns.put(tct.col_name, tct);
+          }
         }
+      } catch (Exception e) {
+        String err = "Error trying to read table details for '" + tableName + "'; DB: " + db +
+                " data dir " + dataDir + ", error was " + e.getMessage();
+        MAPDLOGGER.error(err);
+        throw new RuntimeException(err);
+      } finally {
+        closeResultSet(rs);
       }
-      if (stmt != null) {
-        try {
-          stmt.close();
-        } catch (SQLException ex) {
-          String err = "Could not close stmt, error was " + ex.getMessage();
-          MAPDLOGGER.error(err);
-          throw new RuntimeException(err);
+      if (id == -1) {
+        String err = "Table '" + tableName + "' does not exist for DB '" + db + "'";
+        throw new RuntimeException(err);
+      }
+      if (isView) {
+        viewSql = trimViewSql(viewSql);
+      }
+      return new TableDetails(id, isView, viewSql, columns);
+    }
+  }
+
+  /**
+   * Read the details of every table and view in the catalog with a single
+   * query.
+   *
+   * @return table details keyed on the table name as stored in the catalog
+   */
+  public Map<String, TableDetails> getAllTableDetails() {
+    Map<String, TableDetails> res = new LinkedHashMap<String, TableDetails>();
+    synchronized (catConn) {
+      ResultSet rs = null;
+      try {
+        PreparedStatement ps = catConn.prepare(ALL_TABLE_DETAILS_SQL);
+        rs = ps.executeQuery();
+        int id = -1;
+        String tableName = null;
+        boolean isView = false;
+        String viewSql = null;
+        Map<String, TColumnType> columns = null;
+        while (rs.next()) {
+          int rowId = rs.getInt("tableid");
+          if (rowId != id) {
+            if (id != -1) {
+              res.put(tableName, new TableDetails(id, isView, isView ? trimViewSql(viewSql) : null, columns));
+            }
+            id = rowId;
+            tableName = rs.getString("tablename");
+            isView = rs.getInt("isview") == 1;
+            viewSql = rs.getString("sql");
+            columns = new LinkedHashMap<String, TColumnType>();
+          }
+          if (rs.getString("name") != null) {
+            TColumnType tct = readColumn(rs);
+            columns.put(tct.col_name, tct);
+          }
+        }
+        if (id != -1) {
+          res.put(tableName, new TableDetails(id, isView, isView ? trimViewSql(viewSql) : null, columns));
         }
+      } catch (Exception e) {
+        String err = "Error trying to read table details; DB: " + db +
+                " data dir " + dataDir + ", error was " + e.getMessage();
+        MAPDLOGGER.error(err);
+        throw new RuntimeException(err);
+      } finally {
+        closeResultSet(rs);
       }
     }
+    return res;
+  }
+
+  /**
+   * List the databases with a catalog file under the data directory.
+   */
+  public static List<String> getDBCatalogNames(String dataDir) {
+    List<String> names = new ArrayList<String>();
+    File[] files = new File(dataDir, "mapd_catalogs").listFiles();
+    if (files == null) {
+      MAPDLOGGER.error("Could not list catalogs in data dir " + dataDir);
+      return names;
+    }
+    for (File f : files) {
+      // skip sqlite's journal, wal and shared memory files
+      String name = f.getName();
+      if (f.isFile() && !name.endsWith("-journal") && !name.endsWith("-wal") && !name.endsWith("-shm")) {
+        names.add(name);
+      }
+    }
+    return names;
+  }
+
+  public Map<String, TColumnType> getTableDescriptor(String tableName) {
+    int id = getTableId(tableName);
     if (id == -1) {
       String err = "Table '" + tableName + "' does not exist for DB '" + db + "'";
       //MAPDLOGGER.error(err);
@@ -138,127 +323,109 @@ public class MetaConnect {
     Map<String, TColumnType> res = new LinkedHashMap<String, TColumnType>();
 
     // read data from table
-    stmt = null;
-    rs = null;
-    try {
-      stmt = catConn.createStatement();
-      MAPDLOGGER.debug("table id is " + id);
-      String query = String.format("SELECT * FROM mapd_columns where tableid = %d order by columnid;", id);
-      MAPDLOGGER.debug(query);
-      rs = stmt.executeQuery(query);
-      while (rs.next()) {
-        String colName = rs.getString("name");
-        MAPDLOGGER.debug("name = " + colName);
-        int colType = rs.getInt("coltype");
-        MAPDLOGGER.debug("coltype = " + colType);
-        int colSubType = rs.getInt("colsubtype");
-        MAPDLOGGER.debug("colsubtype = " + colSubType);
-        int colDim = rs.getInt("coldim");
-        MAPDLOGGER.debug("coldim = " + colDim);
-        int colScale = rs.getInt("colscale");
-        MAPDLOGGER.debug("colscale = " + colScale);
-        boolean isNotNull = rs.getBoolean("is_notnull");
-        MAPDLOGGER.debug("is_notnull = " + isNotNull);
-        boolean isSystemCol = rs.getBoolean("is_systemcol");
-        MAPDLOGGER.debug("is_systemcol = " + isSystemCol);
-        boolean isVirtualCol = rs.getBoolean("is_virtualcol");
-        MAPDLOGGER.debug("is_vitrualcol = " + isVirtualCol);
-        MAPDLOGGER.debug("");
-        TColumnType tct = new TColumnType();
-        TTypeInfo tti = new TTypeInfo();
-        TDatumType tdt;
-
-        if (colType == KARRAY){
-          tti.is_array = true;
-          tdt = typeToThrift(colSubType);
-        } else {
-          tti.is_array = false;
-          tdt = typeToThrift(colType);
-        }
-
-        tti.nullable = !isNotNull;
-        tti.encoding = TEncodingType.NONE;
-        tti.type = tdt;
-        tti.scale = colScale;
-        tti.precision = colDim;
-
-        tct.col_name = colName;
-        tct.col_type = tti;
-
-        res.put(colName, tct);
-      }
-    } catch (Exception e) {
-      String err = "error trying to read from mapd_columns, error was " + e.getMessage();
-      MAPDLOGGER.error(err);
-      throw new RuntimeException(err);
-    } finally {
-      if (rs != null) {
-        try {
-          rs.close();
-        } catch (SQLException ex) {
-          String err = "Could not close resultset, error was " + ex.getMessage();
-          MAPDLOGGER.error(err);
-          throw new RuntimeException(err);
-        }
-      }
-      if (stmt != null) {
-        try {
-          stmt.close();
-        } catch (SQLException ex) {
-          String err = "Could not close stmt, error was " + ex.getMessage();
-          MAPDLOGGER.error(err);
-          throw new RuntimeException(err);
+    synchronized (catConn) {
+      ResultSet rs = null;
+      try {
+        MAPDLOGGER.debug("table id is " + id);
+        PreparedStatement ps = catConn.prepare(COLUMNS_SQL);
+        ps.setInt(1, id);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          TColumnType tct = readColumn(rs);
+          res.put(tct.col_name, tct);
         }
+      } catch (Exception e) {
+        String err = "error trying to read from mapd_columns, error was " + e.getMessage();
+        MAPDLOGGER.error(err);
+        throw new RuntimeException(err);
+      } finally {
+        closeResultSet(rs);
       }
     }
     return res;
   }
 
+  private TColumnType readColumn(ResultSet rs) throws SQLException {
+    String colName = rs.getString("name");
+    MAPDLOGGER.debug("name = " + colName);
+    int colType = rs.getInt("coltype");
+    MAPDLOGGER.debug("coltype = " + colType);
+    int colSubType = rs.getInt("colsubtype");
+    MAPDLOGGER.debug("colsubtype = " + colSubType);
+    int colDim = rs.getInt("coldim");
+    MAPDLOGGER.debug("coldim = " + colDim);
+    int colScale = rs.getInt("colscale");
+    MAPDLOGGER.debug("colscale = " + colScale);
+    boolean isNotNull = rs.getBoolean("is_notnull");
+    MAPDLOGGER.debug("is_notnull = " + isNotNull);
+    TColumnType tct = new TColumnType();
+    TTypeInfo tti = new TTypeInfo();
+    TDatumType tdt;
+
+    if (colType == KARRAY){
+      tti.is_array = true;
+      tdt = typeToThrift(colSubType);
+    } else {
+      tti.is_array = false;
+      tdt = typeToThrift(colType);
+    }
+
+    tti.nullable = !isNotNull;
+    tti.encoding = TEncodingType.NONE;
+    tti.type = tdt;
+    tti.scale = colScale;
+    tti.precision = colDim;
+
+    tct.col_name = colName;
+    tct.col_type = tti;
+    return tct;
+  }
+
   public int getTableId(String tableName) {
-    Statement stmt = null;
-    ResultSet rs = null;
-    int tableId = 0;
-    try {
-      stmt = catConn.createStatement();
-      rs = stmt.executeQuery(String.format(
-              "SELECT tableid FROM mapd_tables where name = '%s' COLLATE NOCASE;",
-              tableName));
-      while (rs.next()) {
-        tableId = rs.getInt("tableid");
-        MAPDLOGGER.debug("tableId = " + tableId);
-        MAPDLOGGER.debug("");
+    synchronized (catConn) {
+      ResultSet rs = null;
+      int tableId = -1;
+      try {
+        PreparedStatement ps = catConn.prepare(TABLE_ID_SQL);
+        ps.setString(1, tableName);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          tableId = rs.getInt("tableid");
+          MAPDLOGGER.debug("tableId = " + tableId);
+        }
+      } catch (Exception e) {
+        String err = "Error trying to read from metadata table mapd_tables;DB: " + db +
+                " data dir " + dataDir + ", error was " + e.getMessage();
+        MAPDLOGGER.error(err);
+        throw new RuntimeException(err);
+      } finally {
+        closeResultSet(rs);
       }
-      rs.close();
-      stmt.close();
-    } catch (Exception e) {
-      String err = "error trying to read from mapd_views, error was " + e.getMessage();
-      MAPDLOGGER.error(err);
-      throw new RuntimeException(err);
+      return (tableId);
     }
-    return (tableId);
   }
 
   public boolean isView(String tableName) {
-    Statement stmt = null;
-    ResultSet rs = null;
-    int viewFlag = 0;
-    try {
-      stmt = catConn.createStatement();
-      rs = stmt.executeQuery(String.format(
-              "SELECT isview FROM mapd_tables where name = '%s' COLLATE NOCASE;", tableName));
-      while (rs.next()) {
-        viewFlag = rs.getInt("isview");
-        MAPDLOGGER.debug("viewFlag = " + viewFlag);
-        MAPDLOGGER.debug("");
+    synchronized (catConn) {
+      ResultSet rs = null;
+      int viewFlag = 0;
+      try {
+        PreparedStatement ps = catConn.prepare(IS_VIEW_SQL);
+        ps.setString(1, tableName);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          viewFlag = rs.getInt("isview");
+          MAPDLOGGER.debug("viewFlag = " + viewFlag);
+        }
+      } catch (Exception e) {
+        String err = "error trying to read from mapd_views, error was " + e.getMessage();
+        MAPDLOGGER.error(err);
+        throw new RuntimeException(err);
+      } finally {
+        closeResultSet(rs);
       }
-      rs.close();
-      stmt.close();
-    } catch (Exception e) {
-      String err = "error trying to read from mapd_views, error was " + e.getMessage();
-      MAPDLOGGER.error(err);
-      throw new RuntimeException(err);
+      return (viewFlag == 1);
     }
-    return (viewFlag == 1);
   }
 
   public String getViewSql(String tableName) {
@@ -266,25 +433,29 @@ public class MetaConnect {
   }
 
   public String getViewSql(int tableId) {
-    Statement stmt = null;
-    ResultSet rs = null;
     String sqlText = "";
-    try {
-      stmt = catConn.createStatement();
-      rs = stmt.executeQuery(String.format(
-              "SELECT sql FROM mapd_views where tableid = '%s' COLLATE NOCASE;", tableId));
-      while (rs.next()) {
-        sqlText = rs.getString("sql");
-        MAPDLOGGER.debug("View definition = " + sqlText);
-        MAPDLOGGER.debug("");
+    synchronized (catConn) {
+      ResultSet rs = null;
+      try {
+        PreparedStatement ps = catConn.prepare(VIEW_SQL);
+        ps.setInt(1, tableId);
+        rs = ps.executeQuery();
+        while (rs.next()) {
+          sqlText = rs.getString("sql");
+          MAPDLOGGER.debug("View definition = " + sqlText);
+        }
+      } catch (Exception e) {
+        String err = "error trying to read from mapd_views, error was " + e.getMessage();
+        MAPDLOGGER.error(err);
+        throw new RuntimeException(err);
+      } finally {
+        closeResultSet(rs);
       }
-      rs.close();
-      stmt.close();
-    } catch (Exception e) {
-      String err = "error trying to read from mapd_views, error was " + e.getMessage();
-      MAPDLOGGER.error(err);
-      throw new RuntimeException(err);
     }
+    return trimViewSql(sqlText);
+  }
+
+  private String trimViewSql(String sqlText) {
     if (sqlText == null || sqlText.length() == 0) {
       String err = "No view text found";
       MAPDLOGGER.error(err);
@@ -298,6 +469,18 @@ public class MetaConnect {
     }
   }
 
+  private static void closeResultSet(ResultSet rs) {
+    if (rs != null) {
+      try {
+        rs.close();
+      } catch (SQLException ex) {
+        String err = "Could not close resultset, error was " + ex.getMessage();
+        MAPDLOGGER.error(err);
+        throw new RuntimeException(err);
+      }
+    }
+  }
+
   private TDatumType typeToThrift(int type) {
     switch (type) {
       case KBOOLEAN:
@@ -329,4 +512,45 @@ public class MetaConnect {
         return null;
     }
   }
+
+  /**
+   * A catalog connection and its prepared statements. sqlite connections are
+   * not safe for concurrent use so callers synchronize on the instance.
+   */
+  private static final class CatalogConnection {
+
+    private final Connection conn;
+    private final Map<String, PreparedStatement> statements = new ConcurrentHashMap<String, PreparedStatement>();
+
+    private CatalogConnection(Connection conn) {
+      this.conn = conn;
+    }
+
+    private PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement ps = statements.get(sql);
+      if (ps == null) {
+        ps = conn.prepareStatement(sql);
+        statements.put(sql, ps);
+      }
+      return ps;
+    }
+
+    private void close() {
+      synchronized (this) {
+        for (PreparedStatement ps : statements.values()) {
+          try {
+            ps.close();
+          } catch (SQLException ex) {
+            MAPDLOGGER.error("Could not close stmt, error was " + ex.getMessage());
+          }
+        }
+        statements.clear();
+        try {
+          conn.close();
+        } catch (SQLException ex) {
+          MAPDLOGGER.error("Could not close metadata connection, error was " + ex.getMessage());
+        }
+      }
+    }
+  }
 }
@@ -23,8 +23,6 @@ import java.util.Map;
 import java.util.Properties;
 import org.apache.calcite.runtime.CalciteContextException;
 import org.apache.calcite.sql.parser.SqlParseException;
-import org.apache.commons.pool.PoolableObjectFactory;
-import org.apache.commons.pool.impl.GenericObjectPool;
 import org.apache.log4j.PropertyConfigurator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,10 +38,12 @@ final static Logger MAPDLOGGER = LoggerFactory.getLogger(CalciteDirect.class);
 
   private volatile long callCount;
 
-  private final GenericObjectPool parserPool;
+  private final ParserPool parserPool;
 
   private final String extSigsJson;
 
+  private final PlanCache planCache;
+
   public CalciteDirect(int port, String dataDir, String extensionFunctionsAstFile) {
     Properties p = new Properties();
     try {
@@ -56,8 +56,8 @@ final static Logger MAPDLOGGER = LoggerFactory.getLogger(CalciteDirect.class);
     PropertyConfigurator.configure( p );
     MAPDLOGGER.debug("CalciteDirect Constructor port is '" + port + "' data dir is '" + dataDir +"'");
     MAPDLOGGER.debug("Extension signatures file is " + extensionFunctionsAstFile);
-    this.parserPool = new GenericObjectPool();
     this.mapDPort = port;
+    this.planCache = new PlanCache(PlanCache.DEFAULT_MAX_ENTRIES);
 
     Map<String, ExtensionFunction> extSigs = null;
     try {
@@ -67,16 +67,29 @@ final static Logger MAPDLOGGER = LoggerFactory.getLogger(CalciteDirect.class);
     }
     this.extSigsJson = ExtensionFunctionSignatureParser.signaturesToJson(extSigs);
 
-    PoolableObjectFactory parserFactory = new CalciteParserFactory(dataDir, extSigs);
+    CalciteParserFactory parserFactory = new CalciteParserFactory(dataDir, extSigs);
 
-    parserPool.setFactory(parserFactory);
-    parserPool.setTestOnReturn(true);
+    this.parserPool = new ParserPool(parserFactory, ParserPool.DEFAULT_MAX_SIZE,
+            Runtime.getRuntime().availableProcessors(), ParserPool.DEFAULT_IDLE_TIMEOUT_MS);
+    parserPool.warmUp();
   }
 
   public long getCallcount(){
     return callCount;
   }
 
+  public long getPlanCacheHitCount() {
+    return planCache.stats().hitCount();
+  }
+
+  public long getPlanCacheMissCount() {
+    return planCache.stats().missCount();
+  }
+
+  public String getParserPoolStats() {
+    return parserPool.toString();
+  }
+
   public void testNS(String[] args) {
     MAPDLOGGER.error("In Test NS:"+args.length);
     if (1 <= args.length) {
@@ -95,9 +108,10 @@ final static Logger MAPDLOGGER = LoggerFactory.getLogger(CalciteDirect.class);
     MAPDLOGGER.debug("Received invalidation from server for "+ catalog + " : " + table);
     long timer = System.currentTimeMillis();
     callCount++;
+    planCache.invalidate(catalog, table);
     MapDParser parser;
     try {
-      parser = (MapDParser) parserPool.borrowObject();
+      parser = parserPool.borrow();
     } catch (Exception ex) {
       String msg = "Could not get Parse Item from pool: " + ex.getMessage();
       MAPDLOGGER.error(msg);
@@ -106,15 +120,9 @@ final static Logger MAPDLOGGER = LoggerFactory.getLogger(CalciteDirect.class);
     try {
       parser.updateMetaData(catalog, table);
     } finally {
-      try {
-        // put parser object back in pool for others to use
-        MAPDLOGGER.debug("Returning object to pool");
-        parserPool.returnObject(parser);
-      } catch (Exception ex) {
-        String msg = "Could not return parse object: " + ex.getMessage();
-        MAPDLOGGER.error(msg);
-        return new CalciteReturn("ERROR-- " +  msg, System.currentTimeMillis() - timer, true);
-      }
+      // put parser object back in pool for others to use
+      MAPDLOGGER.debug("Returning object to pool");
+      parserPool.release(parser);
     }
     return new CalciteReturn("", System.currentTimeMillis() - timer, false);
   }
@@ -123,9 +131,16 @@ final static Logger MAPDLOGGER = LoggerFactory.getLogger(CalciteDirect.class);
     MAPDLOGGER.debug(user + " " + " " + catalog +" '"+sqlText + "' " + legacySyntax + "' " + isExplain );
     long timer = System.currentTimeMillis();
     callCount++;
+    PlanCache.Key planKey = PlanCache.key(user, catalog, sqlText, legacySyntax, isExplain);
+    String cachedPlan = planCache.get(planKey);
+    if (cachedPlan != null) {
+      MAPDLOGGER.debug("process plan cache hit User: " + user + " Catalog: " + catalog + " sql: " + sqlText);
+      return new CalciteReturn(cachedPlan, System.currentTimeMillis() - timer, false);
+    }
+    long planGeneration = planCache.generation();
     MapDParser parser;
     try {
-      parser = (MapDParser) parserPool.borrowObject();
+      parser = parserPool.borrow();
     } catch (Exception ex) {
       String msg = "Could not get Parse Item from pool: " + ex.getMessage();
       MAPDLOGGER.error(msg);
@@ -145,6 +160,7 @@ final static Logger MAPDLOGGER = LoggerFactory.getLogger(CalciteDirect.class);
         Thread.currentThread().setContextClassLoader(cl);
       }
       relAlgebra = parser.getRelAlgebra(sqlText, legacySyntax, mapDUser, isExplain);
+      planCache.put(planKey, relAlgebra, parser.getAccessedTables(), planGeneration);
       MAPDLOGGER.debug("After get relalgebra");
     } catch (SqlParseException ex) {
       String msg = "Parse failed: " + ex.getPos() + ", " +  ex.getMessage();
@@ -160,15 +176,9 @@ final static Logger MAPDLOGGER = LoggerFactory.getLogger(CalciteDirect.class);
       //MAPDLOGGER.error(msg);
       return new CalciteReturn("ERROR-- " +  msg, System.currentTimeMillis() - timer, true);
     } finally {
-      try {
-        // put parser object back in pool for others to use
-        MAPDLOGGER.debug("Returning object to pool");
-        parserPool.returnObject(parser);
-      } catch (Exception ex) {
-        String msg = "Could not return parse object: " + ex.getMessage();
-        MAPDLOGGER.error(msg);
-        return new CalciteReturn("ERROR-- " +  msg, System.currentTimeMillis() - timer, true);
-      }
+      // put parser object back in pool for others to use
+      MAPDLOGGER.debug("Returning object to pool");
+      parserPool.release(parser);
     }
     MAPDLOGGER.debug("About to return good result");
     return new CalciteReturn(relAlgebra, System.currentTimeMillis() - timer, false);
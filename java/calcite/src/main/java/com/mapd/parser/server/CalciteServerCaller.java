@@ -67,9 +67,50 @@ public class CalciteServerCaller {
             .longOpt("extensions")
             .build();
 
+    Option parsers = Option.builder()
+            .hasArg()
+            .desc("maximum number of pooled parsers")
+            .longOpt("parser-pool-size")
+            .build();
+
+    Option serverMode = Option.builder("m")
+            .hasArg()
+            .desc("thrift server: threadpool (default), hsha or selector, the last two need framed transport")
+            .longOpt("server-mode")
+            .build();
+
+    Option selectors = Option.builder()
+            .hasArg()
+            .desc("selector threads for the selector server")
+            .longOpt("selector-threads")
+            .build();
+
+    Option workers = Option.builder()
+            .hasArg()
+            .desc("worker threads for the hsha and selector servers")
+            .longOpt("worker-threads")
+            .build();
+
+    Option queue = Option.builder()
+            .hasArg()
+            .desc("requests queued for a worker before the server pushes back")
+            .longOpt("request-queue-size")
+            .build();
+
+    Option preload = Option.builder()
+            .desc("load the tables of every database at startup")
+            .longOpt("preload-catalogs")
+            .build();
+
     options.addOption(port);
     options.addOption(data);
     options.addOption(extensions);
+    options.addOption(parsers);
+    options.addOption(serverMode);
+    options.addOption(selectors);
+    options.addOption(workers);
+    options.addOption(queue);
+    options.addOption(preload);
 
     CommandLineParser parser = new DefaultParser();
 
@@ -85,6 +126,8 @@ public class CalciteServerCaller {
     String dataDir = cmd.getOptionValue("data", "data");
     String extensionsDir = cmd.getOptionValue("extensions", "build/QueryEngine");
     final Path extensionFunctionsAstFile = Paths.get(extensionsDir, "ExtensionFunctions.ast");
+    int parserPoolSize = Integer.valueOf(cmd.getOptionValue("parser-pool-size",
+            String.valueOf(ParserPool.DEFAULT_MAX_SIZE)));
 
     //Add logging to our log files directories
     Properties p = new Properties();
@@ -97,7 +140,32 @@ public class CalciteServerCaller {
     p.put( "log.dir", dataDir ); // overwrite "log.dir"
     PropertyConfigurator.configure( p );
 
-    calciteServerWrapper = new CalciteServerWrapper(portNum, -1, dataDir, extensionFunctionsAstFile.toString());
+    calciteServerWrapper = new CalciteServerWrapper(portNum, -1, dataDir, extensionFunctionsAstFile.toString(),
+            parserPoolSize);
+
+    String mode = cmd.getOptionValue("server-mode", "threadpool");
+    if (!mode.equals("threadpool")) {
+      CalciteServerWrapper.ServerMode sm;
+      if (mode.equals("hsha")) {
+        sm = CalciteServerWrapper.ServerMode.HSHA;
+      } else if (mode.equals("selector")) {
+        sm = CalciteServerWrapper.ServerMode.THREADED_SELECTOR;
+      } else {
+        MAPDLOGGER.error("Unknown server mode " + mode);
+        help(options);
+        exit(0);
+        return;
+      }
+      int cores = Runtime.getRuntime().availableProcessors();
+      calciteServerWrapper.setServerMode(sm,
+              Integer.valueOf(cmd.getOptionValue("selector-threads", "2")),
+              Integer.valueOf(cmd.getOptionValue("worker-threads", String.valueOf(cores * 2))),
+              Integer.valueOf(cmd.getOptionValue("request-queue-size", "1000")));
+    }
+
+    if (cmd.hasOption("preload-catalogs")) {
+      calciteServerWrapper.setPreloadCatalogs(Runtime.getRuntime().availableProcessors());
+    }
 
     while (true) {
       try {
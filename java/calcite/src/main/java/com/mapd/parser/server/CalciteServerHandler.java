@@ -25,8 +25,6 @@ import java.io.IOException;
 import java.util.Map;
 import org.apache.calcite.runtime.CalciteContextException;
 import org.apache.calcite.sql.parser.SqlParseException;
-import org.apache.commons.pool.PoolableObjectFactory;
-import org.apache.commons.pool.impl.GenericObjectPool;
 import org.apache.thrift.TException;
 import org.apache.thrift.server.TServer;
 import org.slf4j.Logger;
@@ -45,15 +43,24 @@ class CalciteServerHandler implements CalciteServer.Iface {
 
   private volatile long callCount;
 
-  private final GenericObjectPool parserPool;
+  private final ParserPool parserPool;
 
   private final String extSigsJson;
 
+  private final PlanCache planCache;
+
+  private final String dataDir;
+
   //TODO MAT we need to merge this into common code base for these funictions with
   // CalciteDirect since we are not deprecating this stuff yet
   CalciteServerHandler(int mapDPort, String dataDir, String extensionFunctionsAstFile) {
-    this.parserPool = new GenericObjectPool();
+    this(mapDPort, dataDir, extensionFunctionsAstFile, ParserPool.DEFAULT_MAX_SIZE);
+  }
+
+  CalciteServerHandler(int mapDPort, String dataDir, String extensionFunctionsAstFile, int parserPoolSize) {
     this.mapDPort = mapDPort;
+    this.dataDir = dataDir;
+    this.planCache = new PlanCache(PlanCache.DEFAULT_MAX_ENTRIES);
 
     Map<String, ExtensionFunction> extSigs = null;
     try {
@@ -63,9 +70,11 @@ class CalciteServerHandler implements CalciteServer.Iface {
     }
     this.extSigsJson = ExtensionFunctionSignatureParser.signaturesToJson(extSigs);
 
-    PoolableObjectFactory parserFactory = new CalciteParserFactory(dataDir, extSigs);
+    CalciteParserFactory parserFactory = new CalciteParserFactory(dataDir, extSigs);
 
-    parserPool.setFactory(parserFactory);
+    this.parserPool = new ParserPool(parserFactory, parserPoolSize,
+            Runtime.getRuntime().availableProcessors(), ParserPool.DEFAULT_IDLE_TIMEOUT_MS);
+    parserPool.warmUp();
   }
 
   @Override
@@ -77,9 +86,16 @@ class CalciteServerHandler implements CalciteServer.Iface {
   public TPlanResult process(String user, String passwd, String catalog, String sqlText, boolean legacySyntax, boolean isExplain) throws InvalidParseRequest, TException {
     long timer = System.currentTimeMillis();
     callCount++;
+    PlanCache.Key planKey = PlanCache.key(user, catalog, sqlText, legacySyntax, isExplain);
+    String cachedPlan = planCache.get(planKey);
+    if (cachedPlan != null) {
+      MAPDLOGGER.debug("process plan cache hit User: " + user + " Catalog: " + catalog + " sql: " + sqlText);
+      return new TPlanResult(cachedPlan, System.currentTimeMillis() - timer);
+    }
+    long planGeneration = planCache.generation();
     MapDParser parser;
     try {
-      parser = (MapDParser) parserPool.borrowObject();
+      parser = parserPool.borrow();
     } catch (Exception ex) {
       String msg = "Could not get Parse Item from pool: " + ex.getMessage();
       MAPDLOGGER.error(msg);
@@ -95,6 +111,7 @@ class CalciteServerHandler implements CalciteServer.Iface {
     String relAlgebra;
     try {
       relAlgebra = parser.getRelAlgebra(sqlText, legacySyntax, mapDUser, isExplain);
+      planCache.put(planKey, relAlgebra, parser.getAccessedTables(), planGeneration);
     } catch (SqlParseException ex) {
       String msg = "Parse failed: " + ex.getMessage();
       MAPDLOGGER.error(msg);
@@ -109,14 +126,8 @@ class CalciteServerHandler implements CalciteServer.Iface {
       throw new InvalidParseRequest(-4, msg);
     }
     finally {
-      try {
-        // put parser object back in pool for others to use
-        parserPool.returnObject(parser);
-      } catch (Exception ex) {
-        String msg = "Could not return parse object: " + ex.getMessage();
-        MAPDLOGGER.error(msg);
-        throw new InvalidParseRequest(-4, msg);
-      }
+      // put parser object back in pool for others to use
+      parserPool.release(parser);
     }
     return new TPlanResult(relAlgebra, System.currentTimeMillis() - timer);
   }
@@ -125,6 +136,7 @@ class CalciteServerHandler implements CalciteServer.Iface {
   public void shutdown() throws TException {
     // received request to shutdown
     MAPDLOGGER.info("Shutdown calcite java server");
+    MAPDLOGGER.info(parserPool.toString());
     server.stop();
   }
 
@@ -133,6 +145,15 @@ class CalciteServerHandler implements CalciteServer.Iface {
     return this.extSigsJson;
   }
 
+  /**
+   * Load every database's tables into the catalog before serving requests.
+   *
+   * @param threads databases loaded in parallel
+   */
+  void preloadCatalogs(int threads) {
+    new CatalogPreloader(parserPool, dataDir).preload(threads);
+  }
+
   void setServer(TServer s) {
     server = s;
   }
@@ -142,9 +163,10 @@ class CalciteServerHandler implements CalciteServer.Iface {
     MAPDLOGGER.debug("Received invalidation from server for "+ catalog + " : " + table);
     long timer = System.currentTimeMillis();
     callCount++;
+    planCache.invalidate(catalog, table);
     MapDParser parser;
     try {
-      parser = (MapDParser) parserPool.borrowObject();
+      parser = parserPool.borrow();
     } catch (Exception ex) {
       String msg = "Could not get Parse Item from pool: " + ex.getMessage();
       MAPDLOGGER.error(msg);
@@ -153,14 +175,9 @@ class CalciteServerHandler implements CalciteServer.Iface {
     try {
       parser.updateMetaData(catalog, table);
     } finally {
-      try {
-        // put parser object back in pool for others to use
-        MAPDLOGGER.debug("Returning object to pool");
-        parserPool.returnObject(parser);
-      } catch (Exception ex) {
-        String msg = "Could not return parse object: " + ex.getMessage();
-        MAPDLOGGER.error(msg);
-      }
+      // put parser object back in pool for others to use
+      MAPDLOGGER.debug("Returning object to pool");
+      parserPool.release(parser);
     }
   }
 }
@@ -16,8 +16,17 @@
 
 package com.mapd.parser.server;
 
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.thrift.server.THsHaServer;
 import org.apache.thrift.server.TServer;
 import org.apache.thrift.server.TThreadPoolServer;
+import org.apache.thrift.server.TThreadedSelectorServer;
+import org.apache.thrift.transport.TNonblockingServerSocket;
 import org.apache.thrift.transport.TServerSocket;
 import org.apache.thrift.transport.TServerTransport;
 import com.mapd.thrift.calciteserver.CalciteServer.Processor;
@@ -38,25 +47,91 @@ public class CalciteServerWrapper implements Runnable {
   private int calcitePort = 9093;
   private boolean shutdown = false;
 
+  /**
+   * THREAD_POOL is the original blocking server, one thread per connection.
+   * HSHA and THREADED_SELECTOR multiplex connections over selector threads and
+   * need the client to use framed transport.
+   */
+  public enum ServerMode {
+    THREAD_POOL, HSHA, THREADED_SELECTOR
+  }
+
+  private ServerMode serverMode = ServerMode.THREAD_POOL;
+  private int selectorThreads = 2;
+  private int workerThreads = Runtime.getRuntime().availableProcessors() * 2;
+  private int requestQueueSize = 1000;
+  private int preloadThreads = 0;
+  private boolean preloaded = false;
+
   public CalciteServerWrapper(){
     handler = new CalciteServerHandler(mapDPort, dataDir, null);
     processor = new com.mapd.thrift.calciteserver.CalciteServer.Processor(handler);
   }
 
   public CalciteServerWrapper(int calcitePort, int mapDPort, String dataDir, String extensionFunctionsAstFile){
-    handler = new CalciteServerHandler(mapDPort, dataDir, extensionFunctionsAstFile);
+    this(calcitePort, mapDPort, dataDir, extensionFunctionsAstFile, ParserPool.DEFAULT_MAX_SIZE);
+  }
+
+  public CalciteServerWrapper(int calcitePort, int mapDPort, String dataDir, String extensionFunctionsAstFile,
+          int parserPoolSize){
+    handler = new CalciteServerHandler(mapDPort, dataDir, extensionFunctionsAstFile, parserPoolSize);
     processor = new com.mapd.thrift.calciteserver.CalciteServer.Processor(handler);
     this.calcitePort = calcitePort;
     this.mapDPort = mapDPort;
   }
 
+  /**
+   * Select a non blocking server, must be called before the server is started.
+   *
+   * @param serverMode which thrift server to run
+   * @param selectorThreads selector threads, only used by THREADED_SELECTOR
+   * @param workerThreads threads running the parse requests
+   * @param requestQueueSize requests allowed to wait for a worker, once full
+   * the selector thread runs the request itself which stops it reading more
+   */
+  public void setServerMode(ServerMode serverMode, int selectorThreads, int workerThreads, int requestQueueSize) {
+    this.serverMode = serverMode;
+    this.selectorThreads = selectorThreads;
+    this.workerThreads = workerThreads;
+    this.requestQueueSize = requestQueueSize;
+  }
+
+  /**
+   * Load all table descriptors from the catalogs before the server starts
+   * listening, so first queries do not wait on the catalog.
+   *
+   * @param threads databases loaded in parallel, 0 to load tables on demand
+   */
+  public void setPreloadCatalogs(int threads) {
+    this.preloadThreads = threads;
+  }
+
   private void startServer(com.mapd.thrift.calciteserver.CalciteServer.Processor processor) {
     try {
-      TServerTransport serverTransport = new TServerSocket(calcitePort);
-      server = new TThreadPoolServer(new TThreadPoolServer.Args(serverTransport).processor(processor));
+      switch (serverMode) {
+        case HSHA:
+          server = new THsHaServer(new THsHaServer.Args(new TNonblockingServerSocket(calcitePort))
+                  .executorService(createWorkerPool())
+                  .processor(processor));
+          MAPDLOGGER.info("Starting a half sync half async server with " + workerThreads + " workers");
+          break;
+        case THREADED_SELECTOR:
+          server = new TThreadedSelectorServer(new TThreadedSelectorServer.Args(new TNonblockingServerSocket(calcitePort))
+                  .selectorThreads(selectorThreads)
+                  .executorService(createWorkerPool())
+                  .acceptPolicy(TThreadedSelectorServer.Args.AcceptPolicy.FAIR_ACCEPT)
+                  .processor(processor));
+          MAPDLOGGER.info("Starting a threaded selector server with " + selectorThreads + " selectors and "
+                  + workerThreads + " workers");
+          break;
+        default:
+          TServerTransport serverTransport = new TServerSocket(calcitePort);
+          server = new TThreadPoolServer(new TThreadPoolServer.Args(serverTransport).processor(processor));
+          MAPDLOGGER.info("Starting a threaded pool server...");
+          break;
+      }
 
-      MAPDLOGGER.info("Starting a threaded pool server... Listening on port "+ calcitePort + " MapD on port "+
-                      mapDPort);
+      MAPDLOGGER.info("Listening on port "+ calcitePort + " MapD on port "+ mapDPort);
       handler.setServer(server);
       server.serve();
 
@@ -65,6 +140,21 @@ public class CalciteServerWrapper implements Runnable {
     }
   }
 
+  private ExecutorService createWorkerPool() {
+    final AtomicInteger count = new AtomicInteger();
+    return new ThreadPoolExecutor(workerThreads, workerThreads, 60, TimeUnit.SECONDS,
+            new ArrayBlockingQueue<Runnable>(requestQueueSize),
+            new ThreadFactory() {
+              @Override
+              public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "calcite-worker-" + count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+              }
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+  }
+
   public void stopServer(){
     server.stop();
     shutdown = true;
@@ -72,6 +162,10 @@ public class CalciteServerWrapper implements Runnable {
 
   @Override
   public void run() {
+    if (preloadThreads > 0 && !preloaded) {
+      handler.preloadCatalogs(preloadThreads);
+      preloaded = true;
+    }
     startServer(processor);
   }
 
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.parser.server;
+
+import com.mapd.calcite.parser.MapDParser;
+import com.mapd.metadata.MetaConnect;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Loads the table and view descriptors of every database under the data
+ * directory into the shared catalog at startup, one database per task.
+ */
+class CatalogPreloader {
+
+  final static Logger MAPDLOGGER = LoggerFactory.getLogger(CatalogPreloader.class);
+
+  private final ParserPool parserPool;
+  private final String dataDir;
+
+  CatalogPreloader(ParserPool parserPool, String dataDir) {
+    this.parserPool = parserPool;
+    this.dataDir = dataDir;
+  }
+
+  /**
+   * @param threads databases loaded in parallel
+   * @return the number of tables loaded
+   */
+  int preload(int threads) {
+    long timer = System.currentTimeMillis();
+    List<String> dbNames = MetaConnect.getDBCatalogNames(dataDir);
+    if (dbNames.isEmpty()) {
+      return 0;
+    }
+    ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threads, dbNames.size())));
+    List<Future<Integer>> results = new ArrayList<Future<Integer>>(dbNames.size());
+    for (final String dbName : dbNames) {
+      results.add(executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          return preloadDatabase(dbName);
+        }
+      }));
+    }
+    executor.shutdown();
+
+    int tables = 0;
+    for (int i = 0; i < dbNames.size(); i++) {
+      try {
+        tables += results.get(i).get();
+      } catch (ExecutionException ex) {
+        MAPDLOGGER.error("Could not preload catalog for DB '" + dbNames.get(i) + "': "
+                + ex.getCause().getMessage());
+      } catch (InterruptedException ex) {
+        MAPDLOGGER.error("Interrupted while preloading catalogs");
+        executor.shutdownNow();
+        Thread.currentThread().interrupt();
+        break;
+      }
+    }
+    MAPDLOGGER.info("Preloaded " + tables + " tables from " + dbNames.size() + " databases in "
+            + (System.currentTimeMillis() - timer) + " ms");
+    return tables;
+  }
+
+  private int preloadDatabase(String dbName) throws InterruptedException {
+    long timer = System.currentTimeMillis();
+    MapDParser parser = parserPool.borrow();
+    try {
+      int tables = parser.preloadCatalog(dbName);
+      MAPDLOGGER.debug("Preloaded " + tables + " tables for DB '" + dbName + "' in "
+              + (System.currentTimeMillis() - timer) + " ms");
+      return tables;
+    } finally {
+      parserPool.release(parser);
+    }
+  }
+}
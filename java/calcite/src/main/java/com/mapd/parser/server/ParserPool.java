@@ -0,0 +1,203 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.parser.server;
+
+import com.mapd.calcite.parser.MapDParser;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of MapDParser objects.
+ *
+ * Idle parsers sit on a lock free deque and are handed out most recently used
+ * first, so a steady load keeps reusing the same warm parsers while the cold
+ * end of the deque ages out and is trimmed. A semaphore caps the number of
+ * parsers in use; borrowers only wait when all of them are busy.
+ */
+class ParserPool {
+
+  final static Logger MAPDLOGGER = LoggerFactory.getLogger(ParserPool.class);
+
+  static final int DEFAULT_MAX_SIZE = 64;
+  static final long DEFAULT_IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+
+  private final CalciteParserFactory factory;
+  private final int maxSize;
+  private final int minIdle;
+  private final long idleTimeoutNanos;
+  private final Semaphore permits;
+  private final ConcurrentLinkedDeque<Idle> idle = new ConcurrentLinkedDeque<Idle>();
+  private final AtomicInteger idleCount = new AtomicInteger();
+  private final AtomicLong lastTrim = new AtomicLong(System.nanoTime());
+
+  private final AtomicLong borrows = new AtomicLong();
+  private final AtomicLong creations = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong borrowWaitNanos = new AtomicLong();
+  private final AtomicLong maxBorrowWaitNanos = new AtomicLong();
+
+  ParserPool(CalciteParserFactory factory, int maxSize, int minIdle, long idleTimeoutMs) {
+    if (maxSize < 1) {
+      throw new IllegalArgumentException("parser pool size must be positive, was " + maxSize);
+    }
+    this.factory = factory;
+    this.maxSize = maxSize;
+    this.minIdle = Math.min(minIdle, maxSize);
+    this.idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+    this.permits = new Semaphore(maxSize);
+  }
+
+  /**
+   * Create minIdle parsers up front so the first queries do not pay for
+   * building them.
+   */
+  void warmUp() {
+    long timer = System.currentTimeMillis();
+    for (int i = idleCount.get(); i < minIdle; i++) {
+      addIdle(create());
+    }
+    MAPDLOGGER.info("Parser pool warmed up with " + idleCount.get() + " parsers in "
+            + (System.currentTimeMillis() - timer) + " ms");
+  }
+
+  MapDParser borrow() throws InterruptedException {
+    long start = System.nanoTime();
+    if (!permits.tryAcquire()) {
+      permits.acquire();
+    }
+    long waited = System.nanoTime() - start;
+    borrows.incrementAndGet();
+    borrowWaitNanos.addAndGet(waited);
+    updateMax(waited);
+
+    Idle entry = idle.pollFirst();
+    if (entry != null) {
+      idleCount.decrementAndGet();
+      return entry.parser;
+    }
+    try {
+      return create();
+    } catch (RuntimeException ex) {
+      permits.release();
+      throw ex;
+    }
+  }
+
+  void release(MapDParser parser) {
+    addIdle(parser);
+    permits.release();
+    trimIdle();
+  }
+
+  private void addIdle(MapDParser parser) {
+    idle.offerFirst(new Idle(parser, System.nanoTime()));
+    idleCount.incrementAndGet();
+  }
+
+  /**
+   * Drop parsers idle for longer than the timeout from the cold end of the
+   * deque, keeping at least minIdle. Runs at most once per timeout period on
+   * whichever thread gets there first.
+   */
+  void trimIdle() {
+    long now = System.nanoTime();
+    long last = lastTrim.get();
+    if (now - last < idleTimeoutNanos || !lastTrim.compareAndSet(last, now)) {
+      return;
+    }
+    while (idleCount.get() > minIdle) {
+      Idle oldest = idle.peekLast();
+      if (oldest == null || now - oldest.since < idleTimeoutNanos) {
+        break;
+      }
+      if (idle.removeLastOccurrence(oldest)) {
+        idleCount.decrementAndGet();
+        evictions.incrementAndGet();
+      }
+    }
+  }
+
+  private MapDParser create() {
+    MapDParser parser = factory.create();
+    creations.incrementAndGet();
+    return parser;
+  }
+
+  private void updateMax(long waited) {
+    long max = maxBorrowWaitNanos.get();
+    while (waited > max && !maxBorrowWaitNanos.compareAndSet(max, waited)) {
+      max = maxBorrowWaitNanos.get();
+    }
+  }
+
+  int getMaxSize() {
+    return maxSize;
+  }
+
+  int getIdleCount() {
+    return idleCount.get();
+  }
+
+  int getActiveCount() {
+    return maxSize - permits.availablePermits();
+  }
+
+  long getBorrowCount() {
+    return borrows.get();
+  }
+
+  long getCreatedCount() {
+    return creations.get();
+  }
+
+  long getEvictedCount() {
+    return evictions.get();
+  }
+
+  long getBorrowWaitNanos() {
+    return borrowWaitNanos.get();
+  }
+
+  long getMaxBorrowWaitNanos() {
+    return maxBorrowWaitNanos.get();
+  }
+
+  @Override
+  public String toString() {
+    return "ParserPool{max=" + maxSize + ", active=" + getActiveCount() + ", idle=" + getIdleCount()
+            + ", borrows=" + getBorrowCount() + ", created=" + getCreatedCount()
+            + ", evicted=" + getEvictedCount()
+            + ", totalWaitMs=" + TimeUnit.NANOSECONDS.toMillis(getBorrowWaitNanos())
+            + ", maxWaitMs=" + TimeUnit.NANOSECONDS.toMillis(getMaxBorrowWaitNanos()) + "}";
+  }
+
+  private static final class Idle {
+
+    private final MapDParser parser;
+    private final long since;
+
+    private Idle(MapDParser parser, long since) {
+      this.parser = parser;
+      this.since = since;
+    }
+  }
+}
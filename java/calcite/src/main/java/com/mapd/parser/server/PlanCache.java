@@ -0,0 +1,240 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.parser.server;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheStats;
+import com.google.common.collect.ImmutableSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Bounded cache of relational algebra produced by the parser, keyed on the
+ * requesting user, catalog, parse flags and normalized sql text.
+ *
+ * Each entry remembers the tables it was planned against so a metadata update
+ * for a single table only evicts the plans that touched it.
+ */
+class PlanCache {
+
+  final static Logger MAPDLOGGER = LoggerFactory.getLogger(PlanCache.class);
+
+  static final int DEFAULT_MAX_ENTRIES = 1000;
+
+  private final Cache<Key, Entry> cache;
+
+  // bumped on every invalidation so plans built against stale metadata are not stored
+  private final AtomicLong generation = new AtomicLong();
+
+  PlanCache(int maxEntries) {
+    this.cache = CacheBuilder.newBuilder()
+            .maximumSize(maxEntries)
+            .recordStats()
+            .build();
+  }
+
+  /**
+   * Builds the lookup key for a request. Whitespace outside of quoted literals,
+   * identifiers and comments is collapsed and a trailing ';' removed, literal
+   * values are kept as they are embedded in the returned plan. Comments are
+   * kept as written, a '--' comment together with the newline ending it.
+   */
+  static Key key(String user, String catalog, String sqlText, boolean legacySyntax, boolean isExplain) {
+    return new Key(user, catalog, normalize(sqlText), legacySyntax, isExplain);
+  }
+
+  String get(Key key) {
+    Entry e = cache.getIfPresent(key);
+    return e == null ? null : e.relAlgebra;
+  }
+
+  /**
+   * @return the current generation, to be passed back to {@link #put}
+   */
+  long generation() {
+    return generation.get();
+  }
+
+  void put(Key key, String relAlgebra, Set<List<String>> tables, long startGeneration) {
+    if (startGeneration != generation.get()) {
+      MAPDLOGGER.debug("Metadata changed while planning, not caching plan");
+      return;
+    }
+    Entry entry = new Entry(relAlgebra, ImmutableSet.copyOf(tables));
+    cache.put(key, entry);
+    // an invalidation that bumped the generation after the check above may
+    // already have scanned past this key, so take the plan back out
+    if (startGeneration != generation.get()) {
+      cache.asMap().remove(key, entry);
+    }
+  }
+
+  /**
+   * Drop plans that touched the table, or every plan touching the schema when
+   * table is empty (the whole database is being dropped).
+   */
+  void invalidate(String catalog, String table) {
+    generation.incrementAndGet();
+    String schema = catalog.toUpperCase();
+    String tableName = table.toUpperCase();
+    int removed = 0;
+    Iterator<Map.Entry<Key, Entry>> it = cache.asMap().entrySet().iterator();
+    while (it.hasNext()) {
+      if (it.next().getValue().touches(schema, tableName)) {
+        it.remove();
+        removed++;
+      }
+    }
+    MAPDLOGGER.debug("Plan cache removed " + removed + " plans for " + catalog + " : " + table);
+  }
+
+  void invalidateAll() {
+    generation.incrementAndGet();
+    cache.invalidateAll();
+  }
+
+  long size() {
+    return cache.size();
+  }
+
+  CacheStats stats() {
+    return cache.stats();
+  }
+
+  static String normalize(String sql) {
+    StringBuilder sb = new StringBuilder(sql.length());
+    char quote = 0;
+    boolean pendingSpace = false;
+    for (int i = 0; i < sql.length(); i++) {
+      char c = sql.charAt(i);
+      if (quote != 0) {
+        sb.append(c);
+        if (c == quote) {
+          quote = 0;
+        }
+        continue;
+      }
+      if (Character.isWhitespace(c)) {
+        // the newline closing a '--' comment already separates the tokens
+        pendingSpace = sb.length() > 0 && sb.charAt(sb.length() - 1) != '\n';
+        continue;
+      }
+      if (pendingSpace) {
+        sb.append(' ');
+        pendingSpace = false;
+      }
+      if (sql.startsWith("--", i)) {
+        int end = sql.indexOf('\n', i);
+        end = end < 0 ? sql.length() : end + 1;
+        sb.append(sql, i, end);
+        i = end - 1;
+        continue;
+      }
+      if (sql.startsWith("/*", i)) {
+        int end = sql.indexOf("*/", i + 2);
+        end = end < 0 ? sql.length() : end + 2;
+        sb.append(sql, i, end);
+        i = end - 1;
+        continue;
+      }
+      if (c == '\'' || c == '"') {
+        quote = c;
+      }
+      sb.append(c);
+    }
+    int len = sb.length();
+    if (len > 0 && sb.charAt(len - 1) == ';') {
+      sb.setLength(len - 1);
+      if (len > 1 && sb.charAt(len - 2) == ' ') {
+        sb.setLength(len - 2);
+      }
+    }
+    return sb.toString();
+  }
+
+  static final class Key {
+
+    private final String user;
+    private final String catalog;
+    private final String sql;
+    private final boolean legacySyntax;
+    private final boolean isExplain;
+    private final int hash;
+
+    private Key(String user, String catalog, String sql, boolean legacySyntax, boolean isExplain) {
+      this.user = user;
+      this.catalog = catalog;
+      this.sql = sql;
+      this.legacySyntax = legacySyntax;
+      this.isExplain = isExplain;
+      int h = sql.hashCode();
+      h = 31 * h + (user == null ? 0 : user.hashCode());
+      h = 31 * h + (catalog == null ? 0 : catalog.hashCode());
+      h = 31 * h + (legacySyntax ? 1 : 0);
+      h = 31 * h + (isExplain ? 1 : 0);
+      this.hash = h;
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (this == obj) {
+        return true;
+      }
+      if (!(obj instanceof Key)) {
+        return false;
+      }
+      Key other = (Key) obj;
+      return hash == other.hash
+              && legacySyntax == other.legacySyntax
+              && isExplain == other.isExplain
+              && sql.equals(other.sql)
+              && (user == null ? other.user == null : user.equals(other.user))
+              && (catalog == null ? other.catalog == null : catalog.equals(other.catalog));
+    }
+  }
+
+  private static final class Entry {
+
+    private final String relAlgebra;
+    private final Set<List<String>> tables;
+
+    private Entry(String relAlgebra, Set<List<String>> tables) {
+      this.relAlgebra = relAlgebra;
+      this.tables = tables;
+    }
+
+    private boolean touches(String schema, String table) {
+      for (List<String> names : tables) {
+        if (names.get(1).equals(schema) && (table.isEmpty() || names.get(2).equals(table))) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.calcite.rel.externalize;
+
+import org.apache.calcite.avatica.util.TimeUnitRange;
+import org.apache.calcite.rel.RelCollationImpl;
+import org.apache.calcite.rel.RelFieldCollation;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelWriter;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.CorrelationId;
+import org.apache.calcite.rel.logical.LogicalAggregate;
+import org.apache.calcite.rel.logical.LogicalTableScan;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexCorrelVariable;
+import org.apache.calcite.rex.RexFieldAccess;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexSubQuery;
+import org.apache.calcite.sql.SemiJoinType;
+import org.apache.calcite.sql.SqlExplainLevel;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.JsonBuilder;
+import org.apache.calcite.util.Pair;
+
+import com.google.common.collect.ImmutableList;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Callback for a relational expression to dump itself as JSON, writing the
+ * text straight into a buffer as each relational expression is explained.
+ *
+ * <p>The output is identical to {@link MapDRelJsonWriter}, which first builds
+ * the whole document as maps and lists through {@link MapDRelJson} and then
+ * formats it with {@link JsonBuilder}. Values that document can not hold are
+ * handed to {@link MapDRelJson} so they fail the same way.</p>
+ */
+public class MapDRelJsonStreamWriter implements RelWriter {
+  //~ Static fields/initializers ----------------------------------------------
+
+  private static final String SPACES = "                                ";
+
+  //~ Instance fields ----------------------------------------------------------
+
+  private final StringBuilder buf;
+  private final int indent;
+  private final MapDRelJson relJson;
+  private final Map<RelNode, String> relIdMap =
+      new IdentityHashMap<RelNode, String>();
+  private final List<Pair<String, Object>> values =
+      new ArrayList<Pair<String, Object>>();
+  // attributes of the rel being written, in the order a LinkedHashMap keeps
+  private final List<String> keys = new ArrayList<String>();
+  private final List<Object> attrs = new ArrayList<Object>();
+  private String previousId;
+
+  //~ Constructors -------------------------------------------------------------
+
+  /**
+   * @param buf buffer the document is appended to
+   * @param indent nesting depth the document starts at, 0 for a whole plan
+   */
+  public MapDRelJsonStreamWriter(StringBuilder buf, int indent) {
+    this.buf = buf;
+    this.indent = indent;
+    this.relJson = new MapDRelJson(new JsonBuilder());
+    buf.append('{');
+    newline(indent + 1);
+    buf.append("\"rels\": ");
+  }
+
+  //~ Methods ------------------------------------------------------------------
+
+  protected void explain_(RelNode rel, List<Pair<String, Object>> values) {
+    final List<String> inputs = explainInputs(rel.getInputs());
+
+    // the writer is re-entered for the inputs above, so only now collect
+    // this rel's attributes
+    keys.clear();
+    attrs.clear();
+    put("id", null); // ensure that id is the first attribute
+    put("relOp", relJson.classToTypeName(rel.getClass()));
+    if (rel instanceof LogicalTableScan) {
+      RelDataType row_type = ((LogicalTableScan) rel).getTable().getRowType();
+      put("fieldNames", row_type.getFieldNames());
+    }
+    if (rel instanceof LogicalAggregate) {
+      put("fields", rel.getRowType().getFieldNames());
+    }
+    for (Pair<String, Object> value : values) {
+      if (value.right instanceof RelNode) {
+        continue;
+      }
+      put(value.left, value.right);
+    }
+    // omit 'inputs: ["3"]' if "3" is the preceding rel
+    if (inputs.size() != 1 || !inputs.get(0).equals(previousId)) {
+      put("inputs", inputs);
+    }
+
+    final String id = Integer.toString(relIdMap.size());
+    relIdMap.put(rel, id);
+    put("id", id);
+
+    final int relIndent = indent + 2;
+    if (relIdMap.size() == 1) {
+      buf.append('[');
+    } else {
+      buf.append(',');
+    }
+    newline(relIndent);
+    buf.append('{');
+    for (int i = 0; i < keys.size(); i++) {
+      key(i == 0, keys.get(i), relIndent);
+      writeValue(attrs.get(i), relIndent + 1);
+    }
+    newline(relIndent);
+    buf.append('}');
+    previousId = id;
+  }
+
+  private void put(String key, Object value) {
+    final int i = keys.indexOf(key);
+    if (i >= 0) {
+      attrs.set(i, value);
+    } else {
+      keys.add(key);
+      attrs.add(value);
+    }
+  }
+
+  private List<String> explainInputs(List<RelNode> inputs) {
+    final List<String> list = new ArrayList<String>(inputs.size());
+    for (RelNode input : inputs) {
+      String id = relIdMap.get(input);
+      if (id == null) {
+        input.explain(this);
+        id = previousId;
+      }
+      list.add(id);
+    }
+    return list;
+  }
+
+  /**
+   * Closes the document, call once the plan has been explained.
+   */
+  public void finish() {
+    if (relIdMap.isEmpty()) {
+      buf.append("[]");
+    } else {
+      newline(indent + 1);
+      buf.append(']');
+    }
+    newline(indent);
+    buf.append('}');
+  }
+
+  public final void explain(RelNode rel, List<Pair<String, Object>> valueList) {
+    explain_(rel, valueList);
+  }
+
+  public SqlExplainLevel getDetailLevel() {
+    return SqlExplainLevel.ALL_ATTRIBUTES;
+  }
+
+  public RelWriter input(String term, RelNode input) {
+    return this;
+  }
+
+  public RelWriter item(String term, Object value) {
+    values.add(Pair.of(term, value));
+    return this;
+  }
+
+  public RelWriter itemIf(String term, Object value, boolean condition) {
+    if (condition) {
+      item(term, value);
+    }
+    return this;
+  }
+
+  public RelWriter done(RelNode node) {
+    final List<Pair<String, Object>> valuesCopy =
+        ImmutableList.copyOf(values);
+    values.clear();
+    explain_(node, valuesCopy);
+    return this;
+  }
+
+  public boolean nest() {
+    return true;
+  }
+
+  //~ JSON output --------------------------------------------------------------
+
+  /**
+   * Writes what {@link MapDRelJson#toJson(Object)} would produce for the value
+   * formatted at the given depth.
+   */
+  private void writeValue(Object value, int depth) {
+    if (value == null
+        || value instanceof Number
+        || value instanceof String
+        || value instanceof Boolean) {
+      writeJson(value, depth);
+    } else if (value instanceof RexNode) {
+      writeRex((RexNode) value, depth);
+    } else if (value instanceof CorrelationId) {
+      buf.append(((CorrelationId) value).getId());
+    } else if (value instanceof List) {
+      final List<?> list = (List<?>) value;
+      if (list.isEmpty()) {
+        buf.append("[]");
+        return;
+      }
+      buf.append('[');
+      for (int i = 0; i < list.size(); i++) {
+        element(i == 0, depth);
+        writeValue(list.get(i), depth + 1);
+      }
+      newline(depth);
+      buf.append(']');
+    } else if (value instanceof ImmutableBitSet) {
+      final ImmutableBitSet bits = (ImmutableBitSet) value;
+      if (bits.isEmpty()) {
+        buf.append("[]");
+        return;
+      }
+      buf.append('[');
+      boolean first = true;
+      for (Integer bit : bits) {
+        element(first, depth);
+        buf.append(bit.intValue());
+        first = false;
+      }
+      newline(depth);
+      buf.append(']');
+    } else if (value instanceof AggregateCall) {
+      final AggregateCall call = (AggregateCall) value;
+      buf.append('{');
+      key(true, "agg", depth);
+      writeJson(call.getAggregation().getName(), depth + 1);
+      key(false, "type", depth);
+      writeType(call.getType(), depth + 1);
+      key(false, "distinct", depth);
+      buf.append(call.isDistinct());
+      key(false, "operands", depth);
+      writeJson(call.getArgList(), depth + 1);
+      newline(depth);
+      buf.append('}');
+    } else if (value instanceof RelCollationImpl) {
+      final List<RelFieldCollation> collations =
+          ((RelCollationImpl) value).getFieldCollations();
+      if (collations.isEmpty()) {
+        buf.append("[]");
+        return;
+      }
+      buf.append('[');
+      for (int i = 0; i < collations.size(); i++) {
+        final RelFieldCollation collation = collations.get(i);
+        element(i == 0, depth);
+        buf.append('{');
+        key(true, "field", depth + 1);
+        buf.append(collation.getFieldIndex());
+        key(false, "direction", depth + 1);
+        writeJson(collation.getDirection().name(), depth + 2);
+        key(false, "nulls", depth + 1);
+        writeJson(collation.nullDirection.name(), depth + 2);
+        newline(depth + 1);
+        buf.append('}');
+      }
+      newline(depth);
+      buf.append(']');
+    } else if (value instanceof RelDataType) {
+      writeType((RelDataType) value, depth);
+    } else if (value instanceof RelDataTypeField
+        && !((RelDataTypeField) value).getType().isStruct()) {
+      final RelDataTypeField field = (RelDataTypeField) value;
+      buf.append('{');
+      writeTypeAttributes(field.getType(), depth);
+      key(false, "name", depth);
+      writeJson(field.getName(), depth + 1);
+      newline(depth);
+      buf.append('}');
+    } else if (value instanceof SemiJoinType) {
+      writeJson(value.toString(), depth);
+    } else {
+      // rare or unsupported, build it the slow way
+      writeJson(relJson.toJson(value), depth);
+    }
+  }
+
+  private void writeType(RelDataType type, int depth) {
+    if (type.isStruct()) {
+      writeValue(type.getFieldList(), depth);
+      return;
+    }
+    buf.append('{');
+    writeTypeAttributes(type, depth);
+    newline(depth);
+    buf.append('}');
+  }
+
+  private void writeTypeAttributes(RelDataType type, int depth) {
+    key(true, "type", depth);
+    writeJson(type.getSqlTypeName().name(), depth + 1);
+    key(false, "nullable", depth);
+    buf.append(type.isNullable());
+    if (type.getSqlTypeName().allowsPrec()) {
+      key(false, "precision", depth);
+      buf.append(type.getPrecision());
+    }
+    if (type.getSqlTypeName().allowsScale()) {
+      key(false, "scale", depth);
+      buf.append(type.getScale());
+    }
+  }
+
+  private void writeRex(RexNode node, int depth) {
+    switch (node.getKind()) {
+    case FIELD_ACCESS:
+      final RexFieldAccess fieldAccess = (RexFieldAccess) node;
+      buf.append('{');
+      key(true, "field", depth);
+      writeJson(fieldAccess.getField().getName(), depth + 1);
+      key(false, "expr", depth);
+      writeRex(fieldAccess.getReferenceExpr(), depth + 1);
+      break;
+    case LITERAL:
+      final RexLiteral literal = (RexLiteral) node;
+      final Object value2 = literal.getValue2();
+      buf.append('{');
+      key(true, "literal", depth);
+      if (value2 instanceof TimeUnitRange) {
+        writeJson(value2.toString(), depth + 1);
+      } else if (value2 instanceof String) {
+        writeJson(((String) value2).replace("\\", "\\\\"), depth + 1);
+      } else {
+        writeJson(value2, depth + 1);
+      }
+      key(false, "type", depth);
+      writeJson(literal.getTypeName().name(), depth + 1);
+      key(false, "target_type", depth);
+      writeJson(literal.getType().getSqlTypeName().toString(), depth + 1);
+      final Object value = literal.getValue();
+      key(false, "scale", depth);
+      if (value instanceof BigDecimal) {
+        buf.append(((BigDecimal) value).scale());
+        key(false, "precision", depth);
+        buf.append(((BigDecimal) value).precision());
+      } else {
+        buf.append(literal.getType().getScale());
+        key(false, "precision", depth);
+        buf.append(literal.getType().getPrecision());
+      }
+      key(false, "type_scale", depth);
+      buf.append(literal.getType().getScale());
+      key(false, "type_precision", depth);
+      buf.append(literal.getType().getPrecision());
+      break;
+    case INPUT_REF:
+      buf.append('{');
+      key(true, "input", depth);
+      buf.append(((RexInputRef) node).getIndex());
+      break;
+    case CORREL_VARIABLE:
+      buf.append('{');
+      key(true, "correl", depth);
+      writeJson(((RexCorrelVariable) node).getName(), depth + 1);
+      key(false, "type", depth);
+      writeType(node.getType(), depth + 1);
+      break;
+    default:
+      if (!(node instanceof RexCall)) {
+        throw new UnsupportedOperationException("unknown rex " + node);
+      }
+      final RexCall call = (RexCall) node;
+      buf.append('{');
+      key(true, "op", depth);
+      writeJson(call.getOperator().getName(), depth + 1);
+      key(false, "operands", depth);
+      writeValue(call.getOperands(), depth + 1);
+      key(false, "type", depth);
+      writeType(node.getType(), depth + 1);
+      if (node instanceof RexSubQuery) {
+        key(false, "subquery", depth);
+        final MapDRelJsonStreamWriter subqueryWriter =
+            new MapDRelJsonStreamWriter(buf, depth + 1);
+        ((RexSubQuery) node).rel.explain(subqueryWriter);
+        subqueryWriter.finish();
+      }
+      if (call.getOperator() instanceof SqlFunction) {
+        switch (((SqlFunction) call.getOperator()).getFunctionType()) {
+        case USER_DEFINED_CONSTRUCTOR:
+        case USER_DEFINED_FUNCTION:
+        case USER_DEFINED_PROCEDURE:
+        case USER_DEFINED_SPECIFIC_FUNCTION:
+          key(false, "class", depth);
+          writeJson(call.getOperator().getClass().getName(), depth + 1);
+        }
+      }
+    }
+    newline(depth);
+    buf.append('}');
+  }
+
+  /**
+   * Formats plain JSON values, maps and lists exactly as
+   * {@link JsonBuilder#toJsonString} does.
+   */
+  private void writeJson(Object o, int depth) {
+    if (o == null) {
+      buf.append("null");
+    } else if (o instanceof Map) {
+      final Map<?, ?> map = (Map<?, ?>) o;
+      if (map.isEmpty()) {
+        buf.append("{}");
+        return;
+      }
+      buf.append('{');
+      boolean first = true;
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        if (!first) {
+          buf.append(',');
+        }
+        newline(depth + 1);
+        writeJson(entry.getKey(), 0);
+        buf.append(": ");
+        writeJson(entry.getValue(), depth + 1);
+        first = false;
+      }
+      newline(depth);
+      buf.append('}');
+    } else if (o instanceof List) {
+      final List<?> list = (List<?>) o;
+      if (list.isEmpty()) {
+        buf.append("[]");
+        return;
+      }
+      buf.append('[');
+      for (int i = 0; i < list.size(); i++) {
+        element(i == 0, depth);
+        writeJson(list.get(i), depth + 1);
+      }
+      newline(depth);
+      buf.append(']');
+    } else if (o instanceof String) {
+      final String s = (String) o;
+      buf.append('"');
+      for (int i = 0; i < s.length(); i++) {
+        final char c = s.charAt(i);
+        if (c == '"') {
+          buf.append("\\\"");
+        } else if (c == '\n') {
+          buf.append("\\n");
+        } else {
+          buf.append(c);
+        }
+      }
+      buf.append('"');
+    } else {
+      assert o instanceof Number || o instanceof Boolean;
+      buf.append(o);
+    }
+  }
+
+  private void key(boolean first, String key, int depth) {
+    if (!first) {
+      buf.append(',');
+    }
+    newline(depth + 1);
+    writeJson(key, 0);
+    buf.append(": ");
+  }
+
+  private void element(boolean first, int depth) {
+    if (!first) {
+      buf.append(',');
+    }
+    newline(depth + 1);
+  }
+
+  private void newline(int depth) {
+    buf.append('\n');
+    int spaces = depth * 2;
+    while (spaces > SPACES.length()) {
+      buf.append(SPACES);
+      spaces -= SPACES.length();
+    }
+    buf.append(SPACES, 0, spaces);
+  }
+}
+
+// End MapDRelJsonStreamWriter.java
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.calcite.parser;
+
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.calcite.prepare.Prepare;
+import org.apache.calcite.rel.type.RelDataTypeSystem;
+import org.apache.calcite.sql.SqlOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeFactoryImpl;
+
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Loads tables from a generated sqlite catalog from many threads at once while
+ * another thread keeps invalidating them.
+ */
+public class TestCatalogConcurrency {
+
+  private final static String DB = "concurrencydb";
+  private final static int TABLES = 20;
+  private final static int THREADS = 8;
+  private final static int QUERIES_PER_THREAD = 300;
+
+  @ClassRule
+  public static TemporaryFolder dataDir = new TemporaryFolder();
+
+  @BeforeClass
+  public static void createCatalog() throws Exception {
+    File catalogs = dataDir.newFolder("mapd_catalogs");
+    Class.forName("org.sqlite.JDBC");
+    Connection conn = DriverManager.getConnection("jdbc:sqlite:" + new File(catalogs, DB).getPath());
+    Statement stmt = conn.createStatement();
+    stmt.execute("CREATE TABLE mapd_tables (tableid integer primary key, name text unique, isview boolean)");
+    stmt.execute("CREATE TABLE mapd_views (tableid integer references mapd_tables, sql text)");
+    stmt.execute("CREATE TABLE mapd_columns (tableid integer references mapd_tables, columnid integer,"
+            + " name text, coltype integer, colsubtype integer, coldim integer, colscale integer,"
+            + " is_notnull boolean, primary key(tableid, columnid))");
+    for (int i = 0; i <= TABLES; i++) {
+      // the extra last table is only used by the single load test
+      String name = i == TABLES ? "single" : "t" + i;
+      stmt.execute("INSERT INTO mapd_tables VALUES (" + (i + 1) + ", '" + name + "', 0)");
+      // INT and TEXT columns
+      stmt.execute("INSERT INTO mapd_columns VALUES (" + (i + 1) + ", 1, 'a', 6, 0, 0, 0, 0)");
+      stmt.execute("INSERT INTO mapd_columns VALUES (" + (i + 1) + ", 2, 'b', 13, 0, 0, 0, 0)");
+    }
+    stmt.close();
+    conn.close();
+  }
+
+  @Test
+  public void concurrentLookupsShareOneLoad() throws Exception {
+    final CyclicBarrier start = new CyclicBarrier(THREADS);
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS);
+    List<Future<Prepare.PreparingTable>> results = new ArrayList<Future<Prepare.PreparingTable>>();
+    for (int i = 0; i < THREADS; i++) {
+      results.add(pool.submit(new Callable<Prepare.PreparingTable>() {
+        @Override
+        public Prepare.PreparingTable call() throws Exception {
+          MapDCatalogReader reader = new MapDCatalogReader(
+                  new SqlTypeFactoryImpl(RelDataTypeSystem.DEFAULT), dataDir.getRoot().getPath(), null);
+          reader.setCurrentMapDUser(new MapDUser("mapd", "HyperInteractive", DB, -1));
+          start.await();
+          return reader.getTable(ImmutableList.of("SINGLE"));
+        }
+      }));
+    }
+    pool.shutdown();
+    Prepare.PreparingTable first = results.get(0).get();
+    assertNotNull(first);
+    for (Future<Prepare.PreparingTable> result : results) {
+      assertSame(first, result.get());
+    }
+  }
+
+  @Test
+  public void parseWhileInvalidating() throws Exception {
+    final SqlOperatorTable operatorTable = MapDParser.createOperatorTable(null);
+    final MapDUser user = new MapDUser("mapd", "HyperInteractive", DB, -1);
+    final AtomicBoolean parsing = new AtomicBoolean(true);
+    final AtomicInteger invalidations = new AtomicInteger();
+    ExecutorService pool = Executors.newFixedThreadPool(THREADS + 1);
+
+    Future<?> invalidator = pool.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        MapDParser parser = new MapDParser(dataDir.getRoot().getPath(), operatorTable);
+        Random random = new Random(1);
+        while (parsing.get()) {
+          parser.updateMetaData(DB, "t" + random.nextInt(TABLES));
+          invalidations.incrementAndGet();
+          Thread.sleep(0, 100000);
+        }
+        return null;
+      }
+    });
+
+    List<Future<?>> parsers = new ArrayList<Future<?>>();
+    for (int i = 0; i < THREADS; i++) {
+      final int seed = i;
+      parsers.add(pool.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          MapDParser parser = new MapDParser(dataDir.getRoot().getPath(), operatorTable);
+          Random random = new Random(seed);
+          for (int q = 0; q < QUERIES_PER_THREAD; q++) {
+            String table = "T" + random.nextInt(TABLES);
+            String ra = parser.getRelAlgebra("select a, b from " + table + " where a > " + q,
+                    false, user, false);
+            assertTrue(ra, ra.contains("\"" + table + "\""));
+          }
+          return null;
+        }
+      }));
+    }
+    try {
+      for (Future<?> parser : parsers) {
+        parser.get();
+      }
+    } finally {
+      parsing.set(false);
+      invalidator.get();
+      pool.shutdown();
+      pool.awaitTermination(10, TimeUnit.SECONDS);
+    }
+    assertTrue(invalidations.get() > 0);
+  }
+}
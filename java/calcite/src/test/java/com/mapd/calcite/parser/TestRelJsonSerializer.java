@@ -0,0 +1,145 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.calcite.parser;
+
+import java.lang.management.ManagementFactory;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.externalize.MapDRelJsonWriter;
+import org.apache.calcite.sql.parser.SqlParseException;
+
+import static org.junit.Assert.*;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Checks the streaming RA serializer against the JsonBuilder based
+ * MapDRelJsonWriter, which is the reference for the format the server reads.
+ * Runs against the built in SALES test schema so no catalog is needed.
+ */
+public class TestRelJsonSerializer {
+
+  private final static Logger MAPDLOGGER = LoggerFactory.getLogger(TestRelJsonSerializer.class);
+  private final static int ITERATIONS = 2000;
+  private final static int WIDE_COLUMNS = 400;
+  private final MapDUser user = new MapDUser("mapd", "HyperInteractive", "SALES", -1);
+  private final MapDParser parser = new MapDParser("/tmp", MapDParser.createOperatorTable(null));
+  private final StringBuilder buf = new StringBuilder();
+
+  private final static String[] QUERIES = {
+    "SELECT * FROM EMP",
+    "SELECT ENAME, SAL * 2 + COMM AS pay FROM EMP WHERE DEPTNO = 10 AND JOB LIKE 'A%'",
+    "SELECT ename FROM emp WHERE ename = 'it''s \"quoted\"' OR ename = 'back\\slash'",
+    "SELECT ename FROM emp WHERE ename = 'line\nbreak'",
+    "SELECT 1.25, -3.5e2, CAST(2.5 AS DECIMAL(10, 3)), TRUE, CAST(NULL AS INTEGER), 'x' FROM emp",
+    "SELECT DEPTNO, COUNT(*), SUM(SAL), AVG(COMM), COUNT(DISTINCT JOB), MAX(HIREDATE) FROM EMP GROUP BY DEPTNO",
+    "SELECT DEPTNO, JOB, COUNT(*) FROM EMP GROUP BY DEPTNO, JOB HAVING COUNT(*) > 1 ORDER BY 3 DESC, 1 LIMIT 10 OFFSET 5",
+    "SELECT e.ENAME, d.NAME FROM EMP e JOIN DEPT d ON e.DEPTNO = d.DEPTNO",
+    "SELECT e.ENAME, d.NAME FROM EMP e LEFT JOIN DEPT d ON e.DEPTNO = d.DEPTNO AND NOT d.NAME = 'x'",
+    "SELECT a.ENAME, b.ENAME FROM EMP a, EMP b WHERE a.MGR = b.EMPNO",
+    "SELECT ENAME FROM EMP WHERE DEPTNO IN (SELECT DEPTNO FROM DEPT WHERE NAME LIKE 'S%')",
+    "SELECT ENAME FROM EMP e WHERE EXISTS (SELECT 1 FROM DEPT d WHERE d.DEPTNO = e.DEPTNO)",
+    "SELECT ENAME, (SELECT MAX(SAL) FROM EMP) FROM EMP",
+    "SELECT CASE WHEN SAL > 1000 THEN 'high' WHEN SAL > 500 THEN 'mid' ELSE 'low' END FROM EMP",
+    "SELECT EXTRACT(YEAR FROM HIREDATE), HIREDATE + INTERVAL '1' DAY, CAST(HIREDATE AS DATE) FROM EMP",
+    "SELECT TIMESTAMP '2017-01-01 10:00:00', DATE '2017-01-01' FROM EMP",
+    "SELECT ENAME FROM EMP UNION ALL SELECT NAME FROM DEPT",
+    "SELECT SLACKARR1[1], SLACKER FROM EMP WHERE SLACKER IS NOT NULL",
+    "SELECT DEPTNO, SUM(SAL) OVER (PARTITION BY DEPTNO ORDER BY EMPNO) FROM EMP",
+    "SELECT * FROM (VALUES (1, 'a'), (2, 'b')) AS t(x, y)",
+    "SELECT COUNT(*) FROM EMP e JOIN DEPT d ON e.DEPTNO = d.DEPTNO JOIN BONUS b ON b.ENAME = e.ENAME"
+  };
+
+  @Test
+  public void sameAsTreeWriter() throws SqlParseException {
+    for (String sql : QUERIES) {
+      RelNode rel = parser.getRelRoot(sql, true, user).project();
+      String expected;
+      try {
+        expected = treeToString(rel);
+      } catch (UnsupportedOperationException ex) {
+        // plans the tree writer can not serialize must fail the same way
+        try {
+          MapDSerializer.toString(rel, buf);
+          fail(sql);
+        } catch (UnsupportedOperationException streamEx) {
+          assertEquals(sql, ex.getMessage(), streamEx.getMessage());
+        }
+        continue;
+      }
+      assertEquals(sql, expected, MapDSerializer.toString(rel, buf));
+      // the buffer is reused
+      assertEquals(sql, expected, MapDSerializer.toString(rel, buf));
+    }
+  }
+
+  @Test
+  public void sameAsTreeWriterWideProjection() throws SqlParseException {
+    RelNode rel = parser.getRelRoot(wideQuery(), true, user).project();
+    assertEquals(treeToString(rel), MapDSerializer.toString(rel));
+  }
+
+  @Ignore("benchmark, run by hand")
+  @Test
+  public void compareWriters() throws SqlParseException {
+    RelNode rel = parser.getRelRoot(wideQuery(), true, user).project();
+    run(rel, true, ITERATIONS);
+    run(rel, false, ITERATIONS);
+
+    long[] tree = run(rel, true, ITERATIONS);
+    long[] stream = run(rel, false, ITERATIONS);
+    MAPDLOGGER.info("tree writer " + tree[0] / ITERATIONS / 1000 + " us, " + tree[1] / ITERATIONS
+            + " bytes per plan; streaming writer " + stream[0] / ITERATIONS / 1000 + " us, "
+            + stream[1] / ITERATIONS + " bytes per plan");
+    assertTrue(stream[1] < tree[1]);
+  }
+
+  private long[] run(RelNode rel, boolean tree, int iterations) {
+    com.sun.management.ThreadMXBean bean
+            = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long thread = Thread.currentThread().getId();
+    long bytes = bean.getThreadAllocatedBytes(thread);
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      if (tree) {
+        treeToString(rel);
+      } else {
+        MapDSerializer.toString(rel, buf);
+      }
+    }
+    return new long[]{System.nanoTime() - start, bean.getThreadAllocatedBytes(thread) - bytes};
+  }
+
+  private static String treeToString(RelNode rel) {
+    final MapDRelJsonWriter planWriter = new MapDRelJsonWriter();
+    rel.explain(planWriter);
+    return planWriter.asString();
+  }
+
+  private static String wideQuery() {
+    StringBuilder sql = new StringBuilder("SELECT ");
+    for (int i = 0; i < WIDE_COLUMNS; i++) {
+      if (i > 0) {
+        sql.append(", ");
+      }
+      sql.append("CASE WHEN SAL > ").append(i).append(" THEN COMM * ").append(i)
+              .append(" ELSE DEPTNO + ").append(i).append(" END AS c").append(i);
+    }
+    return sql.append(" FROM EMP WHERE NOT ENAME = 'x'").toString();
+  }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.calcite.parser;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import org.apache.calcite.sql.SqlOperatorTable;
+import org.apache.calcite.sql.parser.SqlParseException;
+
+import static org.junit.Assert.*;
+import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Views are expanded once and kept with the catalog entry, these check the
+ * cached expansion behaves like expanding the view sql every time.
+ */
+public class TestViewExpansion {
+
+  private final static Logger MAPDLOGGER = LoggerFactory.getLogger(TestViewExpansion.class);
+  private final static String DB = "viewdb";
+  private final static int ITERATIONS = 2000;
+
+  @ClassRule
+  public static TemporaryFolder dataDir = new TemporaryFolder();
+
+  private static File catalog;
+  private static SqlOperatorTable operatorTable;
+  private final MapDUser user = new MapDUser("mapd", "HyperInteractive", DB, -1);
+
+  @BeforeClass
+  public static void createCatalog() throws Exception {
+    catalog = new File(dataDir.newFolder("mapd_catalogs"), DB);
+    operatorTable = MapDParser.createOperatorTable(null);
+    execute("CREATE TABLE mapd_tables (tableid integer primary key, name text unique, isview boolean)",
+            "CREATE TABLE mapd_views (tableid integer references mapd_tables, sql text)",
+            "CREATE TABLE mapd_columns (tableid integer references mapd_tables, columnid integer,"
+            + " name text, coltype integer, colsubtype integer, coldim integer, colscale integer,"
+            + " is_notnull boolean, primary key(tableid, columnid))",
+            "INSERT INTO mapd_tables VALUES (1, 'orders', 0)",
+            "INSERT INTO mapd_columns VALUES (1, 1, 'id', 6, 0, 0, 0, 1)",
+            "INSERT INTO mapd_columns VALUES (1, 2, 'amount', 9, 0, 0, 0, 0)",
+            "INSERT INTO mapd_columns VALUES (1, 3, 'region', 13, 0, 0, 0, 0)",
+            "INSERT INTO mapd_tables VALUES (2, 'big_orders', 1)",
+            "INSERT INTO mapd_views VALUES (2, 'SELECT * FROM orders WHERE amount > 100;')",
+            "INSERT INTO mapd_tables VALUES (3, 'region_totals', 1)",
+            "INSERT INTO mapd_views VALUES (3, 'SELECT region, SUM(amount) AS total FROM big_orders GROUP BY region;')",
+            "INSERT INTO mapd_tables VALUES (4, 'items', 0)",
+            "INSERT INTO mapd_columns VALUES (4, 1, 'id', 6, 0, 0, 0, 1)",
+            "INSERT INTO mapd_tables VALUES (5, 'all_items', 1)",
+            "INSERT INTO mapd_views VALUES (5, 'SELECT * FROM items;')");
+  }
+
+  private static void execute(String... statements) throws Exception {
+    Class.forName("org.sqlite.JDBC");
+    Connection conn = DriverManager.getConnection("jdbc:sqlite:" + catalog.getPath());
+    Statement stmt = conn.createStatement();
+    for (String sql : statements) {
+      stmt.execute(sql);
+    }
+    stmt.close();
+    conn.close();
+  }
+
+  private MapDParser newParser() {
+    return new MapDParser(dataDir.getRoot().getPath(), operatorTable);
+  }
+
+  @Test
+  public void cachedExpansionGivesSamePlan() throws SqlParseException {
+    String sql = "SELECT r.region, r.total, b.id FROM region_totals r JOIN big_orders b ON r.region = b.region";
+    String first = newParser().getRelAlgebra(sql, true, user, false);
+    String second = newParser().getRelAlgebra(sql, true, user, false);
+    assertEquals(first, second);
+  }
+
+  @Test
+  public void viewUsedTwiceGetsTwoScans() throws SqlParseException {
+    String ra = newParser().getRelAlgebra(
+            "SELECT a.id, b.amount FROM big_orders a JOIN big_orders b ON a.id = b.id", true, user, false);
+    assertEquals(2, ra.split("LogicalTableScan", -1).length - 1);
+    assertTrue(ra, ra.contains("\"0\"") && ra.contains("\"1\""));
+  }
+
+  @Test
+  public void changedTableRefreshesView() throws Exception {
+    MapDParser parser = newParser();
+    String before = parser.getRelAlgebra("SELECT * FROM all_items", true, user, false);
+    assertFalse(before, before.contains("\"label\""));
+
+    execute("INSERT INTO mapd_columns VALUES (4, 2, 'label', 13, 0, 0, 0, 0)");
+    parser.updateMetaData(DB, "items");
+
+    String after = parser.getRelAlgebra("SELECT * FROM all_items", true, user, false);
+    assertTrue(after, after.contains("\"label\""));
+  }
+
+  @Ignore("benchmark, run by hand")
+  @Test
+  public void compareExpansionTime() throws SqlParseException {
+    String sql = "SELECT r.region, r.total FROM region_totals r WHERE r.total > 1000";
+    MapDParser parser = newParser();
+    run(parser, sql, ITERATIONS, false);
+    run(parser, sql, ITERATIONS, true);
+
+    long cached = run(parser, sql, ITERATIONS, false);
+    long expanded = run(parser, sql, ITERATIONS, true);
+    MAPDLOGGER.info("us/query cached views " + cached / ITERATIONS / 1000
+            + ", views expanded every query " + expanded / ITERATIONS / 1000);
+    assertTrue(cached < expanded);
+  }
+
+  private long run(MapDParser parser, String sql, int iterations, boolean dropViews) throws SqlParseException {
+    long total = 0;
+    for (int i = 0; i < iterations; i++) {
+      if (dropViews) {
+        // the views are read again from the catalog, and expanded, on the next query
+        parser.updateMetaData(DB, "orders");
+      }
+      long start = System.nanoTime();
+      parser.getRelAlgebra(sql, true, user, false);
+      total += System.nanoTime() - start;
+    }
+    return total;
+  }
+}
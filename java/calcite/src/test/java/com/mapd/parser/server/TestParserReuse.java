@@ -0,0 +1,103 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.parser.server;
+
+import com.mapd.calcite.parser.MapDParser;
+import com.mapd.calcite.parser.MapDUser;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.apache.calcite.sql.SqlOperatorTable;
+import org.apache.calcite.sql.parser.SqlParseException;
+
+import static org.junit.Assert.*;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares per query allocation of a pooled parser sharing one operator table
+ * against building the operator table for every query, as was done before.
+ * Runs against the built in SALES test schema so no catalog is needed, with a
+ * synthetic set of extension functions standing in for ExtensionFunctions.ast.
+ */
+public class TestParserReuse {
+
+  private final static Logger MAPDLOGGER = LoggerFactory.getLogger(TestParserReuse.class);
+  private final static int WARMUP = 20000;
+  private final static int ITERATIONS = 20000;
+  private final static int EXTENSION_FUNCTIONS = 200;
+  private final static String QUERY = "select ENAME, SAL * 2 from EMP where DEPTNO = 10 and JOB like 'A%'";
+  private final MapDUser user = new MapDUser("mapd", "HyperInteractive", "SALES", -1);
+  private final Map<String, ExtensionFunction> extSigs = createExtSigs();
+
+  @Ignore("benchmark, run by hand")
+  @Test
+  public void compareAllocation() throws SqlParseException {
+    final SqlOperatorTable shared = MapDParser.createOperatorTable(extSigs);
+    final MapDParser parser = new MapDParser("/tmp", shared);
+
+    run(parser, WARMUP);
+    run(null, WARMUP);
+
+    long sharedBytes = run(parser, ITERATIONS);
+    long perQueryBytes = run(null, ITERATIONS);
+
+    MAPDLOGGER.info("bytes/query shared operator table " + sharedBytes / ITERATIONS
+            + ", operator table per query " + perQueryBytes / ITERATIONS);
+    assertTrue(sharedBytes < perQueryBytes);
+  }
+
+  private long run(MapDParser parser, int iterations) throws SqlParseException {
+    com.sun.management.ThreadMXBean bean
+            = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+    long tid = Thread.currentThread().getId();
+    long start = bean.getThreadAllocatedBytes(tid);
+    long timer = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      MapDParser p = parser;
+      if (p == null) {
+        p = new MapDParser("/tmp", MapDParser.createOperatorTable(extSigs));
+      }
+      p.getRelAlgebra(QUERY, true, user, false);
+    }
+    long elapsed = System.nanoTime() - timer;
+    MAPDLOGGER.info((parser == null ? "per query" : "shared") + " table: "
+            + elapsed / iterations + " ns/query");
+    return bean.getThreadAllocatedBytes(tid) - start;
+  }
+
+  private static Map<String, ExtensionFunction> createExtSigs() {
+    Map<String, ExtensionFunction> sigs = new HashMap<String, ExtensionFunction>();
+    ExtensionFunction.ExtArgumentType[] types = {
+      ExtensionFunction.ExtArgumentType.Int32,
+      ExtensionFunction.ExtArgumentType.Int64,
+      ExtensionFunction.ExtArgumentType.Double
+    };
+    for (int i = 0; i < EXTENSION_FUNCTIONS; i++) {
+      List<ExtensionFunction.ExtArgumentType> args = new ArrayList<ExtensionFunction.ExtArgumentType>();
+      for (int j = 0; j <= i % 4; j++) {
+        args.add(types[(i + j) % types.length]);
+      }
+      sigs.put("ext_fn_" + i, new ExtensionFunction(args, types[i % types.length]));
+    }
+    return sigs;
+  }
+}
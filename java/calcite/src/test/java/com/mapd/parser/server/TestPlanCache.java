@@ -0,0 +1,88 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.parser.server;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that statements differing only in layout share a plan cache key while
+ * statements with different meaning never do, and that invalidation drops the
+ * plans built against a table.
+ */
+public class TestPlanCache {
+
+  private static final Set<List<String>> FLIGHTS
+          = Collections.singleton(Arrays.asList("", "MAPD", "FLIGHTS"));
+
+  @Test
+  public void collapsesWhitespace() {
+    assertEquals("SELECT a FROM t WHERE b = 1",
+            PlanCache.normalize("  SELECT a\n\tFROM   t\r\n WHERE b = 1 ;  "));
+    assertEquals(PlanCache.normalize("SELECT a FROM t;"), PlanCache.normalize("SELECT a FROM t"));
+  }
+
+  @Test
+  public void keepsQuotedText() {
+    assertEquals("SELECT 'a  b' FROM \"my  table\"",
+            PlanCache.normalize("SELECT 'a  b'  FROM \"my  table\""));
+    assertNotEquals(PlanCache.normalize("SELECT 'a b'"), PlanCache.normalize("SELECT 'a  b'"));
+  }
+
+  @Test
+  public void lineCommentEndsAtNewline() {
+    String filtered = PlanCache.normalize("SELECT a FROM t -- x\nWHERE b = 1");
+    String commented = PlanCache.normalize("SELECT a FROM t -- x WHERE b = 1");
+    assertNotEquals(commented, filtered);
+    assertEquals("SELECT a FROM t -- x\nWHERE b = 1", filtered);
+    assertEquals(filtered, PlanCache.normalize("SELECT a\n  FROM t -- x\n   WHERE b = 1\n;"));
+  }
+
+  @Test
+  public void blockCommentKeptAsWritten() {
+    assertEquals("SELECT a /* -- 'x\n  y */ FROM t",
+            PlanCache.normalize("SELECT  a /* -- 'x\n  y */\nFROM t"));
+    assertEquals("SELECT a FROM t -- it's", PlanCache.normalize("SELECT a FROM t -- it's"));
+  }
+
+  @Test
+  public void invalidateDropsTouchingPlans() {
+    PlanCache cache = new PlanCache(10);
+    PlanCache.Key key = PlanCache.key("mapd", "mapd", "SELECT * FROM flights", false, false);
+    cache.put(key, "plan", FLIGHTS, cache.generation());
+    assertEquals("plan", cache.get(key));
+    cache.invalidate("mapd", "other");
+    assertEquals("plan", cache.get(key));
+    cache.invalidate("mapd", "flights");
+    assertNull(cache.get(key));
+  }
+
+  @Test
+  public void stalePlanNotCached() {
+    PlanCache cache = new PlanCache(10);
+    PlanCache.Key key = PlanCache.key("mapd", "mapd", "SELECT * FROM flights", false, false);
+    long generation = cache.generation();
+    cache.invalidate("mapd", "flights");
+    cache.put(key, "plan", FLIGHTS, generation);
+    assertNull(cache.get(key));
+  }
+}
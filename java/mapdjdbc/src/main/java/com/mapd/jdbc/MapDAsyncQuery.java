@@ -0,0 +1,98 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A query queued on its connection's async thread.
+ *
+ * Cancelling it before it starts takes it off the queue. Cancelling it while
+ * it runs, with mayInterruptIfRunning, cancels the query's own statement. If
+ * the query is still waiting for the connection behind another statement it
+ * then never starts, and if it is executing the server is asked to interrupt
+ * it so the queries behind it can go on. Other statements' queries on the
+ * session are never interrupted.
+ */
+class MapDAsyncQuery extends FutureTask<ResultSet> {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDAsyncQuery.class);
+
+  private final MapDStatement statement;
+  private final MapDQueryCallback callback;
+
+  MapDAsyncQuery(final MapDStatement statement, final String sql, MapDQueryCallback callback) {
+    super(new Callable<ResultSet>() {
+      @Override
+      public ResultSet call() throws SQLException {
+        return statement.executeQuery(sql);
+      }
+    });
+    this.statement = statement;
+    this.callback = callback;
+  }
+
+  @Override
+  public boolean cancel(boolean mayInterruptIfRunning) {
+    // interrupting the thread would not stop a blocking socket read
+    boolean cancelled = super.cancel(false);
+    if (cancelled && mayInterruptIfRunning) {
+      try {
+        statement.abandon();
+      } catch (SQLException ex) {
+        logger.warn("Could not interrupt cancelled query: " + ex.getMessage());
+      }
+    }
+    return cancelled;
+  }
+
+  @Override
+  protected void done() {
+    if (callback == null) {
+      return;
+    }
+    try {
+      ResultSet rs;
+      try {
+        rs = get();
+      } catch (CancellationException ex) {
+        callback.onFailure(new SQLException("Query cancelled"));
+        return;
+      } catch (ExecutionException ex) {
+        Throwable cause = ex.getCause();
+        callback.onFailure(cause instanceof SQLException ? (SQLException) cause
+                : new SQLException("Query failed : " + cause));
+        return;
+      } catch (InterruptedException ex) {
+        // done() only runs once the result is set
+        Thread.currentThread().interrupt();
+        return;
+      }
+      callback.onSuccess(rs);
+    } catch (RuntimeException ex) {
+      logger.error("Query callback failed", ex);
+    }
+  }
+}
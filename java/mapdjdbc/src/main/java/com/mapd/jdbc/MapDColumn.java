@@ -0,0 +1,96 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.TColumn;
+import com.mapd.thrift.server.TColumnData;
+import com.mapd.thrift.server.TDatumType;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * One result column held in primitive arrays.
+ *
+ * Thrift hands us boxed lists; they are unboxed once here so the result set
+ * getters are plain array reads. Values are indexed by row exactly like the
+ * Thrift lists, only the list the column type uses is populated.
+ */
+class MapDColumn {
+
+  private static final long[] NO_INTS = new long[0];
+  private static final double[] NO_REALS = new double[0];
+  private static final String[] NO_STRS = new String[0];
+
+  final TDatumType type;
+  final int size;
+  final BitSet nulls;
+  final long[] ints;
+  final double[] reals;
+  final String[] strs;
+
+  MapDColumn(TDatumType type, int size, BitSet nulls, long[] ints, double[] reals, String[] strs) {
+    this.type = type;
+    this.size = size;
+    this.nulls = nulls;
+    this.ints = ints;
+    this.reals = reals;
+    this.strs = strs;
+  }
+
+  static MapDColumn fromThrift(TDatumType type, TColumn column) {
+    List<Boolean> nullList = column.getNulls();
+    int size = nullList == null ? 0 : nullList.size();
+    BitSet nulls = new BitSet(size);
+    for (int i = 0; i < size; i++) {
+      if (nullList.get(i)) {
+        nulls.set(i);
+      }
+    }
+
+    TColumnData data = column.getData();
+    long[] ints = NO_INTS;
+    double[] reals = NO_REALS;
+    String[] strs = NO_STRS;
+    if (data != null) {
+      List<Long> intList = data.getInt_col();
+      if (intList != null && !intList.isEmpty()) {
+        ints = new long[intList.size()];
+        int i = 0;
+        for (Long value : intList) {
+          ints[i++] = value;
+        }
+      }
+      List<Double> realList = data.getReal_col();
+      if (realList != null && !realList.isEmpty()) {
+        reals = new double[realList.size()];
+        int i = 0;
+        for (Double value : realList) {
+          reals[i++] = value;
+        }
+      }
+      List<String> strList = data.getStr_col();
+      if (strList != null && !strList.isEmpty()) {
+        strs = strList.toArray(new String[strList.size()]);
+      }
+    }
+    return new MapDColumn(type, size, nulls, ints, reals, strs);
+  }
+
+  boolean isNull(int row) {
+    return nulls.get(row);
+  }
+}
@@ -0,0 +1,312 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TColumn;
+import com.mapd.thrift.server.TColumnType;
+import com.mapd.thrift.server.TDatumType;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TQueryResult;
+import com.mapd.thrift.server.TRow;
+import com.mapd.thrift.server.TRowSet;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import org.apache.thrift.TApplicationException;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TField;
+import org.apache.thrift.protocol.TList;
+import org.apache.thrift.protocol.TMessage;
+import org.apache.thrift.protocol.TMessageType;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.protocol.TProtocolUtil;
+import org.apache.thrift.protocol.TType;
+
+/**
+ * MapD client that decodes sql_execute replies straight into MapDColumn.
+ *
+ * The generated code reads TColumnData into ArrayList<Long>, ArrayList<Double>
+ * and ArrayList<Boolean>, boxing every value of a columnar result before the
+ * result set unboxes it again. This client reads the reply by hand instead:
+ * integer and real columns go into long[] and double[] sized from the list
+ * header and nulls into a BitSet, so the only per value objects left are the
+ * strings. Everything else about the reply is read with the generated code.
+ *
+ * Selected with the decode_columns connection property.
+ */
+class MapDColumnarClient extends MapD.Client {
+
+  // field ids from mapd.thrift
+  private static final short RESULT_SUCCESS = 0;
+  private static final short RESULT_E = 1;
+  private static final short QUERY_RESULT_ROW_SET = 1;
+  private static final short QUERY_RESULT_EXECUTION_TIME_MS = 2;
+  private static final short QUERY_RESULT_TOTAL_TIME_MS = 3;
+  private static final short QUERY_RESULT_NONCE = 4;
+  private static final short ROW_SET_ROW_DESC = 1;
+  private static final short ROW_SET_ROWS = 2;
+  private static final short ROW_SET_COLUMNS = 3;
+  private static final short ROW_SET_IS_COLUMNAR = 4;
+  private static final short COLUMN_DATA = 1;
+  private static final short COLUMN_NULLS = 2;
+  private static final short COLUMN_DATA_INT_COL = 1;
+  private static final short COLUMN_DATA_REAL_COL = 2;
+  private static final short COLUMN_DATA_STR_COL = 3;
+
+  private static final long[] NO_INTS = new long[0];
+  private static final double[] NO_REALS = new double[0];
+  private static final String[] NO_STRS = new String[0];
+
+  MapDColumnarClient(TProtocol prot) {
+    super(prot);
+  }
+
+  MapDColumnarClient(TProtocol iprot, TProtocol oprot) {
+    super(iprot, oprot);
+  }
+
+  @Override
+  public TQueryResult recv_sql_execute() throws TMapDException, TException {
+    TMessage msg = iprot_.readMessageBegin();
+    if (msg.type == TMessageType.EXCEPTION) {
+      TApplicationException x = TApplicationException.read(iprot_);
+      iprot_.readMessageEnd();
+      throw x;
+    }
+    if (msg.seqid != seqid_) {
+      throw new TApplicationException(TApplicationException.BAD_SEQUENCE_ID,
+              "sql_execute failed: out of sequence response");
+    }
+
+    TQueryResult success = null;
+    TMapDException e = null;
+    iprot_.readStructBegin();
+    while (true) {
+      TField field = iprot_.readFieldBegin();
+      if (field.type == TType.STOP) {
+        break;
+      }
+      if (field.id == RESULT_SUCCESS && field.type == TType.STRUCT) {
+        success = readQueryResult(iprot_);
+      } else if (field.id == RESULT_E && field.type == TType.STRUCT) {
+        e = new TMapDException();
+        e.read(iprot_);
+      } else {
+        TProtocolUtil.skip(iprot_, field.type);
+      }
+      iprot_.readFieldEnd();
+    }
+    iprot_.readStructEnd();
+    iprot_.readMessageEnd();
+
+    if (success != null) {
+      return success;
+    }
+    if (e != null) {
+      throw e;
+    }
+    throw new TApplicationException(TApplicationException.MISSING_RESULT,
+            "sql_execute failed: unknown result");
+  }
+
+  static TQueryResult readQueryResult(TProtocol iprot) throws TException {
+    List<TColumnType> rowDesc = null;
+    List<TRow> rows = null;
+    List<RawColumn> rawColumns = null;
+    boolean isColumnar = false;
+    boolean hasRowSet = false;
+    Long executionTime = null;
+    Long totalTime = null;
+    String nonce = null;
+
+    iprot.readStructBegin();
+    while (true) {
+      TField field = iprot.readFieldBegin();
+      if (field.type == TType.STOP) {
+        break;
+      }
+      if (field.id == QUERY_RESULT_ROW_SET && field.type == TType.STRUCT) {
+        hasRowSet = true;
+        iprot.readStructBegin();
+        while (true) {
+          TField rsField = iprot.readFieldBegin();
+          if (rsField.type == TType.STOP) {
+            break;
+          }
+          if (rsField.id == ROW_SET_ROW_DESC && rsField.type == TType.LIST) {
+            TList list = iprot.readListBegin();
+            rowDesc = new ArrayList<TColumnType>(list.size);
+            for (int i = 0; i < list.size; i++) {
+              TColumnType colType = new TColumnType();
+              colType.read(iprot);
+              rowDesc.add(colType);
+            }
+            iprot.readListEnd();
+          } else if (rsField.id == ROW_SET_ROWS && rsField.type == TType.LIST) {
+            TList list = iprot.readListBegin();
+            rows = new ArrayList<TRow>(list.size);
+            for (int i = 0; i < list.size; i++) {
+              TRow row = new TRow();
+              row.read(iprot);
+              rows.add(row);
+            }
+            iprot.readListEnd();
+          } else if (rsField.id == ROW_SET_COLUMNS && rsField.type == TType.LIST) {
+            TList list = iprot.readListBegin();
+            rawColumns = new ArrayList<RawColumn>(list.size);
+            for (int i = 0; i < list.size; i++) {
+              rawColumns.add(readColumn(iprot));
+            }
+            iprot.readListEnd();
+          } else if (rsField.id == ROW_SET_IS_COLUMNAR && rsField.type == TType.BOOL) {
+            isColumnar = iprot.readBool();
+          } else {
+            TProtocolUtil.skip(iprot, rsField.type);
+          }
+          iprot.readFieldEnd();
+        }
+        iprot.readStructEnd();
+      } else if (field.id == QUERY_RESULT_EXECUTION_TIME_MS && field.type == TType.I64) {
+        executionTime = iprot.readI64();
+      } else if (field.id == QUERY_RESULT_TOTAL_TIME_MS && field.type == TType.I64) {
+        totalTime = iprot.readI64();
+      } else if (field.id == QUERY_RESULT_NONCE && field.type == TType.STRING) {
+        nonce = iprot.readString();
+      } else {
+        TProtocolUtil.skip(iprot, field.type);
+      }
+      iprot.readFieldEnd();
+    }
+    iprot.readStructEnd();
+
+    // the column types are only known once row_desc has been read
+    int numColumns = rawColumns == null ? 0 : rawColumns.size();
+    MapDColumn[] columns = new MapDColumn[numColumns];
+    List<TColumn> placeholders = new ArrayList<TColumn>(numColumns);
+    for (int i = 0; i < numColumns; i++) {
+      TDatumType type = rowDesc != null && i < rowDesc.size() ? rowDesc.get(i).col_type.type : null;
+      columns[i] = rawColumns.get(i).toColumn(type);
+      placeholders.add(new TColumn());
+    }
+
+    MapDColumnarResult result = new MapDColumnarResult(columns);
+    if (hasRowSet) {
+      TRowSet rowSet = new TRowSet();
+      if (rowDesc != null) {
+        rowSet.setRow_desc(rowDesc);
+      }
+      if (rows != null) {
+        rowSet.setRows(rows);
+      }
+      if (rawColumns != null) {
+        rowSet.setColumns(placeholders);
+      }
+      rowSet.setIs_columnar(isColumnar);
+      result.setRow_set(rowSet);
+    }
+    if (executionTime != null) {
+      result.setExecution_time_ms(executionTime);
+    }
+    if (totalTime != null) {
+      result.setTotal_time_ms(totalTime);
+    }
+    if (nonce != null) {
+      result.setNonce(nonce);
+    }
+    return result;
+  }
+
+  private static RawColumn readColumn(TProtocol iprot) throws TException {
+    RawColumn column = new RawColumn();
+    iprot.readStructBegin();
+    while (true) {
+      TField field = iprot.readFieldBegin();
+      if (field.type == TType.STOP) {
+        break;
+      }
+      if (field.id == COLUMN_DATA && field.type == TType.STRUCT) {
+        iprot.readStructBegin();
+        while (true) {
+          TField dataField = iprot.readFieldBegin();
+          if (dataField.type == TType.STOP) {
+            break;
+          }
+          if (dataField.id == COLUMN_DATA_INT_COL && dataField.type == TType.LIST) {
+            TList list = iprot.readListBegin();
+            long[] ints = new long[list.size];
+            for (int i = 0; i < ints.length; i++) {
+              ints[i] = iprot.readI64();
+            }
+            iprot.readListEnd();
+            column.ints = ints;
+          } else if (dataField.id == COLUMN_DATA_REAL_COL && dataField.type == TType.LIST) {
+            TList list = iprot.readListBegin();
+            double[] reals = new double[list.size];
+            for (int i = 0; i < reals.length; i++) {
+              reals[i] = iprot.readDouble();
+            }
+            iprot.readListEnd();
+            column.reals = reals;
+          } else if (dataField.id == COLUMN_DATA_STR_COL && dataField.type == TType.LIST) {
+            TList list = iprot.readListBegin();
+            String[] strs = new String[list.size];
+            for (int i = 0; i < strs.length; i++) {
+              strs[i] = iprot.readString();
+            }
+            iprot.readListEnd();
+            column.strs = strs;
+          } else {
+            // array columns are not exposed by MapDResultSet
+            TProtocolUtil.skip(iprot, dataField.type);
+          }
+          iprot.readFieldEnd();
+        }
+        iprot.readStructEnd();
+      } else if (field.id == COLUMN_NULLS && field.type == TType.LIST) {
+        TList list = iprot.readListBegin();
+        BitSet nulls = new BitSet(list.size);
+        for (int i = 0; i < list.size; i++) {
+          if (iprot.readBool()) {
+            nulls.set(i);
+          }
+        }
+        iprot.readListEnd();
+        column.size = list.size;
+        column.nulls = nulls;
+      } else {
+        TProtocolUtil.skip(iprot, field.type);
+      }
+      iprot.readFieldEnd();
+    }
+    iprot.readStructEnd();
+    return column;
+  }
+
+  private static final class RawColumn {
+
+    private int size;
+    private BitSet nulls = new BitSet();
+    private long[] ints = NO_INTS;
+    private double[] reals = NO_REALS;
+    private String[] strs = NO_STRS;
+
+    private MapDColumn toColumn(TDatumType type) {
+      return new MapDColumn(type, size, nulls, ints, reals, strs);
+    }
+  }
+}
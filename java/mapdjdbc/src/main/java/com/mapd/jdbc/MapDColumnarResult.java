@@ -0,0 +1,41 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.TQueryResult;
+
+/**
+ * Query result decoded by MapDColumnarClient.
+ *
+ * The row descriptor and timings are filled in as usual, the column values
+ * are only held in the primitive MapDColumn arrays. row_set.columns keeps one
+ * empty TColumn per column so its size still reports the column count.
+ */
+class MapDColumnarResult extends TQueryResult {
+
+  private static final long serialVersionUID = 1L;
+
+  private final MapDColumn[] decodedColumns;
+
+  MapDColumnarResult(MapDColumn[] decodedColumns) {
+    this.decodedColumns = decodedColumns;
+  }
+
+  MapDColumn[] getDecodedColumns() {
+    return decodedColumns;
+  }
+}
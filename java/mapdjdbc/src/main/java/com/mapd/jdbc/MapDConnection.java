@@ -33,15 +33,15 @@ import java.sql.SQLXML;
 import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Struct;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Properties;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 import org.apache.thrift.TException;
-import org.apache.thrift.protocol.TBinaryProtocol;
-import org.apache.thrift.protocol.TJSONProtocol;
 import org.apache.thrift.protocol.TProtocol;
-import org.apache.thrift.transport.TSocket;
-import org.apache.thrift.transport.THttpClient;
 import org.apache.thrift.transport.TTransport;
 import org.apache.thrift.transport.TTransportException;
 import org.slf4j.Logger;
@@ -56,12 +56,27 @@ public class MapDConnection implements java.sql.Connection {
   final static Logger logger = LoggerFactory.getLogger(MapDConnection.class);
 
   protected String session = null;
+  // shared by the statements and result sets of this connection, which may
+  // call it from a prefetch thread, so every call is made holding its lock
   protected MapD.Client client = null;
   protected String url = null;
   protected Properties properties = null;
   protected String user;
   protected TTransport transport;
   protected SQLWarning warnings;
+  protected int batchFlushRows = MapDPreparedStatement.DEFAULT_BATCH_FLUSH_ROWS;
+  // buffers executeBatch rows when the write_behind property is set
+  protected MapDWriteBehind writeBehind = null;
+  // whether a fetch size pages ordered queries, set by the page_results property
+  protected boolean pageResults = false;
+  // how to reach the server again for interrupts
+  private MapDThriftStack stack;
+  private String machine;
+  private int port;
+  // runs this connection's async queries one at a time, created on first use
+  private ExecutorService asyncExecutor = null;
+  // table list and details for DatabaseMetaData, created on first use
+  private MapDMetadataCache metadataCache = null;
 
   public MapDConnection(String url, Properties info) throws SQLException { //logger.debug("Entered");
     this.url = url;
@@ -74,11 +89,24 @@ public class MapDConnection implements java.sql.Connection {
     //for (int i = 0; i < temp.length; i++) {
     //  logger.debug("temp  " + i + " " + temp[i].toString());
     //}
-    String machine = temp[2];
+    machine = temp[2];
 
     //logger.debug("machine : " + machine);
-    int port = Integer.valueOf(temp[3]);
+    port = Integer.valueOf(temp[3]);
     String db = temp[4];
+    batchFlushRows = intProperty(info, "batch_flush_rows", MapDPreparedStatement.DEFAULT_BATCH_FLUSH_ROWS);
+    boolean write_behind = Boolean.parseBoolean(info.getProperty("write_behind"));
+    pageResults = Boolean.parseBoolean(info.getProperty("page_results"));
+    int writeBehindCapacity = intProperty(info, "write_behind_capacity", MapDWriteBehind.DEFAULT_CAPACITY);
+    int writeBehindFlushMs = intProperty(info, "write_behind_flush_ms",
+            (int) MapDWriteBehind.DEFAULT_FLUSH_INTERVAL_MS);
+    if (write_behind && (writeBehindCapacity <= 0 || writeBehindFlushMs <= 0)) {
+      throw new SQLException("Connection failed write_behind_capacity and write_behind_flush_ms must be positive");
+    }
+    if (intProperty(info, "metadata_cache_ttl_ms", 0) < 0 || intProperty(info, "metadata_prefetch_threads", 1) <= 0) {
+      throw new SQLException("Connection failed metadata_cache_ttl_ms must not be negative and "
+              + "metadata_prefetch_threads must be positive");
+    }
     //test for http protocol request (we could consider usinig properties)
     if (temp.length == 6){
         if (temp[5].equals("http")){
@@ -87,23 +115,26 @@ public class MapDConnection implements java.sql.Connection {
             throw new SQLException("Connection failed invalid protocol option- " + temp[5]);
         }
     }
+    stack = MapDThriftStack.fromProperties(http_session, info);
+    logger.debug("Thrift stack is " + stack);
     try {
-      TProtocol protocol = null;
-      if (http_session){
-        transport = new THttpClient("http://" + machine + ":" + port);
-        transport.open();
-        protocol = new TJSONProtocol(transport);
-      }  else {
-        transport = new TSocket(machine, port);
-        transport.open();
-        protocol = new TBinaryProtocol(transport);
+      transport = stack.open(machine, port);
+      TProtocol protocol = stack.protocol(transport);
+      if (Boolean.parseBoolean(info.getProperty("decode_columns"))) {
+        // read query results straight into primitive arrays
+        client = new MapDColumnarClient(protocol);
+      } else {
+        client = new MapD.Client(protocol);
       }
-      client = new MapD.Client(protocol);
 
       session = client.connect(info.getProperty("user"), info.getProperty("password"), db);
 
       logger.debug("Connected session is " + session);
 
+      if (write_behind) {
+        writeBehind = new MapDWriteBehind(client, session, writeBehindCapacity, batchFlushRows, writeBehindFlushMs);
+      }
+
     } catch (TTransportException ex) {
       throw new SQLException("Connection failed - " + ex.toString());
     } catch (TMapDException ex) {
@@ -113,14 +144,124 @@ public class MapDConnection implements java.sql.Connection {
     }
   }
 
+  /**
+   * Counters of the write behind buffer, rows buffered, flushed and failed
+   * and the flush count and latency, or an empty map when write_behind is off.
+   */
+  public Map<String, Long> getWriteBehindStats() {
+    MapDWriteBehind buffer = writeBehind;
+    if (buffer == null) {
+      return new HashMap<String, Long>();
+    }
+    return buffer.getStats();
+  }
+
+  /**
+   * Counters of the metadata cache, lookups of the table list and of table
+   * details answered from the cache or the server, parallel fetches and
+   * invalidations.
+   */
+  public Map<String, Long> getMetadataCacheStats() throws SQLException {
+    return metadataCache().getStats();
+  }
+
+  /**
+   * Drop the cached table list and table details. Needed after tables were
+   * changed by another connection, DDL on this one does it already.
+   */
+  public void invalidateMetadataCache() throws SQLException {
+    metadataCache().invalidate();
+  }
+
+  synchronized MapDMetadataCache metadataCache() throws SQLException {
+    if (metadataCache == null) {
+      int ttl = intProperty(properties, "metadata_cache_ttl_ms", (int) MapDMetadataCache.DEFAULT_TTL_MS);
+      int threads = intProperty(properties, "metadata_prefetch_threads", MapDMetadataCache.DEFAULT_PREFETCH_THREADS);
+      if (Boolean.parseBoolean(properties.getProperty("metadata_cache_shared"))) {
+        metadataCache = MapDMetadataCache.shared(url + ":" + properties.getProperty("user"), ttl, threads);
+      } else {
+        metadataCache = new MapDMetadataCache(ttl, threads);
+      }
+    }
+    return metadataCache;
+  }
+
+  /**
+   * A new transport to the server, for requests on this session that must
+   * not wait for the connection's own one. The caller closes it.
+   */
+  TTransport openSideTransport() throws TTransportException {
+    return stack.open(machine, port);
+  }
+
+  MapD.Client sideClient(TTransport side) {
+    return new MapD.Client(stack.protocol(side));
+  }
+
+  /**
+   * Ask the server to stop whatever this connection's session is executing.
+   * The connection's own transport is busy waiting for that query, so the
+   * request goes over a second, short lived one.
+   */
+  void interrupt() throws SQLException {
+    String current = session;
+    if (current == null) {
+      return;
+    }
+    TTransport side = null;
+    try {
+      side = openSideTransport();
+      sideClient(side).interrupt(current);
+      logger.debug("Interrupted session " + current);
+    } catch (TMapDException ex) {
+      throw new SQLException("Interrupt failed : " + ex.getError_msg());
+    } catch (TException ex) {
+      throw new SQLException("Interrupt failed : " + ex.toString());
+    } finally {
+      if (side != null) {
+        side.close();
+      }
+    }
+  }
+
+  synchronized ExecutorService asyncExecutor() throws SQLException {
+    if (session == null) {
+      throw new SQLException("Connection is closed");
+    }
+    if (asyncExecutor == null) {
+      final String name = "mapd-jdbc-async-" + session;
+      asyncExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread t = new Thread(r, name);
+          t.setDaemon(true);
+          return t;
+        }
+      });
+    }
+    return asyncExecutor;
+  }
+
+  static int intProperty(Properties info, String name, int defaultValue) throws SQLException {
+    String value = info.getProperty(name);
+    if (value == null) {
+      return defaultValue;
+    }
+    try {
+      return Integer.parseInt(value.trim());
+    } catch (NumberFormatException ex) {
+      throw new SQLException("Connection failed invalid " + name + " - " + value);
+    }
+  }
+
   @Override
   public Statement createStatement() throws SQLException { //logger.debug("Entered");
-    return new MapDStatement(session, client);
+    return new MapDStatement(session, client, this);
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql) throws SQLException { //logger.debug("Entered");
-    return new MapDPreparedStatement(sql, session, client);
+    return new MapDPreparedStatement(sql, session, client, batchFlushRows, writeBehind, this);
   }
 
   @Override
@@ -149,7 +290,10 @@ public class MapDConnection implements java.sql.Connection {
 
   @Override
   public void commit() throws SQLException { //logger.debug("Entered");
-    //noop
+    // every statement autocommits, only buffered batches can still be pending
+    if (writeBehind != null) {
+      writeBehind.flush();
+    }
   }
 
   @Override
@@ -161,10 +305,35 @@ public class MapDConnection implements java.sql.Connection {
 
   @Override
   public void close() throws SQLException { //logger.debug("Entered");
+    try {
+      if (writeBehind != null) {
+        MapDWriteBehind buffer = writeBehind;
+        writeBehind = null;
+        try {
+          buffer.close();
+        } finally {
+          logger.info("Write behind at close " + buffer.getStats());
+        }
+      }
+    } finally {
+      disconnect();
+    }
+  }
+
+  private void disconnect() throws SQLException {
+    synchronized (this) {
+      if (asyncExecutor != null) {
+        // queued queries fail once the session is gone
+        asyncExecutor.shutdown();
+        asyncExecutor = null;
+      }
+    }
     try {
       logger.debug("Session at close is " + session);
       if (session != null) {
-        client.disconnect(session);
+        synchronized (client) {
+          client.disconnect(session);
+        }
       }
       session = null;
       transport.close();
@@ -237,12 +406,12 @@ public class MapDConnection implements java.sql.Connection {
 
   @Override
   public Statement createStatement(int resultSetType, int resultSetConcurrency) throws SQLException { //logger.debug("Entered");
-    return new MapDStatement(session, client);
+    return new MapDStatement(session, client, this);
   }
 
   @Override
   public PreparedStatement prepareStatement(String sql, int resultSetType, int resultSetConcurrency) throws SQLException { //logger.debug("Entered");
-    return new MapDPreparedStatement(sql, session, client);
+    return new MapDPreparedStatement(sql, session, client, batchFlushRows, writeBehind, this);
   }
 
   @Override
@@ -386,7 +555,9 @@ public class MapDConnection implements java.sql.Connection {
   @Override
   public boolean isValid(int timeout) throws SQLException { //logger.debug("Entered");
     try {
-      client.get_server_status(session);
+      synchronized (client) {
+        client.get_server_status(session);
+      }
     } catch (TTransportException ex) {
       throw new SQLException("Connection failed - " + ex.toString());
     } catch (TMapDException ex) {
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Pool of logged in connections behind MapDDataSource.
+ *
+ * Idle connections are reused most recently returned first, so the least used
+ * ones age out. A connection idle for longer than the validation interval is
+ * checked with get_server_status before it is handed out. A background task
+ * closes connections idle for longer than maxIdleTime, keeping at least
+ * minIdle open, and opens new ones to get back to minIdle. An eviction
+ * interval of 0 leaves that task out, so idle connections stay open. When
+ * maxSize connections are in use callers wait up to maxWait for one to be
+ * returned.
+ */
+class MapDConnectionPool implements ConnectionEventListener {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDConnectionPool.class);
+
+  private static final ScheduledExecutorService EVICTOR = Executors.newSingleThreadScheduledExecutor(
+          new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "mapd-jdbc-pool-evictor-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  private final String url;
+  private final Properties info;
+  private final int maxSize;
+  private final int minIdle;
+  private final long maxIdleNanos;
+  private final long validationNanos;
+  private final long maxWaitNanos;
+  private final ScheduledFuture<?> evictor;
+
+  // guarded by this
+  private final LinkedList<MapDPooledConnection> idle = new LinkedList<MapDPooledConnection>();
+  // idle, in use and being opened
+  private int total = 0;
+  private boolean closed = false;
+
+  private long created = 0;
+  private long destroyed = 0;
+  private long borrowed = 0;
+  private long waited = 0;
+  private long waitNanos = 0;
+  private long timeouts = 0;
+  private long validationFailures = 0;
+  private long evicted = 0;
+
+  MapDConnectionPool(String url, Properties info, int maxSize, int minIdle, long maxIdleMs, long validationMs,
+          long maxWaitMs, long evictionMs) throws SQLException {
+    if (maxSize <= 0) {
+      throw new SQLException("maxPoolSize must be positive, was " + maxSize);
+    }
+    if (evictionMs < 0) {
+      throw new SQLException("evictionInterval must not be negative, was " + evictionMs);
+    }
+    this.url = url;
+    this.info = info;
+    this.maxSize = maxSize;
+    this.minIdle = Math.min(minIdle, maxSize);
+    this.maxIdleNanos = TimeUnit.MILLISECONDS.toNanos(maxIdleMs);
+    this.validationNanos = TimeUnit.MILLISECONDS.toNanos(validationMs);
+    this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs);
+    if (evictionMs == 0) {
+      this.evictor = null;
+      return;
+    }
+    this.evictor = EVICTOR.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        evict();
+      }
+    }, evictionMs, evictionMs, TimeUnit.MILLISECONDS);
+  }
+
+  Connection getConnection() throws SQLException {
+    long start = System.nanoTime();
+    boolean hadToWait = false;
+    while (true) {
+      MapDPooledConnection pooled = null;
+      synchronized (this) {
+        while (true) {
+          if (closed) {
+            throw new SQLException("Connection pool is closed");
+          }
+          if (!idle.isEmpty()) {
+            pooled = idle.removeFirst();
+            break;
+          }
+          if (total < maxSize) {
+            total++;
+            break;
+          }
+          long left = maxWaitNanos - (System.nanoTime() - start);
+          if (left <= 0) {
+            timeouts++;
+            throw new SQLException("Timed out after " + TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)
+                    + " ms waiting for one of " + maxSize + " pooled connections");
+          }
+          hadToWait = true;
+          try {
+            TimeUnit.NANOSECONDS.timedWait(this, left);
+          } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted waiting for a pooled connection");
+          }
+        }
+      }
+
+      if (pooled == null) {
+        pooled = open();
+      } else if (!validate(pooled)) {
+        destroy(pooled);
+        continue;
+      }
+      Connection connection;
+      try {
+        connection = pooled.getConnection();
+      } catch (SQLException ex) {
+        destroy(pooled);
+        throw ex;
+      }
+      synchronized (this) {
+        borrowed++;
+        if (hadToWait) {
+          waited++;
+          waitNanos += System.nanoTime() - start;
+        }
+      }
+      pooled.lastUsed = System.nanoTime();
+      return connection;
+    }
+  }
+
+  @Override
+  public void connectionClosed(ConnectionEvent event) {
+    MapDPooledConnection pooled = (MapDPooledConnection) event.getSource();
+    synchronized (this) {
+      if (!closed) {
+        idle.addFirst(pooled);
+        notifyAll();
+        return;
+      }
+    }
+    destroy(pooled);
+  }
+
+  @Override
+  public void connectionErrorOccurred(ConnectionEvent event) {
+    destroy((MapDPooledConnection) event.getSource());
+  }
+
+  /**
+   * Close the idle connections now and the others as they are returned.
+   */
+  void close() {
+    List<MapDPooledConnection> drained;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      if (evictor != null) {
+        evictor.cancel(false);
+      }
+      drained = new ArrayList<MapDPooledConnection>(idle);
+      idle.clear();
+      notifyAll();
+    }
+    for (MapDPooledConnection pooled : drained) {
+      destroy(pooled);
+    }
+    logger.info("Connection pool closed " + getStats());
+  }
+
+  synchronized Map<String, Long> getStats() {
+    Map<String, Long> stats = new LinkedHashMap<String, Long>();
+    stats.put("active", (long) (total - idle.size()));
+    stats.put("idle", (long) idle.size());
+    stats.put("created", created);
+    stats.put("destroyed", destroyed);
+    stats.put("borrowed", borrowed);
+    stats.put("waited", waited);
+    stats.put("wait_ms_total", TimeUnit.NANOSECONDS.toMillis(waitNanos));
+    stats.put("timeouts", timeouts);
+    stats.put("validation_failures", validationFailures);
+    stats.put("evicted", evicted);
+    return stats;
+  }
+
+  // the caller has already counted the connection in total
+  private MapDPooledConnection open() throws SQLException {
+    MapDConnection physical;
+    try {
+      physical = new MapDConnection(url, info);
+    } catch (SQLException ex) {
+      synchronized (this) {
+        total--;
+        notifyAll();
+      }
+      throw ex;
+    }
+    MapDPooledConnection pooled = new MapDPooledConnection(physical);
+    pooled.addConnectionEventListener(this);
+    synchronized (this) {
+      created++;
+    }
+    return pooled;
+  }
+
+  private boolean validate(MapDPooledConnection pooled) {
+    if (System.nanoTime() - pooled.lastUsed < validationNanos) {
+      return true;
+    }
+    try {
+      if (pooled.getPhysical().isValid(0)) {
+        return true;
+      }
+    } catch (SQLException ex) {
+      logger.debug("Pooled connection failed validation: " + ex.getMessage());
+    }
+    synchronized (this) {
+      validationFailures++;
+    }
+    return false;
+  }
+
+  private void destroy(MapDPooledConnection pooled) {
+    synchronized (this) {
+      total--;
+      destroyed++;
+      notifyAll();
+    }
+    pooled.removeConnectionEventListener(this);
+    try {
+      pooled.close();
+    } catch (SQLException ex) {
+      logger.debug("Closing pooled connection failed: " + ex.getMessage());
+    }
+  }
+
+  private void evict() {
+    List<MapDPooledConnection> expired = new ArrayList<MapDPooledConnection>();
+    int missing;
+    synchronized (this) {
+      if (closed) {
+        return;
+      }
+      long now = System.nanoTime();
+      // the least recently used are at the end
+      Iterator<MapDPooledConnection> it = idle.descendingIterator();
+      while (it.hasNext() && idle.size() > minIdle) {
+        MapDPooledConnection pooled = it.next();
+        if (now - pooled.lastUsed < maxIdleNanos) {
+          break;
+        }
+        it.remove();
+        expired.add(pooled);
+      }
+      evicted += expired.size();
+      missing = Math.min(minIdle - idle.size(), maxSize - total);
+      if (missing > 0) {
+        total += missing;
+      }
+    }
+    for (MapDPooledConnection pooled : expired) {
+      destroy(pooled);
+    }
+    // keep minIdle sessions logged in
+    for (int i = 0; i < missing; i++) {
+      try {
+        MapDPooledConnection pooled = open();
+        connectionClosed(new ConnectionEvent(pooled));
+      } catch (SQLException ex) {
+        logger.warn("Could not open pooled connection: " + ex.getMessage());
+        synchronized (this) {
+          total -= missing - i - 1;
+          notifyAll();
+        }
+        break;
+      }
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.logging.Logger;
+import javax.sql.ConnectionPoolDataSource;
+import javax.sql.DataSource;
+import javax.sql.PooledConnection;
+import org.slf4j.LoggerFactory;
+
+/**
+ * DataSource that keeps logged in MapD sessions open between uses.
+ *
+ * <pre>
+ *   MapDDataSource ds = new MapDDataSource();
+ *   ds.setUrl("jdbc:mapd:localhost:9091:mapd");
+ *   ds.setUser("mapd");
+ *   ds.setPassword("HyperInteractive");
+ *   ds.setMaxPoolSize(8);
+ *   Connection con = ds.getConnection();   // borrowed from the pool
+ *   ...
+ *   con.close();                           // returned to the pool
+ * </pre>
+ *
+ * Any other connection properties, such as decode_columns or write_behind,
+ * can be given with setProperties. The pool is created by the first
+ * getConnection, after that the settings are fixed until close().
+ * getPooledConnection opens a connection for an application server's own
+ * pool and does not use this one.
+ */
+public class MapDDataSource implements DataSource, ConnectionPoolDataSource {
+
+  final static org.slf4j.Logger logger = LoggerFactory.getLogger(MapDDataSource.class);
+
+  private String url;
+  private String user;
+  private String password;
+  private Properties properties = new Properties();
+  private int maxPoolSize = 10;
+  private int minIdle = 0;
+  private long maxIdleTime = 10 * 60 * 1000;
+  private long validationInterval = 5 * 1000;
+  private long maxWait = 30 * 1000;
+  private long evictionInterval = 30 * 1000;
+  private int loginTimeout = 0;
+  private PrintWriter logWriter;
+  private MapDConnectionPool pool;
+
+  public String getUrl() {
+    return url;
+  }
+
+  public void setUrl(String url) {
+    this.url = url;
+  }
+
+  public String getUser() {
+    return user;
+  }
+
+  public void setUser(String user) {
+    this.user = user;
+  }
+
+  public void setPassword(String password) {
+    this.password = password;
+  }
+
+  public Properties getProperties() {
+    return properties;
+  }
+
+  public void setProperties(Properties properties) {
+    this.properties = properties;
+  }
+
+  public int getMaxPoolSize() {
+    return maxPoolSize;
+  }
+
+  /**
+   * Most connections open at once, in use or idle, default 10.
+   */
+  public void setMaxPoolSize(int maxPoolSize) {
+    this.maxPoolSize = maxPoolSize;
+  }
+
+  public int getMinIdle() {
+    return minIdle;
+  }
+
+  /**
+   * Idle connections kept open however long they are unused, default 0.
+   */
+  public void setMinIdle(int minIdle) {
+    this.minIdle = minIdle;
+  }
+
+  public long getMaxIdleTime() {
+    return maxIdleTime;
+  }
+
+  /**
+   * Milliseconds a connection may stay idle before it is closed, default ten
+   * minutes.
+   */
+  public void setMaxIdleTime(long maxIdleTime) {
+    this.maxIdleTime = maxIdleTime;
+  }
+
+  public long getValidationInterval() {
+    return validationInterval;
+  }
+
+  /**
+   * A connection idle for more milliseconds than this is checked with the
+   * server before it is handed out, default five seconds.
+   */
+  public void setValidationInterval(long validationInterval) {
+    this.validationInterval = validationInterval;
+  }
+
+  public long getMaxWait() {
+    return maxWait;
+  }
+
+  /**
+   * Milliseconds getConnection waits for a free connection when the pool is
+   * at its maximum size, default 30 seconds.
+   */
+  public void setMaxWait(long maxWait) {
+    this.maxWait = maxWait;
+  }
+
+  public long getEvictionInterval() {
+    return evictionInterval;
+  }
+
+  /**
+   * Milliseconds between checks for idle connections, default 30 seconds. 0
+   * turns the checks off, idle connections are then only closed with the pool.
+   */
+  public void setEvictionInterval(long evictionInterval) {
+    this.evictionInterval = evictionInterval;
+  }
+
+  /**
+   * Counters of the pool: connections active and idle, created and destroyed,
+   * borrowed, borrows that had to wait and for how long, timeouts,
+   * validation failures and evictions. Empty before the first getConnection.
+   */
+  public synchronized Map<String, Long> getPoolStats() {
+    if (pool == null) {
+      return new HashMap<String, Long>();
+    }
+    return pool.getStats();
+  }
+
+  /**
+   * Close the pool. Connections in use are closed when they are returned.
+   */
+  public synchronized void close() {
+    if (pool != null) {
+      pool.close();
+      pool = null;
+    }
+  }
+
+  @Override
+  public Connection getConnection() throws SQLException {
+    return pool().getConnection();
+  }
+
+  /**
+   * Connections for the configured user come from the pool, others are
+   * opened and closed as usual.
+   */
+  @Override
+  public Connection getConnection(String username, String password) throws SQLException {
+    if (eq(username, user) && eq(password, this.password)) {
+      return getConnection();
+    }
+    return new MapDConnection(checkedUrl(), connectionInfo(username, password));
+  }
+
+  @Override
+  public PooledConnection getPooledConnection() throws SQLException {
+    return getPooledConnection(user, password);
+  }
+
+  @Override
+  public PooledConnection getPooledConnection(String username, String password) throws SQLException {
+    return new MapDPooledConnection(new MapDConnection(checkedUrl(), connectionInfo(username, password)));
+  }
+
+  @Override
+  public PrintWriter getLogWriter() throws SQLException {
+    return logWriter;
+  }
+
+  @Override
+  public void setLogWriter(PrintWriter out) throws SQLException {
+    logWriter = out;
+  }
+
+  @Override
+  public void setLoginTimeout(int seconds) throws SQLException {
+    loginTimeout = seconds;
+  }
+
+  @Override
+  public int getLoginTimeout() throws SQLException {
+    return loginTimeout;
+  }
+
+  @Override
+  public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+    throw new SQLFeatureNotSupportedException("MapDDataSource logs through slf4j");
+  }
+
+  @Override
+  public <T> T unwrap(Class<T> iface) throws SQLException {
+    if (iface.isInstance(this)) {
+      return iface.cast(this);
+    }
+    throw new SQLException("MapDDataSource does not wrap " + iface.getName());
+  }
+
+  @Override
+  public boolean isWrapperFor(Class<?> iface) throws SQLException {
+    return iface.isInstance(this);
+  }
+
+  private synchronized MapDConnectionPool pool() throws SQLException {
+    if (pool == null) {
+      pool = new MapDConnectionPool(checkedUrl(), connectionInfo(user, password), maxPoolSize, minIdle,
+              maxIdleTime, validationInterval, maxWait, evictionInterval);
+      logger.debug("Connection pool created for " + url + " max size " + maxPoolSize);
+    }
+    return pool;
+  }
+
+  private String checkedUrl() throws SQLException {
+    if (url == null || !url.trim().toLowerCase().startsWith(MapDDriver.PREFIX)) {
+      throw new SQLException("MapDDataSource url must start with " + MapDDriver.PREFIX + " - " + url);
+    }
+    return url.trim();
+  }
+
+  private Properties connectionInfo(String username, String password) {
+    Properties info = new Properties();
+    info.putAll(properties);
+    if (username != null) {
+      info.setProperty("user", username);
+    }
+    if (password != null) {
+      info.setProperty("password", password);
+    }
+    return info;
+  }
+
+  private static boolean eq(String a, String b) {
+    return a == null ? b == null : a.equals(b);
+  }
+}
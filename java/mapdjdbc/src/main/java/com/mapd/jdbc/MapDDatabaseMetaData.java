@@ -35,6 +35,7 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.regex.Pattern;
 import org.apache.thrift.TException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -106,7 +107,9 @@ class MapDDatabaseMetaData implements DatabaseMetaData {
   @Override
   public String getDatabaseProductVersion() throws SQLException { //logger.debug("Entered");
     try {
-      return con.client.get_version();
+      synchronized (con.client) {
+        return con.client.get_version();
+      }
     } catch (TException ex) {
       throw new SQLException("Failed to get DB version " + ex.toString());
     }
@@ -710,12 +713,9 @@ SQLException - if a database access error occurs
   public ResultSet getTables(String catalog, String schemaPattern, String tableNamePattern, String[] types) throws
           SQLException { //logger.debug("Entered");
 
-    List<String> tables;
-    try {
-      tables = con.client.get_tables(con.session);
-    } catch (TException ex) {
-      throw new SQLException("get_tables failed " + ex.toString());
-    }
+    MapDMetadataCache cache = con.metadataCache();
+    List<String> tables = cache.getTables(con);
+    Pattern tablePattern = cache.pattern(tableNamePattern);
 
     TTypeInfo strTTI = new TTypeInfo(TDatumType.STR, TEncodingType.NONE, false, false, 0, 0, 0);
     TColumnType columns[] = {
@@ -745,6 +745,9 @@ SQLException - if a database access error occurs
 
     // Now add some actual details for table name
     for (String x : tables) {
+      if (tablePattern != null && !tablePattern.matcher(x).matches()) {
+        continue;
+      }
       dataMap.get("TABLE_NAME").add(x);
       nullMap.get("TABLE_NAME").add(false);
       nullMap.get("TABLE_SCHEM").add(true);
@@ -791,7 +794,9 @@ SQLException - if a database access error occurs
     List<TDBInfo> databases = null;
 
     try {
-      databases = con.client.get_databases(con.session);
+      synchronized (con.client) {
+        databases = con.client.get_databases(con.session);
+      }
     } catch (TException ex) {
       throw new SQLException("get_database failed " + ex.toString());
     }
@@ -939,11 +944,10 @@ SQLException - if a database access error occurs
   @Override
   public ResultSet getColumns(String catalog, String schemaPattern, String tableNamePattern, String columnNamePattern)
           throws SQLException { //logger.debug("Entered");
-    logger.info("TablePattern " + tableNamePattern + " columnNamePattern " + columnNamePattern);
-    String modifiedTablePattern = tableNamePattern.replaceAll("%", ".*");
-    String modifiedColumnPattern = (columnNamePattern == null) ? null : columnNamePattern.replaceAll("%", ".*");
-
-    logger.info("TablePattern " + tableNamePattern + " modifiedColumnPattern " + modifiedColumnPattern);
+    logger.debug("TablePattern " + tableNamePattern + " columnNamePattern " + columnNamePattern);
+    MapDMetadataCache cache = con.metadataCache();
+    Pattern tablePattern = cache.pattern(tableNamePattern);
+    Pattern columnPattern = cache.pattern(columnNamePattern);
 
     // declare the columns in the result set
     TTypeInfo strTTI = new TTypeInfo(TDatumType.STR, TEncodingType.NONE, false, false, 0, 0, 0);
@@ -987,60 +991,57 @@ SQLException - if a database access error occurs
     }
 
     // Now add some actual details for table name
-    List<String> tables;
-    try {
-      tables = con.client.get_tables(con.session);
-
-      for (String tableName : tables) {
-        // check if the table matches the input pattern
-        if (tableNamePattern == null || tableNamePattern.equals(tableName)) {
-
-          // grab meta data for table
-          TTableDetails tableDetails = con.client.get_table_details(con.session, tableName);
-
-          int ordinal = 0;
-          // iterate through the columns
-          for (TColumnType value : tableDetails.row_desc) {
-
-            ordinal++;
-            if (columnNamePattern == null || value.col_name.matches(modifiedColumnPattern)) {
-              dataMap.get("TABLE_CAT").setNull(true);
-              dataMap.get("TABLE_SCHEM").setNull(true);
-              dataMap.get("TABLE_NAME").add(tableName);
-              dataMap.get("COLUMN_NAME").add(value.col_name);
-              dataMap.get("DATA_TYPE").add(MapDType.toJava(value.col_type.type));
-              dataMap.get("TYPE_NAME").add((value.col_type.type.name() + (value.col_type.is_array ? "[]" : "")));
-              if (value.col_type.type == TDatumType.DECIMAL)
-                dataMap.get("COLUMN_SIZE").add(value.col_type.precision);
-              else
-                dataMap.get("COLUMN_SIZE").add(100);
-              dataMap.get("BUFFER_LENGTH").setNull(true);
-              if (value.col_type.type == TDatumType.DECIMAL)
-                dataMap.get("DECIMAL_DIGITS").add(value.col_type.scale);
-              else
-                 dataMap.get("DECIMAL_DIGITS").setNull(true);
-              dataMap.get("NUM_PREC_RADIX").add(10);
-              dataMap.get("NULLABLE").add(value.col_type.nullable ? DatabaseMetaData.columnNullable
-                      : DatabaseMetaData.columnNoNulls);
-              dataMap.get("REMARKS").add(" ");
-              dataMap.get("COLUMN_DEF").setNull(true);
-              dataMap.get("SQL_DATA_TYPE").add(0);
-              dataMap.get("SQL_DATETIME_SUB").setNull(true);
-              dataMap.get("CHAR_OCTET_LENGTH").add(0);
-              dataMap.get("ORDINAL_POSITION").add(ordinal);
-              dataMap.get("IS_NULLABLE").add(value.col_type.nullable ? "YES" : "NO");
-              dataMap.get("SCOPE_CATALOG").setNull(true);
-              dataMap.get("SCOPE_SCHEMA").setNull(true);
-              dataMap.get("SCOPE_TABLE").setNull(true);
-              dataMap.get("SOURCE_DATA_TYPE").add(MapDType.toJava(value.col_type.type));
-              dataMap.get("IS_AUTOINCREMENT").add("NO");
-              dataMap.get("IS_GENERATEDCOLUMN").add("NO");
-            }
-          }
+    List<String> tables = new ArrayList<String>();
+    for (String tableName : cache.getTables(con)) {
+      // check if the table matches the input pattern
+      if (tablePattern == null || tablePattern.matcher(tableName).matches()) {
+        tables.add(tableName);
+      }
+    }
+
+    for (Map.Entry<String, TTableDetails> table : cache.getTableDetails(con, tables).entrySet()) {
+      String tableName = table.getKey();
+      TTableDetails tableDetails = table.getValue();
+
+      int ordinal = 0;
+      // iterate through the columns
+      for (TColumnType value : tableDetails.row_desc) {
+
+        ordinal++;
+        if (columnPattern == null || columnPattern.matcher(value.col_name).matches()) {
+          dataMap.get("TABLE_CAT").setNull(true);
+          dataMap.get("TABLE_SCHEM").setNull(true);
+          dataMap.get("TABLE_NAME").add(tableName);
+          dataMap.get("COLUMN_NAME").add(value.col_name);
+          dataMap.get("DATA_TYPE").add(MapDType.toJava(value.col_type.type));
+          dataMap.get("TYPE_NAME").add((value.col_type.type.name() + (value.col_type.is_array ? "[]" : "")));
+          if (value.col_type.type == TDatumType.DECIMAL)
+            dataMap.get("COLUMN_SIZE").add(value.col_type.precision);
+          else
+            dataMap.get("COLUMN_SIZE").add(100);
+          dataMap.get("BUFFER_LENGTH").setNull(true);
+          if (value.col_type.type == TDatumType.DECIMAL)
+            dataMap.get("DECIMAL_DIGITS").add(value.col_type.scale);
+          else
+             dataMap.get("DECIMAL_DIGITS").setNull(true);
+          dataMap.get("NUM_PREC_RADIX").add(10);
+          dataMap.get("NULLABLE").add(value.col_type.nullable ? DatabaseMetaData.columnNullable
+                  : DatabaseMetaData.columnNoNulls);
+          dataMap.get("REMARKS").add(" ");
+          dataMap.get("COLUMN_DEF").setNull(true);
+          dataMap.get("SQL_DATA_TYPE").add(0);
+          dataMap.get("SQL_DATETIME_SUB").setNull(true);
+          dataMap.get("CHAR_OCTET_LENGTH").add(0);
+          dataMap.get("ORDINAL_POSITION").add(ordinal);
+          dataMap.get("IS_NULLABLE").add(value.col_type.nullable ? "YES" : "NO");
+          dataMap.get("SCOPE_CATALOG").setNull(true);
+          dataMap.get("SCOPE_SCHEMA").setNull(true);
+          dataMap.get("SCOPE_TABLE").setNull(true);
+          dataMap.get("SOURCE_DATA_TYPE").add(MapDType.toJava(value.col_type.type));
+          dataMap.get("IS_AUTOINCREMENT").add("NO");
+          dataMap.get("IS_GENERATEDCOLUMN").add("NO");
         }
       }
-    } catch (TException ex) {
-      throw new SQLException("get_tables failed " + ex.toString());
     }
 
     List<TColumn> columnsList = new ArrayList(columns.length);
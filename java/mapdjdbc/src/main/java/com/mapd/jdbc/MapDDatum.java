@@ -0,0 +1,212 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.TDatum;
+import com.mapd.thrift.server.TDatumVal;
+import com.mapd.thrift.server.TTypeInfo;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Date;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.util.TimeZone;
+
+/**
+ * Converts bound parameter values to the TDatum load_table_binary expects.
+ *
+ * The server reads integers, booleans, times and scaled decimals from int_val,
+ * floating point from real_val and text from str_val. Dates and times are sent
+ * as the seconds of their local wall clock time, which is what the server
+ * stores when it parses the same value from its toString() form, so text and
+ * binary batches load identical data.
+ */
+class MapDDatum {
+
+  private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+  private MapDDatum() {
+  }
+
+  static TDatum toDatum(Object value, TTypeInfo type) throws SQLException {
+    TDatum datum = new TDatum();
+    TDatumVal val = new TDatumVal();
+    datum.setVal(val);
+    // an empty string has always meant null for batched inserts
+    if (value == null || (value instanceof String && ((String) value).length() == 0)) {
+      datum.setIs_null(true);
+      return datum;
+    }
+    datum.setIs_null(false);
+    switch (type.type) {
+      case BOOL:
+        val.setInt_val(toBoolean(value) ? 1 : 0);
+        break;
+      case SMALLINT:
+      case INT:
+      case BIGINT:
+        val.setInt_val(toLong(value));
+        break;
+      case FLOAT:
+      case DOUBLE:
+        val.setReal_val(toDouble(value));
+        break;
+      case DECIMAL:
+        val.setInt_val(toBigDecimal(value).setScale(type.scale, RoundingMode.HALF_UP).unscaledValue().longValue());
+        break;
+      case STR:
+        val.setStr_val(toText(value));
+        break;
+      case TIME:
+        val.setInt_val(floorMod(wallClockSeconds(toTime(value)), SECONDS_PER_DAY));
+        break;
+      case TIMESTAMP:
+        val.setInt_val(wallClockSeconds(toTimestamp(value)));
+        break;
+      case DATE:
+        val.setInt_val(wallClockSeconds(toDate(value)));
+        break;
+      default:
+        throw new SQLException("Binary insert of " + type.type + " values is not supported");
+    }
+    return datum;
+  }
+
+  /**
+   * The text form sent for a parameter in a query or a text batch.
+   */
+  static String toText(Object value) {
+    if (value instanceof Boolean) {
+      return ((Boolean) value) ? "t" : "f";
+    }
+    return value.toString();
+  }
+
+  private static boolean toBoolean(Object value) throws SQLException {
+    if (value instanceof Boolean) {
+      return (Boolean) value;
+    }
+    if (value instanceof Number) {
+      return ((Number) value).longValue() != 0;
+    }
+    String s = value.toString().trim();
+    if (s.equalsIgnoreCase("t") || s.equalsIgnoreCase("true") || s.equals("1")) {
+      return true;
+    }
+    if (s.equalsIgnoreCase("f") || s.equalsIgnoreCase("false") || s.equals("0")) {
+      return false;
+    }
+    throw new SQLException("Cannot convert '" + s + "' to BOOL");
+  }
+
+  private static long toLong(Object value) throws SQLException {
+    if (value instanceof Number) {
+      return ((Number) value).longValue();
+    }
+    if (value instanceof Boolean) {
+      return ((Boolean) value) ? 1 : 0;
+    }
+    try {
+      return new BigDecimal(value.toString().trim()).longValue();
+    } catch (NumberFormatException ex) {
+      throw new SQLException("Cannot convert '" + value + "' to an integer");
+    }
+  }
+
+  private static double toDouble(Object value) throws SQLException {
+    if (value instanceof Number) {
+      return ((Number) value).doubleValue();
+    }
+    if (value instanceof Boolean) {
+      return ((Boolean) value) ? 1 : 0;
+    }
+    try {
+      return Double.parseDouble(value.toString().trim());
+    } catch (NumberFormatException ex) {
+      throw new SQLException("Cannot convert '" + value + "' to a floating point value");
+    }
+  }
+
+  private static BigDecimal toBigDecimal(Object value) throws SQLException {
+    if (value instanceof BigDecimal) {
+      return (BigDecimal) value;
+    }
+    if (value instanceof Float || value instanceof Double) {
+      return new BigDecimal(value.toString());
+    }
+    if (value instanceof Number) {
+      return BigDecimal.valueOf(((Number) value).longValue());
+    }
+    try {
+      return new BigDecimal(value.toString().trim());
+    } catch (NumberFormatException ex) {
+      throw new SQLException("Cannot convert '" + value + "' to DECIMAL");
+    }
+  }
+
+  private static java.util.Date toTime(Object value) throws SQLException {
+    if (value instanceof java.util.Date) {
+      return (java.util.Date) value;
+    }
+    try {
+      return Time.valueOf(value.toString().trim());
+    } catch (IllegalArgumentException ex) {
+      throw new SQLException("Cannot convert '" + value + "' to TIME");
+    }
+  }
+
+  private static java.util.Date toTimestamp(Object value) throws SQLException {
+    if (value instanceof java.util.Date) {
+      return (java.util.Date) value;
+    }
+    try {
+      return Timestamp.valueOf(value.toString().trim());
+    } catch (IllegalArgumentException ex) {
+      throw new SQLException("Cannot convert '" + value + "' to TIMESTAMP");
+    }
+  }
+
+  private static java.util.Date toDate(Object value) throws SQLException {
+    if (value instanceof java.util.Date) {
+      return (java.util.Date) value;
+    }
+    try {
+      return Date.valueOf(value.toString().trim());
+    } catch (IllegalArgumentException ex) {
+      throw new SQLException("Cannot convert '" + value + "' to DATE");
+    }
+  }
+
+  private static long wallClockSeconds(java.util.Date value) {
+    long millis = value.getTime();
+    millis += TimeZone.getDefault().getOffset(millis);
+    return floorDiv(millis, 1000);
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    if ((x % y != 0) && ((x < 0) != (y < 0))) {
+      q--;
+    }
+    return q;
+  }
+
+  private static long floorMod(long x, long y) {
+    return x - floorDiv(x, y) * y;
+  }
+}
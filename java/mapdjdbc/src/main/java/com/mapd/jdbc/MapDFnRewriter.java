@@ -0,0 +1,269 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Rewrites the JDBC escapes and date functions tools like Tableau generate
+ * into SQL the server understands.
+ *
+ * {fn ...} escapes are unwrapped, QUARTER(, DAYOFYEAR(, DAYOFWEEK( and WEEK(
+ * become EXTRACT and the date arithmetic Tableau uses to truncate dates
+ * becomes DATE_TRUNC. The output is the same as applying the original regular
+ * expressions until nothing changes, but escapes and function names are
+ * rewritten in one scan each, and the truncation expressions are only
+ * searched for when the SQL contains " AS DATE)", which all of them do.
+ *
+ * Dashboards send the same SQL on every refresh, so rewritten SQL is kept in
+ * a small cache keyed by the original text. The cache is shared by every
+ * connection in the JVM, so it is bounded by the characters it holds as well
+ * as by entries, and SQL longer than a quarter of that is not cached at all.
+ */
+class MapDFnRewriter {
+
+  static final int CACHE_ENTRIES = 128;
+  static final int CACHE_CHARS = 2 * 1024 * 1024;
+  static final int MAX_CACHED_CHARS = CACHE_CHARS / 4;
+
+  // least recently used first, guarded by itself along with cachedChars
+  private static final LinkedHashMap<String, String> CACHE = new LinkedHashMap<String, String>(CACHE_ENTRIES, 0.75f, true);
+  private static int cachedChars = 0;
+
+  private static final Pattern QUARTER_TRUNC = Pattern.compile(
+          "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) - 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern MONTH_TRUNC = Pattern.compile(
+          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern YEAR_TRUNC = Pattern.compile(
+          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1\\ \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern MINUTE_TRUNC = Pattern.compile(
+          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern SECOND_TRUNC = Pattern.compile(
+          "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\) \\+  EXTRACT\\(SECOND FROM .*?\\) \\* INTERVAL '1' SECOND\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern YEAR1_TRUNC = Pattern.compile(
+          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern QUARTER1_TRUNC = Pattern.compile(
+          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern WEEK_TRUNC = Pattern.compile(
+          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+ \\(\\-1 \\* \\( EXTRACT\\(ISODOW FROM .*?\\) \\- 1\\)\\) \\* INTERVAL '1' DAY\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  private MapDFnRewriter() {
+  }
+
+  static String rewrite(String sql) {
+    if (sql.length() > MAX_CACHED_CHARS) {
+      return rewriteUncached(sql);
+    }
+    String rewritten;
+    synchronized (CACHE) {
+      rewritten = CACHE.get(sql);
+    }
+    if (rewritten == null) {
+      rewritten = rewriteUncached(sql);
+      if (chars(sql, rewritten) <= MAX_CACHED_CHARS) {
+        cache(sql, rewritten);
+      }
+    }
+    return rewritten;
+  }
+
+  private static void cache(String sql, String rewritten) {
+    synchronized (CACHE) {
+      String previous = CACHE.put(sql, rewritten);
+      if (previous != null) {
+        cachedChars -= chars(sql, previous);
+      }
+      cachedChars += chars(sql, rewritten);
+      Iterator<Map.Entry<String, String>> it = CACHE.entrySet().iterator();
+      while ((CACHE.size() > CACHE_ENTRIES || cachedChars > CACHE_CHARS) && it.hasNext()) {
+        Map.Entry<String, String> eldest = it.next();
+        cachedChars -= chars(eldest.getKey(), eldest.getValue());
+        it.remove();
+      }
+    }
+  }
+
+  // SQL with nothing to rewrite is kept as one string for key and value
+  private static int chars(String sql, String rewritten) {
+    return sql == rewritten ? sql.length() : sql.length() + rewritten.length();
+  }
+
+  static String rewriteUncached(String sql) {
+    sql = unwrapFn(sql);
+    sql = renameFunctions(sql);
+
+    if (indexOfIgnoreCase(sql, " AS DATE)", 0) >= 0) {
+      //Order is important here, do not shuffle without checking
+      sql = QUARTER_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(QUARTER, $1)");
+      sql = YEAR_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(YEAR, $1)");
+      sql = SECOND_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(SECOND, $1)");
+      sql = QUARTER1_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(QUARTER, $1)");
+      sql = MONTH_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(MONTH, $1)");
+      sql = MINUTE_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(MINUTE, $1)");
+      sql = YEAR1_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(YEAR, $1)");
+      sql = WEEK_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(WEEK, $1)");
+    }
+
+    // a rename can expose another one, e.g. DAYOFYEAR(QUARTER(x)), so the
+    // names are rewritten a second time like the regular expressions were
+    return renameFunctions(sql);
+  }
+
+  private static String renameFunctions(String sql) {
+    sql = renameCalls(sql, "QUARTER(", " EXTRACT(QUARTER FROM ");
+    sql = renameCalls(sql, "DAYOFYEAR(", " EXTRACT(DOY FROM ");
+    sql = renameCalls(sql, "DAYOFWEEK(", " EXTRACT(ISODOW FROM ");
+    return renameCalls(sql, "WEEK(", " EXTRACT(WEEK FROM ");
+  }
+
+  /**
+   * Remove every {fn and its closing brace, innermost first. An escape still
+   * containing another brace once its inner escapes are gone is left alone,
+   * as is an escape without a closing brace.
+   */
+  static String unwrapFn(String sql) {
+    int first = indexOfIgnoreCase(sql, "{fn", 0);
+    if (first < 0) {
+      return sql;
+    }
+    StringBuilder sb = new StringBuilder(sql.length());
+    sb.append(sql, 0, first);
+    // open braces: output position, bit 0 set for a {fn, bit 1 once it must be kept
+    int[] open = new int[16];
+    int depth = 0;
+    int n = sql.length();
+    int i = first;
+    while (i < n) {
+      char c = sql.charAt(i);
+      if (c == '{') {
+        if (depth == open.length) {
+          int[] grown = new int[depth * 2];
+          System.arraycopy(open, 0, grown, 0, depth);
+          open = grown;
+        }
+        boolean fn = regionMatchesIgnoreCase(sql, i + 1, "fn");
+        open[depth++] = (sb.length() << 2) | (fn ? 1 : 2);
+        sb.append(sql, i, fn ? i + 3 : i + 1);
+        i += fn ? 3 : 1;
+        continue;
+      }
+      if (c == '}' && depth > 0) {
+        int brace = open[--depth];
+        if ((brace & 3) == 1) {
+          // drop the {fn and this brace, keep what was between them
+          int at = brace >>> 2;
+          sb.delete(at, at + 3);
+        } else {
+          sb.append(c);
+          if (depth > 0) {
+            // the enclosing brace now contains a brace of its own
+            open[depth - 1] |= 2;
+          }
+        }
+        i++;
+        continue;
+      }
+      sb.append(c);
+      i++;
+    }
+    return sb.toString();
+  }
+
+  /**
+   * Replace each name( that follows whitespace with the replacement, which
+   * takes the place of the whitespace too. The replacements end in a space,
+   * so a call directly inside a replaced one is rewritten as well.
+   */
+  static String renameCalls(String sql, String name, String replacement) {
+    int next = indexOfIgnoreCase(sql, name, 1);
+    if (next < 0) {
+      return sql;
+    }
+    StringBuilder sb = null;
+    int copied = 0;
+    while (next >= 0) {
+      if (sb != null && copied == next) {
+        // directly after the previous replacement, which ends in a space
+        sb.setLength(sb.length() - 1);
+        sb.append(replacement);
+        copied = next + name.length();
+      } else if (isSpace(sql.charAt(next - 1))) {
+        if (sb == null) {
+          sb = new StringBuilder(sql.length() + 64);
+        }
+        sb.append(sql, copied, next - 1);
+        sb.append(replacement);
+        copied = next + name.length();
+      }
+      next = indexOfIgnoreCase(sql, name, copied > next ? copied : next + 1);
+    }
+    if (sb == null) {
+      return sql;
+    }
+    sb.append(sql, copied, sql.length());
+    return sb.toString();
+  }
+
+  private static boolean isSpace(char c) {
+    // \s without UNICODE_CHARACTER_CLASS
+    return c == ' ' || c == '\t' || c == '\n' || c == '\013' || c == '\f' || c == '\r';
+  }
+
+  // ASCII only, like CASE_INSENSITIVE without UNICODE_CASE
+  static int indexOfIgnoreCase(String s, String word, int from) {
+    char first = Character.toLowerCase(word.charAt(0));
+    int last = s.length() - word.length();
+    for (int i = Math.max(from, 0); i <= last; i++) {
+      if (lower(s.charAt(i)) == first && regionMatchesIgnoreCase(s, i, word)) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static boolean regionMatchesIgnoreCase(String s, int offset, String word) {
+    if (offset + word.length() > s.length()) {
+      return false;
+    }
+    for (int j = 0; j < word.length(); j++) {
+      if (lower(s.charAt(offset + j)) != Character.toLowerCase(word.charAt(j))) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static char lower(char c) {
+    return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+  }
+}
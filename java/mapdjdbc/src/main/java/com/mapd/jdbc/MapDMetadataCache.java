@@ -0,0 +1,410 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TColumnType;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TTableDetails;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Pattern;
+import org.apache.thrift.TException;
+import org.apache.thrift.transport.TTransport;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Table list and table details for DatabaseMetaData, and the result
+ * columns of described queries, kept for ttl.
+ *
+ * Tools read the metadata of the same tables over and over while a data
+ * source opens, each read costing get_tables and a get_table_details per
+ * table. Here the answers are kept until they are ttl old or invalidate()
+ * is called, which the connection does after DDL. Details that are missing
+ * are fetched in parallel, each prefetch thread using its own transport on
+ * the connection's session. A ttl of 0 keeps nothing but still fetches in
+ * parallel.
+ *
+ * A cache belongs to one connection, or with metadata_cache_shared to every
+ * connection of the same url and user, in which case it fetches through
+ * whichever connection asks.
+ */
+class MapDMetadataCache {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDMetadataCache.class);
+
+  static final long DEFAULT_TTL_MS = 30000;
+  static final int DEFAULT_PREFETCH_THREADS = 4;
+
+  private static final int MAX_PATTERNS = 64;
+  private static final int MAX_DESCRIPTORS = 256;
+
+  private static final ExecutorService PREFETCH = Executors.newCachedThreadPool(new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "mapd-jdbc-metadata-prefetch-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  // guarded by itself
+  private static final Map<String, MapDMetadataCache> SHARED = new HashMap<String, MapDMetadataCache>();
+
+  private final long ttlNanos;
+  private final int prefetchThreads;
+
+  // guarded by this
+  // bumped by invalidate(), answers fetched across a bump are not kept
+  private long generation = 0;
+  private List<String> tables = null;
+  private long tablesLoaded = 0;
+  private final Map<String, Entry> details = new HashMap<String, Entry>();
+  private final Map<String, Descriptor> descriptors = new LinkedHashMap<String, Descriptor>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Descriptor> eldest) {
+      return size() > MAX_DESCRIPTORS;
+    }
+  };
+  private final Map<String, Pattern> patterns = new LinkedHashMap<String, Pattern>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Pattern> eldest) {
+      return size() > MAX_PATTERNS;
+    }
+  };
+
+  private long tableListHits = 0;
+  private long tableListMisses = 0;
+  private long detailHits = 0;
+  private long detailMisses = 0;
+  private long descriptorHits = 0;
+  private long descriptorMisses = 0;
+  private long parallelFetches = 0;
+  private long invalidations = 0;
+
+  MapDMetadataCache(long ttlMs, int prefetchThreads) {
+    this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(ttlMs, 0));
+    this.prefetchThreads = Math.max(prefetchThreads, 1);
+  }
+
+  /**
+   * The cache every connection with the same key shares, created with the
+   * settings of the first of them.
+   */
+  static MapDMetadataCache shared(String key, long ttlMs, int prefetchThreads) {
+    synchronized (SHARED) {
+      MapDMetadataCache cache = SHARED.get(key);
+      if (cache == null) {
+        cache = new MapDMetadataCache(ttlMs, prefetchThreads);
+        SHARED.put(key, cache);
+      }
+      return cache;
+    }
+  }
+
+  List<String> getTables(MapDConnection con) throws SQLException {
+    long startGeneration;
+    synchronized (this) {
+      if (tables != null && fresh(tablesLoaded)) {
+        tableListHits++;
+        return tables;
+      }
+      tableListMisses++;
+      startGeneration = generation;
+    }
+    List<String> loaded;
+    try {
+      synchronized (con.client) {
+        loaded = con.client.get_tables(con.session);
+      }
+    } catch (TException ex) {
+      throw new SQLException("get_tables failed " + ex.toString());
+    }
+    if (ttlNanos > 0) {
+      synchronized (this) {
+        if (generation == startGeneration) {
+          tables = loaded;
+          tablesLoaded = System.nanoTime();
+        }
+      }
+    }
+    return loaded;
+  }
+
+  /**
+   * Details of each of names, in the same order. Those not cached are
+   * fetched, in parallel when there are several.
+   */
+  Map<String, TTableDetails> getTableDetails(MapDConnection con, List<String> names) throws SQLException {
+    Map<String, TTableDetails> result = new LinkedHashMap<String, TTableDetails>();
+    List<String> missing = new ArrayList<String>();
+    long startGeneration;
+    synchronized (this) {
+      startGeneration = generation;
+      for (String name : names) {
+        Entry entry = details.get(name);
+        if (entry != null && fresh(entry.loaded)) {
+          detailHits++;
+          result.put(name, entry.details);
+        } else {
+          detailMisses++;
+          result.put(name, null);
+          missing.add(name);
+        }
+      }
+    }
+    if (missing.isEmpty()) {
+      return result;
+    }
+    Map<String, TTableDetails> fetched;
+    if (missing.size() == 1 || prefetchThreads == 1) {
+      fetched = fetch(con, missing);
+    } else {
+      fetched = fetchParallel(con, missing);
+    }
+    result.putAll(fetched);
+    if (ttlNanos > 0) {
+      long now = System.nanoTime();
+      synchronized (this) {
+        if (generation == startGeneration) {
+          for (Map.Entry<String, TTableDetails> e : fetched.entrySet()) {
+            details.put(e.getKey(), new Entry(e.getValue(), now));
+          }
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The result columns of the query sql, in order, as MapDQueryDescriber
+   * found them. Empty when it found they cannot be told without running the
+   * query, null when sql was not described yet.
+   */
+  synchronized List<TColumnType> getDescriptor(String sql) {
+    Descriptor descriptor = descriptors.get(sql);
+    if (descriptor != null && fresh(descriptor.loaded)) {
+      descriptorHits++;
+      return descriptor.columns;
+    }
+    descriptorMisses++;
+    return null;
+  }
+
+  /**
+   * Kept only when the cache was not invalidated since startGeneration, as
+   * returned by generation() before sql was described.
+   */
+  synchronized void putDescriptor(String sql, List<TColumnType> columns, long startGeneration) {
+    if (ttlNanos > 0 && generation == startGeneration) {
+      descriptors.put(sql, new Descriptor(columns, System.nanoTime()));
+    }
+  }
+
+  synchronized long generation() {
+    return generation;
+  }
+
+  /**
+   * Forget everything, the next reads go to the server.
+   */
+  synchronized void invalidate() {
+    generation++;
+    tables = null;
+    details.clear();
+    descriptors.clear();
+    invalidations++;
+  }
+
+  /**
+   * The regular expression for a LIKE pattern, with % and _ as wildcards and
+   * \ escaping them. Null when the pattern matches every name.
+   */
+  synchronized Pattern pattern(String like) {
+    if (like == null || like.equals("%")) {
+      return null;
+    }
+    Pattern compiled = patterns.get(like);
+    if (compiled == null) {
+      compiled = Pattern.compile(toRegex(like), Pattern.DOTALL);
+      patterns.put(like, compiled);
+    }
+    return compiled;
+  }
+
+  static String toRegex(String like) {
+    StringBuilder sb = new StringBuilder(like.length() + 8);
+    for (int i = 0; i < like.length(); i++) {
+      char c = like.charAt(i);
+      if (c == '%') {
+        sb.append(".*");
+      } else if (c == '_') {
+        sb.append('.');
+      } else {
+        if (c == '\\' && i + 1 < like.length()) {
+          c = like.charAt(++i);
+        }
+        if ("\\.[]{}()*+?^$|".indexOf(c) >= 0) {
+          sb.append('\\');
+        }
+        sb.append(c);
+      }
+    }
+    return sb.toString();
+  }
+
+  synchronized Map<String, Long> getStats() {
+    Map<String, Long> stats = new LinkedHashMap<String, Long>();
+    stats.put("tables_cached", (long) details.size());
+    stats.put("table_list_hits", tableListHits);
+    stats.put("table_list_misses", tableListMisses);
+    stats.put("table_details_hits", detailHits);
+    stats.put("table_details_misses", detailMisses);
+    stats.put("descriptor_hits", descriptorHits);
+    stats.put("descriptor_misses", descriptorMisses);
+    stats.put("parallel_fetches", parallelFetches);
+    stats.put("invalidations", invalidations);
+    return stats;
+  }
+
+  @Override
+  public String toString() {
+    return "MapDMetadataCache" + getStats();
+  }
+
+  // caller holds the lock
+  private boolean fresh(long loaded) {
+    return ttlNanos > 0 && System.nanoTime() - loaded < ttlNanos;
+  }
+
+  private static Map<String, TTableDetails> fetch(MapDConnection con, List<String> names) throws SQLException {
+    Map<String, TTableDetails> fetched = new HashMap<String, TTableDetails>();
+    try {
+      for (String name : names) {
+        synchronized (con.client) {
+          fetched.put(name, con.client.get_table_details(con.session, name));
+        }
+      }
+    } catch (TMapDException ex) {
+      throw new SQLException("get_table_details failed " + ex.getError_msg());
+    } catch (TException ex) {
+      throw new SQLException("get_table_details failed " + ex.toString());
+    }
+    return fetched;
+  }
+
+  private Map<String, TTableDetails> fetchParallel(final MapDConnection con, List<String> names)
+          throws SQLException {
+    int threads = Math.min(prefetchThreads, names.size());
+    synchronized (this) {
+      parallelFetches++;
+    }
+    List<Future<Map<String, TTableDetails>>> parts = new ArrayList<Future<Map<String, TTableDetails>>>(threads);
+    for (int t = 0; t < threads; t++) {
+      // every thread takes every threads-th name so large and small tables spread evenly
+      final List<String> part = new ArrayList<String>();
+      for (int i = t; i < names.size(); i += threads) {
+        part.add(names.get(i));
+      }
+      parts.add(PREFETCH.submit(new Callable<Map<String, TTableDetails>>() {
+        @Override
+        public Map<String, TTableDetails> call() throws SQLException {
+          return fetchOnSide(con, part);
+        }
+      }));
+    }
+    Map<String, TTableDetails> fetched = new HashMap<String, TTableDetails>();
+    SQLException failure = null;
+    for (Future<Map<String, TTableDetails>> part : parts) {
+      try {
+        fetched.putAll(part.get());
+      } catch (ExecutionException ex) {
+        if (failure == null) {
+          failure = ex.getCause() instanceof SQLException ? (SQLException) ex.getCause()
+                  : new SQLException("get_table_details failed " + ex.getCause());
+        }
+      } catch (InterruptedException ex) {
+        Thread.currentThread().interrupt();
+        throw new SQLException("Interrupted fetching table details");
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+    return fetched;
+  }
+
+  private static Map<String, TTableDetails> fetchOnSide(MapDConnection con, List<String> names)
+          throws SQLException {
+    Map<String, TTableDetails> fetched = new HashMap<String, TTableDetails>();
+    TTransport side = null;
+    try {
+      side = con.openSideTransport();
+      MapD.Client client = con.sideClient(side);
+      for (String name : names) {
+        fetched.put(name, client.get_table_details(con.session, name));
+      }
+    } catch (TMapDException ex) {
+      throw new SQLException("get_table_details failed " + ex.getError_msg());
+    } catch (TException ex) {
+      throw new SQLException("get_table_details failed " + ex.toString());
+    } finally {
+      if (side != null) {
+        side.close();
+      }
+    }
+    return fetched;
+  }
+
+  private static final class Entry {
+
+    private final TTableDetails details;
+    private final long loaded;
+
+    private Entry(TTableDetails details, long loaded) {
+      this.details = details;
+      this.loaded = loaded;
+    }
+  }
+
+  private static final class Descriptor {
+
+    private final List<TColumnType> columns;
+    private final long loaded;
+
+    private Descriptor(List<TColumnType> columns, long loaded) {
+      this.columns = columns;
+      this.loaded = loaded;
+    }
+  }
+}
@@ -0,0 +1,256 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import javax.sql.ConnectionEvent;
+import javax.sql.ConnectionEventListener;
+import javax.sql.PooledConnection;
+import javax.sql.StatementEventListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * A logged in MapDConnection handed out by a pool.
+ *
+ * getConnection returns a handle that delegates to the connection. Closing
+ * the handle flushes any write behind rows and tells the listeners, which
+ * put the connection back in the pool, instead of ending the session. A
+ * transport failure seen through the handle is reported as a connection
+ * error so the pool drops the connection.
+ *
+ * Statements made through a handle are wrapped too and fail once the handle
+ * is closed, so a borrower that kept one can neither run nor cancel queries
+ * on the session of the next borrower. The wrapped statements only offer the
+ * java.sql interfaces, unwrap does not reach the MapDStatement behind them.
+ */
+class MapDPooledConnection implements PooledConnection {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDPooledConnection.class);
+
+  private final MapDConnection physical;
+  private final List<ConnectionEventListener> listeners = new CopyOnWriteArrayList<ConnectionEventListener>();
+  private Handle handle;
+  // System.nanoTime() when last handed out or returned
+  volatile long lastUsed = System.nanoTime();
+
+  MapDPooledConnection(MapDConnection physical) {
+    this.physical = physical;
+  }
+
+  MapDConnection getPhysical() {
+    return physical;
+  }
+
+  @Override
+  public synchronized Connection getConnection() throws SQLException {
+    if (physical.isClosed()) {
+      throw new SQLException("Pooled connection is closed");
+    }
+    if (handle != null) {
+      // only the latest handle may use the connection
+      handle.closed = true;
+    }
+    handle = new Handle();
+    return handle.proxy;
+  }
+
+  @Override
+  public void close() throws SQLException {
+    synchronized (this) {
+      if (handle != null) {
+        handle.closed = true;
+        handle = null;
+      }
+    }
+    if (!physical.isClosed()) {
+      physical.close();
+    }
+  }
+
+  @Override
+  public void addConnectionEventListener(ConnectionEventListener listener) {
+    listeners.add(listener);
+  }
+
+  @Override
+  public void removeConnectionEventListener(ConnectionEventListener listener) {
+    listeners.remove(listener);
+  }
+
+  @Override
+  public void addStatementEventListener(StatementEventListener listener) {
+    // statements are not pooled
+  }
+
+  @Override
+  public void removeStatementEventListener(StatementEventListener listener) {
+  }
+
+  private void fireClosed() {
+    ConnectionEvent event = new ConnectionEvent(this);
+    for (ConnectionEventListener listener : listeners) {
+      listener.connectionClosed(event);
+    }
+  }
+
+  private void fireError(SQLException ex) {
+    ConnectionEvent event = new ConnectionEvent(this, ex);
+    for (ConnectionEventListener listener : listeners) {
+      listener.connectionErrorOccurred(event);
+    }
+  }
+
+  /**
+   * The driver reports thrift failures in the message text, a transport
+   * exception means the socket or http session is gone.
+   */
+  static boolean isFatal(SQLException ex) {
+    return ex.getMessage() != null && ex.getMessage().contains("TTransportException");
+  }
+
+  private class Handle implements InvocationHandler {
+
+    private volatile boolean closed = false;
+    private final Connection proxy = (Connection) Proxy.newProxyInstance(
+            MapDPooledConnection.class.getClassLoader(), new Class<?>[] {Connection.class}, this);
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      if (name.equals("close") && method.getParameterTypes().length == 0) {
+        if (!closed) {
+          closed = true;
+          try {
+            // nothing may stay buffered for the next borrower
+            physical.commit();
+          } catch (SQLException ex) {
+            fireError(ex);
+            throw ex;
+          }
+          lastUsed = System.nanoTime();
+          fireClosed();
+        }
+        return null;
+      }
+      if (name.equals("isClosed") && method.getParameterTypes().length == 0) {
+        return closed || physical.isClosed();
+      }
+      if (name.equals("equals") && method.getParameterTypes().length == 1) {
+        return proxy == args[0];
+      }
+      if (name.equals("hashCode") && method.getParameterTypes().length == 0) {
+        return System.identityHashCode(proxy);
+      }
+      if (name.equals("toString") && method.getParameterTypes().length == 0) {
+        return "MapDPooledConnection handle" + (closed ? " (closed)" : "") + " on session " + physical.session;
+      }
+      if (closed) {
+        throw new SQLException("Connection is closed");
+      }
+      Object result = delegate(physical, method, args);
+      if (result instanceof Statement) {
+        Class<?> type = method.getReturnType();
+        return Proxy.newProxyInstance(MapDPooledConnection.class.getClassLoader(), new Class<?>[] {type},
+                new StatementHandle(this, (Statement) result));
+      }
+      return result;
+    }
+
+    private Object delegate(Object target, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      } catch (InvocationTargetException ex) {
+        Throwable cause = ex.getCause();
+        if (cause instanceof SQLException && isFatal((SQLException) cause)) {
+          logger.warn("Pooled connection failed: " + cause.getMessage());
+          closed = true;
+          fireError((SQLException) cause);
+        }
+        throw cause;
+      }
+    }
+  }
+
+  /**
+   * A statement made through a handle, usable until it or the handle is
+   * closed.
+   */
+  private static class StatementHandle implements InvocationHandler {
+
+    private final Handle handle;
+    private final Statement statement;
+    private volatile boolean closed = false;
+
+    private StatementHandle(Handle handle, Statement statement) {
+      this.handle = handle;
+      this.statement = statement;
+    }
+
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+      String name = method.getName();
+      int parameters = method.getParameterTypes().length;
+      if (name.equals("close") && parameters == 0) {
+        if (!closed) {
+          closed = true;
+          if (!handle.closed) {
+            handle.delegate(statement, method, args);
+          }
+        }
+        return null;
+      }
+      if (name.equals("isClosed") && parameters == 0) {
+        return closed || handle.closed;
+      }
+      if (name.equals("equals") && parameters == 1) {
+        return proxy == args[0];
+      }
+      if (name.equals("hashCode") && parameters == 0) {
+        return System.identityHashCode(proxy);
+      }
+      if (name.equals("toString") && parameters == 0) {
+        return "MapDPooledConnection statement" + (closed || handle.closed ? " (closed)" : "");
+      }
+      if (name.equals("isWrapperFor") && parameters == 1) {
+        return ((Class<?>) args[0]).isInstance(proxy);
+      }
+      if (name.equals("unwrap") && parameters == 1) {
+        if (((Class<?>) args[0]).isInstance(proxy)) {
+          return proxy;
+        }
+        throw new SQLException("Pooled statement does not wrap " + ((Class<?>) args[0]).getName());
+      }
+      if (closed || handle.closed) {
+        throw new SQLException("Statement is closed");
+      }
+      if (name.equals("getConnection") && parameters == 0) {
+        return handle.proxy;
+      }
+      return handle.delegate(statement, method, args);
+    }
+  }
+}
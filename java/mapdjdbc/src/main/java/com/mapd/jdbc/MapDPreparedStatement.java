@@ -17,6 +17,11 @@
 package com.mapd.jdbc;
 
 import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TColumnType;
+import com.mapd.thrift.server.TDatum;
+import com.mapd.thrift.server.TDatumType;
+import com.mapd.thrift.server.TQueryResult;
+import com.mapd.thrift.server.TRow;
 import com.mapd.thrift.server.TStringRow;
 import com.mapd.thrift.server.TStringValue;
 import com.mapd.thrift.server.TMapDException;
@@ -42,6 +47,8 @@ import java.sql.SQLXML;
 import java.sql.Time;
 import java.sql.Timestamp;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Calendar;
 import java.util.List;
 import java.util.regex.Matcher;
@@ -61,32 +68,55 @@ class MapDPreparedStatement implements PreparedStatement {
   private String currentSQL;
   private String insertTableName;
   private int parmCount = 0;
-  private String brokenSQL[];
-  private String parmRep[];
-  private int repCount;
+  private MapDSqlTemplate template;
+  private Object parmValue[];
+  private BitSet parmSet;
   private String session;
   private MapD.Client client;
-  private MapDStatement stmt = null;
-  private StringBuffer modQuery;
+  // read by cancel() from other threads
+  private volatile MapDStatement stmt = null;
   private boolean isInsert = false;
   private boolean isNewBatch = true;
   private boolean isParmString[] = null;
   private List<TStringRow> rows = null;
+  // typed rows for load_table_binary, used when the table's row descriptor
+  // lines up with the parameters
+  private List<TRow> binaryRows = null;
+  private List<TColumnType> rowDesc = null;
+  private int batchFlushRows;
+  private int batchCount = 0;
   private String warnings = null;
+  private int fetchSize = 0;
+  private int queryTimeout = 0;
+  // set when the connection buffers batches, see MapDWriteBehind
+  private MapDWriteBehind writeBehind = null;
+  private MapDConnection connection;
   private static final Pattern REGEX_PATTERN = Pattern.compile(" INTO (\\w+)");
 
+  static final int DEFAULT_BATCH_FLUSH_ROWS = 50000;
+
   MapDPreparedStatement(String sql, String session, MapD.Client client) {
+    this(sql, session, client, DEFAULT_BATCH_FLUSH_ROWS);
+  }
+
+  MapDPreparedStatement(String sql, String session, MapD.Client client, int batchFlushRows) {
+    this(sql, session, client, batchFlushRows, null, null);
+  }
+
+  MapDPreparedStatement(String sql, String session, MapD.Client client, int batchFlushRows,
+          MapDWriteBehind writeBehind, MapDConnection connection) {
     currentSQL = sql;
+    this.batchFlushRows = batchFlushRows;
+    this.writeBehind = writeBehind;
+    this.connection = connection;
     this.client = client;
     this.session = session;
     MAPDLOGGER.debug("Prepared statement is " + currentSQL);
-    //TODO in real life this needs to check if the ? isinside quotes before we assume it a parameter
-    brokenSQL = currentSQL.split("\\?");
-    parmCount = brokenSQL.length - 1;
-    parmRep = new String[parmCount];
+    template = MapDSqlTemplate.compile(currentSQL);
+    parmCount = template.getParameterCount();
+    parmValue = new Object[parmCount];
     isParmString = new boolean[parmCount];
-    repCount = 0;
-    modQuery = new StringBuffer(currentSQL.length() * 5);
+    parmSet = new BitSet(parmCount);
     if (currentSQL.toUpperCase().contains("INSERT ")) {
       isInsert = true;
       Matcher matcher = REGEX_PATTERN.matcher(currentSQL);
@@ -98,38 +128,33 @@ class MapDPreparedStatement implements PreparedStatement {
   }
 
   private String getQuery() {
-    String qsql;
     //put string together if required
-    if (parmCount > 0) {
-      if (repCount != parmCount) {
-        throw new UnsupportedOperationException("Incorrect number of replace parameters for prepared statement "
-                + currentSQL + " has only " + repCount + " parameters");
-      }
-      for (int i = 0; i < repCount; i++) {
-        modQuery.append(brokenSQL[i]);
-        if (isParmString[i]) {
-          modQuery.append("'").append(parmRep[i]).append("'");
-        } else {
-          modQuery.append(parmRep[i]);
-        }
-      }
-      modQuery.append(brokenSQL[parmCount]);
-      qsql = modQuery.toString();
-    } else {
-      qsql = currentSQL;
+    if (parmSet.cardinality() != parmCount) {
+      throw new UnsupportedOperationException("Incorrect number of replace parameters for prepared statement "
+              + currentSQL + " has only " + parmSet.cardinality() + " parameters");
     }
-
-    qsql = qsql.replace(" WHERE 1=0", " LIMIT 1 ");
+    String qsql = template.render(parmValue, isParmString);
     MAPDLOGGER.debug("Query is now " + qsql);
     return qsql;
   }
 
+  // a probe that could not be described runs with one row rather than none
+  private static String limitProbe(String qsql) {
+    return qsql.replace(" WHERE 1=0", " LIMIT 1 ");
+  }
+
   @Override
   public ResultSet executeQuery() throws SQLException { //logger.debug("Entered");
     if (isNewBatch) {
       String qsql = getQuery();
-      stmt = new MapDStatement(session, client);
-      return stmt.executeQuery(qsql);
+      stmt = new MapDStatement(session, client, connection);
+      stmt.setFetchSize(fetchSize);
+      stmt.setQueryTimeout(queryTimeout);
+      ResultSet described = stmt.describeProbe(qsql);
+      if (described != null) {
+        return described;
+      }
+      return stmt.executeQuery(limitProbe(qsql));
     }
     throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
             getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
@@ -145,16 +170,12 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void setNull(int parameterIndex, int sqlType) throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    bind(parameterIndex, null, false);
   }
 
   @Override
   public void setBoolean(int parameterIndex, boolean x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x ? "t" : "f";
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x, true);
   }
 
   @Override
@@ -166,45 +187,37 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void setShort(int parameterIndex, short x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Short.toString(x);
-    repCount++;
+    bind(parameterIndex, x, false);
   }
 
   @Override
   public void setInt(int parameterIndex, int x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Integer.toString(x);
-    repCount++;
+    bind(parameterIndex, x, false);
   }
 
   @Override
   public void setLong(int parameterIndex, long x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Long.toString(x);
-    repCount++;
+    bind(parameterIndex, x, false);
   }
 
   @Override
   public void setFloat(int parameterIndex, float x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Float.toString(x);
-    repCount++;
+    bind(parameterIndex, x, false);
   }
 
   @Override
   public void setDouble(int parameterIndex, double x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = Double.toString(x);
-    repCount++;
+    bind(parameterIndex, x, false);
   }
 
   @Override
   public void setBigDecimal(int parameterIndex, BigDecimal x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x.toString();
-    repCount++;
+    bind(parameterIndex, x, false);
   }
 
   @Override
   public void setString(int parameterIndex, String x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x;
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x, true);
   }
 
   @Override
@@ -216,23 +229,17 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void setDate(int parameterIndex, Date x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x.toString();
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x, true);
   }
 
   @Override
   public void setTime(int parameterIndex, Time x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x.toString();
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x, true);
   }
 
   @Override
   public void setTimestamp(int parameterIndex, Timestamp x) throws SQLException { //logger.debug("Entered");
-    parmRep[parameterIndex - 1] = x.toString(); //new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(x);
-    isParmString[parameterIndex - 1] = true;
-    repCount++;
+    bind(parameterIndex, x, true);
   }
 
   @Override
@@ -258,7 +265,15 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void clearParameters() throws SQLException { //logger.debug("Entered");
-    //TODO MAT we will actually need to do something here one day
+    Arrays.fill(parmValue, null);
+    Arrays.fill(isParmString, false);
+    parmSet.clear();
+  }
+
+  private void bind(int parameterIndex, Object x, boolean quoted) {
+    parmValue[parameterIndex - 1] = x;
+    isParmString[parameterIndex - 1] = quoted;
+    parmSet.set(parameterIndex - 1);
   }
 
   @Override
@@ -278,8 +293,12 @@ class MapDPreparedStatement implements PreparedStatement {
   @Override
   public boolean execute() throws SQLException { //logger.debug("Entered");
     String tQuery = getQuery();
-    stmt = new MapDStatement(session, client);
-    return stmt.execute(tQuery);
+    stmt = new MapDStatement(session, client, connection);
+    stmt.setQueryTimeout(queryTimeout);
+    if (stmt.describeProbe(tQuery) != null) {
+      return true;
+    }
+    return stmt.execute(limitProbe(tQuery));
   }
 
   @Override
@@ -287,24 +306,44 @@ class MapDPreparedStatement implements PreparedStatement {
     if (isInsert) {
       // take the values and use stream inserter to add them
       if (isNewBatch) {
-        rows = new ArrayList(5000);
+        rowDesc = fetchRowDescriptor();
+        if (rowDesc != null) {
+          binaryRows = new ArrayList<TRow>(5000);
+        } else {
+          rows = new ArrayList(5000);
+        }
         isNewBatch = false;
       }
       // add data to stream
 
-      TStringRow tsr = new TStringRow();
-      for (int i = 0; i < parmCount; i++) {
-        // place string in rows array
-        TStringValue tsv = new TStringValue();
-        tsv.str_val = this.parmRep[i];
-        if (parmRep[i].length() == 0) {
-          tsv.is_null = true;
-        } else {
-          tsv.is_null = false;
+      if (binaryRows != null) {
+        TRow row = new TRow();
+        List<TDatum> cols = new ArrayList<TDatum>(parmCount);
+        for (int i = 0; i < parmCount; i++) {
+          cols.add(MapDDatum.toDatum(parmValue[i], rowDesc.get(i).col_type));
+        }
+        row.setCols(cols);
+        binaryRows.add(row);
+      } else {
+        TStringRow tsr = new TStringRow();
+        for (int i = 0; i < parmCount; i++) {
+          // place string in rows array
+          TStringValue tsv = new TStringValue();
+          if (parmValue[i] == null) {
+            tsv.str_val = "";
+            tsv.is_null = true;
+          } else {
+            tsv.str_val = MapDDatum.toText(parmValue[i]);
+            tsv.is_null = tsv.str_val.length() == 0;
+          }
+          tsr.addToCols(tsv);
         }
-        tsr.addToCols(tsv);
+        rows.add(tsr);
+      }
+      batchCount++;
+      if (batchFlushRows > 0 && pendingRows() >= batchFlushRows) {
+        flushBatch();
       }
-      rows.add(tsr);
     } else {
       throw new UnsupportedOperationException("addBatch only supported for insert, line:" + new Throwable().
               getStackTrace()[0].getLineNumber());
@@ -348,9 +387,16 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public ResultSetMetaData getMetaData() throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    // described, not run, parameters not set yet count as NULL
+    if (connection == null || isInsert) {
+      return null;
+    }
+    String qsql = MapDStatement.fnReplace(template.render(parmValue, isParmString));
+    TQueryResult described = MapDQueryDescriber.describe(connection, qsql);
+    if (described == null) {
+      return null;
+    }
+    return new MapDResultSetMetaData(described, currentSQL);
   }
 
   @Override
@@ -544,6 +590,10 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void close() throws SQLException { //logger.debug("Entered");
+    if (writeBehind != null && !isNewBatch) {
+      // make sure the batches this statement executed have been loaded
+      writeBehind.flush();
+    }
     if (stmt != null) {
       //TODO MAT probably more needed here
       stmt.close();
@@ -587,23 +637,23 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public int getQueryTimeout() throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    return queryTimeout;
   }
 
   @Override
   public void setQueryTimeout(int seconds) throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    if (seconds < 0) {
+      throw new SQLException("Query timeout must not be negative - " + seconds);
+    }
+    queryTimeout = seconds;
   }
 
   @Override
   public void cancel() throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    MapDStatement running = stmt;
+    if (running != null) {
+      running.cancel();
+    }
   }
 
   @Override
@@ -666,14 +716,15 @@ class MapDPreparedStatement implements PreparedStatement {
 
   @Override
   public void setFetchSize(int rows) throws SQLException { //logger.debug("Entered");
-    //TODO we need to chnage the model to allow smaller select chunks at the moment you get everything
+    if (rows < 0) {
+      throw new SQLException("Fetch size must not be negative, was " + rows);
+    }
+    fetchSize = rows;
   }
 
   @Override
   public int getFetchSize() throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    return fetchSize;
   }
 
   @Override
@@ -707,19 +758,85 @@ class MapDPreparedStatement implements PreparedStatement {
   @Override
   public int[] executeBatch() throws SQLException { //logger.debug("Entered");
     int ret[] = null;
-    if (rows != null) {
-      try {
-        // send the batch
-        client.load_table(session, insertTableName, rows);
-      } catch (TMapDException ex) {
-        throw new SQLException("addBatch failed : " + ex.getError_msg());
-      } catch (TException ex) {
-        throw new SQLException("addBatch failed : " + ex.toString());
+    if (rows != null || binaryRows != null) {
+      flushBatch();
+      ret = new int[batchCount];
+      batchCount = 0;
+    }
+    return ret;
+  }
+
+  private int pendingRows() {
+    return binaryRows != null ? binaryRows.size() : rows.size();
+  }
+
+  // send the rows added so far, executeBatch and every batchFlushRows rows
+  private void flushBatch() throws SQLException {
+    if (pendingRows() == 0) {
+      return;
+    }
+    if (writeBehind != null) {
+      // the buffer takes ownership of the lists
+      if (binaryRows != null) {
+        writeBehind.enqueue(insertTableName, binaryRows, null);
+        binaryRows = new ArrayList<TRow>(5000);
+      } else {
+        writeBehind.enqueue(insertTableName, null, rows);
+        rows = new ArrayList<TStringRow>(5000);
       }
-      ret = new int[rows.size()];
+      return;
+    }
+    try {
+      // send the batch
+      synchronized (client) {
+        if (binaryRows != null) {
+          client.load_table_binary(session, insertTableName, binaryRows);
+        } else {
+          client.load_table(session, insertTableName, rows);
+        }
+      }
+    } catch (TMapDException ex) {
+      throw new SQLException("addBatch failed : " + ex.getError_msg());
+    } catch (TException ex) {
+      throw new SQLException("addBatch failed : " + ex.toString());
+    }
+    if (binaryRows != null) {
+      binaryRows.clear();
+    } else {
       rows.clear();
     }
-    return ret;
+  }
+
+  /**
+   * The insert table's row descriptor, fetched once per statement, or null
+   * when the parameters cannot be sent as typed values and the batch has to go
+   * through load_table as text.
+   */
+  private List<TColumnType> fetchRowDescriptor() {
+    if (insertTableName == null) {
+      return null;
+    }
+    List<TColumnType> desc;
+    try {
+      synchronized (client) {
+        desc = client.get_row_descriptor(session, insertTableName);
+      }
+    } catch (TException ex) {
+      MAPDLOGGER.warn("Could not get row descriptor for " + insertTableName + ", inserting as text: " + ex.toString());
+      return null;
+    }
+    if (desc == null || desc.size() != parmCount) {
+      MAPDLOGGER.debug("Parameters do not match the columns of " + insertTableName + ", inserting as text");
+      return null;
+    }
+    for (TColumnType col : desc) {
+      if (col.col_type.is_array || col.col_type.type == TDatumType.INTERVAL_DAY_TIME
+              || col.col_type.type == TDatumType.INTERVAL_YEAR_MONTH) {
+        MAPDLOGGER.debug("Column " + col.col_name + " cannot be sent typed, inserting as text");
+        return null;
+      }
+    }
+    return desc;
   }
 
   @Override
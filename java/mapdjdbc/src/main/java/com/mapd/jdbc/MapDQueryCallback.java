@@ -0,0 +1,36 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Told the outcome of a query started with MapDStatement.executeQueryAsync.
+ * Called on the connection's async thread, so it should hand long work off
+ * rather than hold up the queries queued behind it.
+ */
+public interface MapDQueryCallback {
+
+  void onSuccess(ResultSet rs);
+
+  /**
+   * The query failed or was cancelled.
+   */
+  void onFailure(SQLException ex);
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.TColumn;
+import com.mapd.thrift.server.TColumnType;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TQueryResult;
+import com.mapd.thrift.server.TRow;
+import com.mapd.thrift.server.TRowSet;
+import com.mapd.thrift.server.TTableDetails;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Result columns of a query from sql_validate, without running the query.
+ *
+ * sql_validate returns the columns keyed by name, which loses their order.
+ * The order is taken from the select list instead, matching each item's
+ * alias or column name, or for SELECT * from a single table from the
+ * table's details. When that does not account for every column exactly once
+ * the query is reported as not describable and callers run it as before.
+ * Answers, either way, are kept in the connection's metadata cache.
+ */
+class MapDQueryDescriber {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDQueryDescriber.class);
+
+  // the clause tools append to learn a query's columns without its rows
+  private static final Pattern PROBE = Pattern.compile(
+          "\\s+(WHERE\\s+(1\\s*=\\s*0|0\\s*=\\s*1|FALSE)|LIMIT\\s+0)\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+  private static final String IDENTIFIER = "(\"[^\"]+\"|[A-Za-z_][A-Za-z0-9_$]*)";
+  private static final Pattern ALIAS = Pattern.compile("(?s).*\\sAS\\s+" + IDENTIFIER, Pattern.CASE_INSENSITIVE);
+  private static final Pattern COLUMN = Pattern.compile("(?:" + IDENTIFIER + "\\.)*" + IDENTIFIER);
+  private static final Pattern IMPLICIT_ALIAS = Pattern.compile("(?s).*[A-Za-z0-9_$)\"']\\s+" + IDENTIFIER);
+  private static final Pattern SINGLE_TABLE = Pattern.compile(
+          "\\s*" + IDENTIFIER + "\\s*(;|(WHERE|LIMIT|ORDER)\\s.*)?\\s*", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+
+  private MapDQueryDescriber() {
+  }
+
+  static boolean isProbe(String sql) {
+    return probeStart(sql) >= 0;
+  }
+
+  /**
+   * Where the probe clause of sql starts, or -1 when it has none. A trailing
+   * WHERE only filters the last SELECT of a UNION, INTERSECT, EXCEPT or
+   * MINUS, so such a query is no probe. A trailing LIMIT 0 applies to the
+   * whole query and is.
+   */
+  static int probeStart(String sql) {
+    Matcher probe = PROBE.matcher(sql);
+    if (!probe.find()) {
+      return -1;
+    }
+    if (probe.group(2) != null && hasTopLevelSetOperator(sql.substring(0, probe.start()))) {
+      return -1;
+    }
+    return probe.start();
+  }
+
+  /**
+   * Looks for UNION, INTERSECT, EXCEPT or MINUS outside of parentheses,
+   * quotes and comments.
+   */
+  static boolean hasTopLevelSetOperator(String sql) {
+    int depth = 0;
+    int n = sql.length();
+    for (int i = 0; i < n; i++) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"') {
+        int end = sql.indexOf(c, i + 1);
+        i = end < 0 ? n : end;
+      } else if (sql.startsWith("--", i)) {
+        int end = sql.indexOf('\n', i);
+        i = end < 0 ? n : end;
+      } else if (sql.startsWith("/*", i)) {
+        int end = sql.indexOf("*/", i + 2);
+        i = end < 0 ? n : end + 1;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (depth == 0 && (i == 0 || !isWordChar(sql.charAt(i - 1)))
+              && (keywordAt(sql, i, "UNION") || keywordAt(sql, i, "INTERSECT") || keywordAt(sql, i, "EXCEPT")
+              || keywordAt(sql, i, "MINUS"))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * An empty result with the columns of sql, which may end in a probe
+   * clause, or null when they cannot be told without running it.
+   */
+  static TQueryResult describe(MapDConnection con, String sql) throws SQLException {
+    int probe = probeStart(sql);
+    String query = probe >= 0 ? sql.substring(0, probe) : sql;
+    MapDMetadataCache cache = con.metadataCache();
+    long generation = cache.generation();
+    List<TColumnType> columns = cache.getDescriptor(query);
+    if (columns == null) {
+      Map<String, TColumnType> validated;
+      try {
+        synchronized (con.client) {
+          validated = con.client.sql_validate(con.session, query + ";");
+        }
+      } catch (TMapDException ex) {
+        // running the query reports the problem properly
+        logger.debug("sql_validate failed, query will be run : " + ex.getError_msg());
+        validated = null;
+      } catch (TException ex) {
+        throw new SQLException("Query failed : " + ex.toString());
+      }
+      columns = validated == null ? null : order(con, query, validated);
+      if (columns == null) {
+        columns = Collections.emptyList();
+      }
+      cache.putDescriptor(query, columns, generation);
+    }
+    if (columns.isEmpty()) {
+      return null;
+    }
+    List<TColumn> data = new ArrayList<TColumn>(columns.size());
+    TRowSet rowSet = new TRowSet(new ArrayList<TColumnType>(columns), new ArrayList<TRow>(), data, true);
+    return new TQueryResult(rowSet, 0, 0, null);
+  }
+
+  /**
+   * The validated columns in select list order, null when that order is
+   * not certain.
+   */
+  static List<TColumnType> order(MapDConnection con, String query, Map<String, TColumnType> validated) {
+    List<String> items = new ArrayList<String>();
+    int from = selectList(query, items);
+    if (items.isEmpty()) {
+      return null;
+    }
+    // validated is keyed by name, so only a single item is sure to be a single column
+    if (items.size() == 1 && !items.get(0).endsWith("*") && validated.size() == 1) {
+      return new ArrayList<TColumnType>(validated.values());
+    }
+    List<String> names = new ArrayList<String>(items.size());
+    if (items.size() == 1 && items.get(0).equals("*")) {
+      Matcher table = SINGLE_TABLE.matcher(from < 0 ? "" : query.substring(from + 4));
+      if (!table.matches()) {
+        return null;
+      }
+      TTableDetails details;
+      try {
+        details = con.metadataCache().getTableDetails(con,
+                Collections.singletonList(unquote(table.group(1)))).values().iterator().next();
+      } catch (SQLException ex) {
+        logger.debug("No details for " + table.group(1) + " : " + ex.getMessage());
+        return null;
+      }
+      for (TColumnType column : details.row_desc) {
+        names.add(column.col_name);
+      }
+    } else {
+      for (String item : items) {
+        String name = outputName(item);
+        if (name == null) {
+          return null;
+        }
+        names.add(name);
+      }
+    }
+    return match(names, validated);
+  }
+
+  private static List<TColumnType> match(List<String> names, Map<String, TColumnType> validated) {
+    if (names.size() != validated.size()) {
+      return null;
+    }
+    // unquoted names may come back in another case
+    Map<String, String> folded = new HashMap<String, String>();
+    for (String key : validated.keySet()) {
+      String lower = key.toLowerCase();
+      folded.put(lower, folded.containsKey(lower) ? null : key);
+    }
+    List<TColumnType> ordered = new ArrayList<TColumnType>(names.size());
+    Set<String> used = new HashSet<String>();
+    for (String name : names) {
+      String key = validated.containsKey(name) ? name : folded.get(name.toLowerCase());
+      if (key == null || !used.add(key)) {
+        return null;
+      }
+      ordered.add(validated.get(key));
+    }
+    return ordered;
+  }
+
+  /**
+   * Split the select list of query into items, returning where the top
+   * level FROM starts or -1. Items stay empty for anything but a plain
+   * SELECT.
+   */
+  static int selectList(String query, List<String> items) {
+    int n = query.length();
+    int i = skipSpace(query, 0);
+    if (!keywordAt(query, i, "SELECT")) {
+      return -1;
+    }
+    i = skipSpace(query, i + 6);
+    if (keywordAt(query, i, "DISTINCT")) {
+      i += 8;
+    } else if (keywordAt(query, i, "ALL")) {
+      i += 3;
+    }
+    int start = i;
+    int depth = 0;
+    while (i < n) {
+      char c = query.charAt(i);
+      if (c == '\'' || c == '"') {
+        i = query.indexOf(c, i + 1);
+        if (i < 0) {
+          items.clear();
+          return -1;
+        }
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (depth == 0 && c == ',') {
+        items.add(query.substring(start, i).trim());
+        start = i + 1;
+      } else if (depth == 0 && keywordAt(query, i, "FROM") && Character.isWhitespace(query.charAt(i - 1))) {
+        items.add(query.substring(start, i).trim());
+        return i;
+      }
+      i++;
+    }
+    items.add(query.substring(start).trim());
+    return -1;
+  }
+
+  /**
+   * The name a select list item gets in the result, its alias or its
+   * column, or null for an expression without an alias.
+   */
+  static String outputName(String item) {
+    Matcher m = ALIAS.matcher(item);
+    if (m.matches()) {
+      return unquote(m.group(1));
+    }
+    m = COLUMN.matcher(item);
+    if (m.matches()) {
+      return unquote(m.group(2));
+    }
+    m = IMPLICIT_ALIAS.matcher(item);
+    if (m.matches()) {
+      return unquote(m.group(1));
+    }
+    return null;
+  }
+
+  private static String unquote(String identifier) {
+    if (identifier.length() > 1 && identifier.charAt(0) == '"') {
+      return identifier.substring(1, identifier.length() - 1);
+    }
+    return identifier;
+  }
+
+  private static int skipSpace(String s, int i) {
+    while (i < s.length() && Character.isWhitespace(s.charAt(i))) {
+      i++;
+    }
+    return i;
+  }
+
+  private static boolean keywordAt(String s, int i, String keyword) {
+    int end = i + keyword.length();
+    return s.regionMatches(true, i, keyword, 0, keyword.length())
+            && (end == s.length() || !isWordChar(s.charAt(end)));
+  }
+
+  private static boolean isWordChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_';
+  }
+}
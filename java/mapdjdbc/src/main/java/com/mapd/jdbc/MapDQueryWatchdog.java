@@ -0,0 +1,80 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Enforces statement query timeouts for every connection of the driver.
+ *
+ * One timer thread keeps the deadlines of the running queries. When one
+ * passes, the statement's timeout() runs on a separate thread, because it
+ * opens a transport to send interrupt and must not hold up other deadlines.
+ */
+class MapDQueryWatchdog {
+
+  private static final ScheduledThreadPoolExecutor TIMER = new ScheduledThreadPoolExecutor(1,
+          daemonThreads("mapd-jdbc-query-watchdog"));
+  private static final ExecutorService INTERRUPTS = Executors.newCachedThreadPool(
+          daemonThreads("mapd-jdbc-query-interrupt"));
+
+  private MapDQueryWatchdog() {
+  }
+
+  static ScheduledFuture<?> schedule(final MapDStatement stmt, int seconds) {
+    return TIMER.schedule(new Runnable() {
+      @Override
+      public void run() {
+        INTERRUPTS.execute(new Runnable() {
+          @Override
+          public void run() {
+            stmt.timeout();
+          }
+        });
+      }
+    }, seconds, TimeUnit.SECONDS);
+  }
+
+  /**
+   * Drop a deadline once its query is done.
+   */
+  static void cancel(ScheduledFuture<?> deadline) {
+    deadline.cancel(false);
+    // cancelled tasks otherwise stay queued until they would have fired
+    TIMER.remove((Runnable) deadline);
+  }
+
+  private static ThreadFactory daemonThreads(final String name) {
+    return new ThreadFactory() {
+      private final AtomicInteger count = new AtomicInteger();
+
+      @Override
+      public Thread newThread(Runnable r) {
+        Thread t = new Thread(r, name + "-" + count.incrementAndGet());
+        t.setDaemon(true);
+        return t;
+      }
+    };
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TQueryResult;
+import java.sql.SQLException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Fetches a query result in fetch size windows.
+ *
+ * Each window is the query with LIMIT fetchSize OFFSET n appended, also capped
+ * with first_n. As soon as a full window is handed to the result set the next
+ * one is requested on a background thread, so the server works on window n+1
+ * while the caller reads window n. A short or empty window ends the result,
+ * as does reaching maxRows when it is set.
+ *
+ * Only used when the connection sets page_results, otherwise a fetch size
+ * changes nothing. Windows are separate queries, so only queries with a top
+ * level ORDER BY are paged (see MapDStatement.isPageable), everything else is
+ * fetched at once. The ORDER BY has to be on a unique key: rows that tie may
+ * come back in a different order for each window and be repeated or skipped
+ * without any error. Each window also sorts the whole result again to skip to
+ * its offset, so reading n rows costs the server about n * n / fetchSize
+ * rows. Paging suits results too big to hold in memory at once, not speed.
+ */
+class MapDResultPager {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDResultPager.class);
+
+  private static final ExecutorService PREFETCH = Executors.newCachedThreadPool(new ThreadFactory() {
+    private final AtomicInteger count = new AtomicInteger();
+
+    @Override
+    public Thread newThread(Runnable r) {
+      Thread t = new Thread(r, "mapd-jdbc-prefetch-" + count.incrementAndGet());
+      t.setDaemon(true);
+      return t;
+    }
+  });
+
+  private final MapD.Client client;
+  private final String session;
+  private final String sql;
+  private final int maxRows;
+  private int fetchSize;
+  private long nextOffset = 0;
+  private Future<TQueryResult> pending;
+  private int pendingSize;
+
+  MapDResultPager(MapD.Client client, String session, String sql, int fetchSize, int maxRows) {
+    this.client = client;
+    this.session = session;
+    this.sql = stripSemicolon(sql);
+    this.fetchSize = fetchSize;
+    this.maxRows = maxRows;
+  }
+
+  /**
+   * Fetch the first window and start prefetching the second.
+   */
+  TQueryResult first() throws SQLException {
+    int size = nextWindowSize();
+    long offset = nextOffset;
+    nextOffset += size;
+    TQueryResult window = execute(offset, size);
+    prefetch(window, size);
+    return window;
+  }
+
+  /**
+   * Wait for the prefetched window and start on the one after it.
+   *
+   * @return the next window, null once the result is exhausted
+   */
+  TQueryResult next() throws SQLException {
+    if (pending == null) {
+      return null;
+    }
+    Future<TQueryResult> future = pending;
+    int size = pendingSize;
+    pending = null;
+
+    TQueryResult window;
+    try {
+      window = future.get();
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Query failed : interrupted waiting for next rows");
+    } catch (ExecutionException ex) {
+      if (ex.getCause() instanceof SQLException) {
+        throw (SQLException) ex.getCause();
+      }
+      throw new SQLException("Query failed : " + ex.getCause());
+    }
+    if (MapDResultSet.rowCount(window) == 0) {
+      return null;
+    }
+    prefetch(window, size);
+    return window;
+  }
+
+  void setFetchSize(int rows) {
+    if (rows > 0) {
+      fetchSize = rows;
+    }
+  }
+
+  int getFetchSize() {
+    return fetchSize;
+  }
+
+  /**
+   * Stop paging. A prefetch already running finishes on its own and is dropped.
+   */
+  void close() {
+    pending = null;
+  }
+
+  private void prefetch(TQueryResult window, int size) {
+    if (MapDResultSet.rowCount(window) < size) {
+      // the server has run out of rows
+      return;
+    }
+    final int nextSize = nextWindowSize();
+    if (nextSize <= 0) {
+      // maxRows reached
+      return;
+    }
+    final long offset = nextOffset;
+    nextOffset += nextSize;
+    pendingSize = nextSize;
+    pending = PREFETCH.submit(new Callable<TQueryResult>() {
+      @Override
+      public TQueryResult call() throws SQLException {
+        return execute(offset, nextSize);
+      }
+    });
+  }
+
+  private int nextWindowSize() {
+    if (maxRows > 0) {
+      return (int) Math.min(fetchSize, maxRows - nextOffset);
+    }
+    return fetchSize;
+  }
+
+  private TQueryResult execute(long offset, int size) throws SQLException {
+    String windowSql = sql + " LIMIT " + size + " OFFSET " + offset;
+    logger.debug("window sql is :'" + windowSql + "'");
+    try {
+      synchronized (client) {
+        return client.sql_execute(session, windowSql + ";", true, null, size);
+      }
+    } catch (TMapDException ex) {
+      throw new SQLException("Query failed : " + ex.getError_msg());
+    } catch (TException ex) {
+      throw new SQLException("Query failed : " + ex.toString());
+    }
+  }
+
+  private static String stripSemicolon(String sql) {
+    String trimmed = sql.trim();
+    while (trimmed.endsWith(";")) {
+      trimmed = trimmed.substring(0, trimmed.length() - 1).trim();
+    }
+    return trimmed;
+  }
+}
@@ -62,15 +62,32 @@ class MapDResultSet implements java.sql.ResultSet {
   private String sql;
   private TRowSet rowSet = null;
   private List<TColumnType> rowDesc;
+  private MapDColumn[] columns;
   private boolean wasNull = false;
   private Map<String, Integer> columnMap;
   private int fetchSize = 0;
   private SQLWarning warnings = null;
+  private MapDResultPager pager;
 
   public MapDResultSet(TQueryResult tsqlResult, String sql) throws SQLException { //logger.debug("Entered "+ sql );
+    this.sql = sql;
+    setResult(tsqlResult);
+  }
+
+  MapDResultSet(MapDResultPager pager, String sql) throws SQLException {
+    this.sql = sql;
+    this.pager = pager;
+    this.fetchSize = pager.getFetchSize();
+    setResult(pager.first());
+  }
+
+  MapDResultSet() {
+    numOfRecords = 0;
+  }
+
+  private void setResult(TQueryResult tsqlResult) {
     sqlResult = tsqlResult;
     offset = -1;
-    this.sql = sql;
     rowSet = sqlResult.getRow_set();
     rowDesc = rowSet.getRow_desc();
 
@@ -88,10 +105,12 @@ class MapDResultSet implements java.sql.ResultSet {
       columnMap.put(colType.getCol_name(), current);
       current++;
     }
-    if (rowSet.columns.isEmpty()) {
-      numOfRecords = 0;
+    numOfRecords = rowCount(sqlResult);
+    if (sqlResult instanceof MapDColumnarResult) {
+      // already decoded into arrays by MapDColumnarClient
+      columns = ((MapDColumnarResult) sqlResult).getDecodedColumns();
     } else {
-      numOfRecords = rowSet.getColumns().get(0).getNullsSize();
+      columns = new MapDColumn[rowSet.getColumnsSize()];
     }
 
     logger.debug("number of records is " + numOfRecords);
@@ -99,8 +118,28 @@ class MapDResultSet implements java.sql.ResultSet {
 
   }
 
-  MapDResultSet() {
-    numOfRecords = 0;
+  static int rowCount(TQueryResult result) {
+    if (result instanceof MapDColumnarResult) {
+      MapDColumn[] decoded = ((MapDColumnarResult) result).getDecodedColumns();
+      return decoded.length == 0 ? 0 : decoded[0].size;
+    }
+    TRowSet rows = result.getRow_set();
+    if (rows == null || rows.getColumnsSize() == 0) {
+      return 0;
+    }
+    return rows.getColumns().get(0).getNullsSize();
+  }
+
+  // thrift columns are unboxed into arrays the first time they are read, the
+  // getters then only index those arrays
+  private MapDColumn column(int columnIndex) {
+    MapDColumn column = columns[columnIndex - 1];
+    if (column == null) {
+      column = MapDColumn.fromThrift(rowDesc.get(columnIndex - 1).col_type.type,
+              rowSet.getColumns().get(columnIndex - 1));
+      columns[columnIndex - 1] = column;
+    }
+    return column;
   }
 
   @Override
@@ -111,14 +150,28 @@ class MapDResultSet implements java.sql.ResultSet {
     if (offset < numOfRecords) {
       return true;
     }
+    if (pager != null) {
+      // move on to the next window, normally already prefetched
+      TQueryResult window = pager.next();
+      if (window != null) {
+        setResult(window);
+        offset++;
+        return offset < numOfRecords;
+      }
+    }
     return false;
   }
 
   @Override
   public void close() throws SQLException { //logger.debug("Entered "+ sql );
     // clean up the result object
+    if (pager != null) {
+      pager.close();
+      pager = null;
+    }
     this.rowDesc = null;
     this.rowSet = null;
+    this.columns = null;
     this.sqlResult = null;
   }
 
@@ -132,15 +185,14 @@ class MapDResultSet implements java.sql.ResultSet {
     //System.out.println("Entered " + " line:" + new Throwable().getStackTrace()[0].getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().getStackTrace()[0].getMethodName());
     //logger.info("Dump result columns "+rowSet.columns.toString());
     //logger.info("Dump column:offset "+ columnIndex + ":" +offset);
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumn column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return null;
     } else {
       wasNull = false;
-      TDatumType type = sqlResult.row_set.row_desc.get(columnIndex - 1).col_type.type;
-
-      if (type == TDatumType.STR) {
-        return rowSet.columns.get(columnIndex - 1).data.str_col.get(offset);
+      if (column.type == TDatumType.STR) {
+        return column.strs[offset];
       } else {
         return (String) getStringInternal(columnIndex);
       }
@@ -148,7 +200,7 @@ class MapDResultSet implements java.sql.ResultSet {
   }
 
   private String getStringInternal(int columnIndex) throws SQLException {
-    TDatumType type = sqlResult.row_set.row_desc.get(columnIndex - 1).col_type.type;
+    TDatumType type = column(columnIndex).type;
 
     switch (type) {
       case SMALLINT:
@@ -178,13 +230,13 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public boolean getBoolean(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return false;
     } else {
       // assume column is str already for now
       wasNull = false;
-      if (rowSet.columns.get(columnIndex - 1).data.int_col.get(offset) == 0) {
+      if (column(columnIndex).ints[offset] == 0) {
         return false;
       } else {
         return true;
@@ -203,66 +255,63 @@ class MapDResultSet implements java.sql.ResultSet {
   public short getShort(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
     //logger.info("Dump result columns "+rowSet.columns.toString());
     //logger.info("Dump column:offset "+ columnIndex + ":" +offset);
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return 0;
     } else {
       // assume column is str already for now
       wasNull = false;
-      Long lObj = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
-      return lObj.shortValue();
+      return (short) column(columnIndex).ints[offset];
     }
   }
 
   @Override
   public int getInt(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return 0;
     } else {
       // assume column is str already for now
       wasNull = false;
-      Long lObj = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
-      return lObj.intValue();
+      return (int) column(columnIndex).ints[offset];
     }
   }
 
   @Override
   public long getLong(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return 0;
     } else {
       // assume column is str already for now
       wasNull = false;
-      return rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
+      return column(columnIndex).ints[offset];
     }
   }
 
   @Override
   public float getFloat(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return 0;
     } else {
       // assume column is str already for now
       wasNull = false;
-      return rowSet.columns.get(columnIndex - 1).data.real_col.get(offset).floatValue();
+      return (float) column(columnIndex).reals[offset];
     }
   }
 
   @Override
   public double getDouble(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumn column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return 0;
     } else {
       // assume column is str already for now
       wasNull = false;
-      TDatumType type = sqlResult.row_set.row_desc.get(columnIndex - 1).col_type.type;
-
-      if (type == TDatumType.DOUBLE) {
-        return rowSet.columns.get(columnIndex - 1).data.real_col.get(offset);
+      if (column.type == TDatumType.DOUBLE) {
+        return column.reals[offset];
       } else {
         return getDoubleInternal(columnIndex);
       }
@@ -270,7 +319,7 @@ class MapDResultSet implements java.sql.ResultSet {
   }
 
   private double getDoubleInternal(int columnIndex) throws SQLException {
-    TDatumType type = sqlResult.row_set.row_desc.get(columnIndex - 1).col_type.type;
+    TDatumType type = column(columnIndex).type;
 
     switch (type) {
       case SMALLINT:
@@ -300,13 +349,13 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public BigDecimal getBigDecimal(int columnIndex, int scale) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return null;
     } else {
       // assume column is str already for now
       wasNull = false;
-      return new BigDecimal(rowSet.columns.get(columnIndex - 1).data.real_col.get(offset));
+      return new BigDecimal(column(columnIndex).reals[offset]);
     }
   }
 
@@ -321,13 +370,13 @@ class MapDResultSet implements java.sql.ResultSet {
   public Date getDate(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
     //logger.info("Dump result columns "+rowSet.columns.get(columnIndex-1).data.toString());
     //logger.info("Dump offset::" +offset);
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return null;
     } else {
       // assume column is str already for now
       wasNull = false;
-      long val = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
+      long val = column(columnIndex).ints[offset];
       Date d = new Date(val * 1000);
       return d;
     }
@@ -335,26 +384,26 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public Time getTime(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return null;
     } else {
       // assume column is str already for now
       wasNull = false;
-      long val = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
+      long val = column(columnIndex).ints[offset];
       return new Time(val * 1000);
     }
   }
 
   @Override
   public Timestamp getTimestamp(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return null;
     } else {
       // assume column is str already for now
       wasNull = false;
-      long val = rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
+      long val = column(columnIndex).ints[offset];
       return new Timestamp(val * 1000);
     }
   }
@@ -540,13 +589,14 @@ class MapDResultSet implements java.sql.ResultSet {
   public Object getObject(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
     //logger.info("Dump result column "+rowSet.columns.get(columnIndex-1));
     //logger.info("Dump column:offset "+ columnIndex + ":" +offset);
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    MapDColumn column = column(columnIndex);
+    if (column.isNull(offset)) {
       wasNull = true;
       return null;
     } else {
       wasNull = false;
       // check type
-      switch (rowDesc.get(columnIndex - 1).col_type.type) {
+      switch (column.type) {
         case SMALLINT:
         case INT:
         case BIGINT:
@@ -554,15 +604,15 @@ class MapDResultSet implements java.sql.ResultSet {
         case TIME:
         case TIMESTAMP:
         case DATE:
-          return this.rowSet.columns.get(columnIndex - 1).data.int_col.get(offset);
+          return column.ints[offset];
         case FLOAT:
         case DECIMAL:
         case DOUBLE:
-          return this.rowSet.columns.get(columnIndex - 1).data.real_col.get(offset);
+          return column.reals[offset];
         case STR:
-          return this.rowSet.columns.get(columnIndex - 1).data.str_col.get(offset);
+          return column.strs[offset];
         default:
-          throw new AssertionError(rowDesc.get(columnIndex - 1).col_type.type.name());
+          throw new AssertionError(column.type.name());
       }
     }
   }
@@ -595,13 +645,13 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public BigDecimal getBigDecimal(int columnIndex) throws SQLException { //logger.debug("Entered "+ sql );
-    if (rowSet.columns.get(columnIndex - 1).nulls.get(offset)) {
+    if (column(columnIndex).isNull(offset)) {
       wasNull = true;
       return null;
     } else {
       // assume column is str already for now
       wasNull = false;
-      return new BigDecimal(rowSet.columns.get(columnIndex - 1).data.real_col.get(offset));
+      return new BigDecimal(column(columnIndex).reals[offset]);
     }
   }
 
@@ -710,14 +760,19 @@ class MapDResultSet implements java.sql.ResultSet {
 
   @Override
   public void setFetchSize(int rows) throws SQLException { //logger.debug("Entered "+ sql );
+    if (rows < 0) {
+      throw new SQLException("Fetch size must not be negative, was " + rows);
+    }
     fetchSize = rows;
+    if (pager != null) {
+      // applies from the next window that has not been requested yet
+      pager.setFetchSize(rows);
+    }
   }
 
   @Override
   public int getFetchSize() throws SQLException { //logger.debug("Entered "+ sql );
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    return fetchSize;
   }
 
   @Override
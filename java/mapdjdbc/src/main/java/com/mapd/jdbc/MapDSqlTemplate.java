@@ -0,0 +1,120 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A prepared statement's SQL split once into the literal text around its
+ * parameter markers.
+ *
+ * Only a ? outside string literals, quoted identifiers and comments is a
+ * parameter. Rendering an execution appends the literals and parameter values
+ * into a builder that is reset, not reallocated, for the next execution.
+ */
+class MapDSqlTemplate {
+
+  private final String sql;
+  private final String[] literals;
+  private final StringBuilder buffer;
+
+  private MapDSqlTemplate(String sql, String[] literals) {
+    this.sql = sql;
+    this.literals = literals;
+    int length = 0;
+    for (String literal : literals) {
+      length += literal.length();
+    }
+    // grows to the longest rendering and is reused after that
+    this.buffer = new StringBuilder(length + 16 * (literals.length - 1));
+  }
+
+  static MapDSqlTemplate compile(String sql) {
+    List<String> literals = new ArrayList<String>();
+    int start = 0;
+    int i = 0;
+    int n = sql.length();
+    while (i < n) {
+      char c = sql.charAt(i);
+      if (c == '\'' || c == '"') {
+        // a doubled quote inside the literal just continues it
+        i = sql.indexOf(c, i + 1);
+        i = i < 0 ? n : i + 1;
+      } else if (c == '-' && i + 1 < n && sql.charAt(i + 1) == '-') {
+        i = sql.indexOf('\n', i + 2);
+        i = i < 0 ? n : i + 1;
+      } else if (c == '/' && i + 1 < n && sql.charAt(i + 1) == '*') {
+        i = sql.indexOf("*/", i + 2);
+        i = i < 0 ? n : i + 2;
+      } else if (c == '?') {
+        literals.add(sql.substring(start, i));
+        start = ++i;
+      } else {
+        i++;
+      }
+    }
+    literals.add(sql.substring(start));
+    return new MapDSqlTemplate(sql, literals.toArray(new String[literals.size()]));
+  }
+
+  int getParameterCount() {
+    return literals.length - 1;
+  }
+
+  /**
+   * The SQL with each parameter replaced by its value, NULL for a null value
+   * and the value in single quotes where quoted is set, any ' in it doubled.
+   */
+  String render(Object[] values, boolean[] quoted) {
+    if (literals.length == 1) {
+      return sql;
+    }
+    StringBuilder sb = buffer;
+    sb.setLength(0);
+    for (int i = 0; i < values.length; i++) {
+      sb.append(literals[i]);
+      Object value = values[i];
+      if (value == null) {
+        sb.append("NULL");
+      } else if (quoted[i]) {
+        appendQuoted(sb, MapDDatum.toText(value));
+      } else {
+        sb.append(MapDDatum.toText(value));
+      }
+    }
+    sb.append(literals[values.length]);
+    return sb.toString();
+  }
+
+  private static void appendQuoted(StringBuilder sb, String text) {
+    sb.append('\'');
+    int start = 0;
+    int quote = text.indexOf('\'');
+    while (quote >= 0) {
+      sb.append(text, start, quote + 1).append('\'');
+      start = quote + 1;
+      quote = text.indexOf('\'', start);
+    }
+    sb.append(text, start, text.length()).append('\'');
+  }
+
+  @Override
+  public String toString() {
+    return sql;
+  }
+}
@@ -22,8 +22,11 @@ import com.mapd.thrift.server.TQueryResult;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.SQLTimeoutException;
 import java.sql.SQLWarning;
-import java.util.regex.Pattern;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
 import org.apache.thrift.TException;
 import org.slf4j.LoggerFactory;
 
@@ -40,15 +43,75 @@ public class MapDStatement implements java.sql.Statement {
   private TQueryResult sqlResult = null;
   private int maxRows = 100000; // add limit to unlimited queries
   private boolean escapeProcessing = false;
-  private int queryTimeout;
+  private int queryTimeout = 0;
+  // guarded by this, whether sql_execute is running and why it was interrupted
+  private boolean executing = false;
+  private boolean cancelled = false;
+  private boolean timedOut = false;
+  // set by abandon(), no further query may start
+  private boolean abandoned = false;
+  private int fetchSize = 0;
+  // null for statements made outside a connection
+  private MapDConnection connection;
 
   MapDStatement(String tsession, MapD.Client tclient) {
+    this(tsession, tclient, null);
+  }
+
+  MapDStatement(String tsession, MapD.Client tclient, MapDConnection connection) {
     session = tsession;
     client = tclient;
+    this.connection = connection;
+  }
+
+  /**
+   * Queue a query on the connection and return at once.
+   *
+   * The connection runs its async queries one at a time on its own thread,
+   * in the order they were queued, so several can be waiting on one
+   * connection without a caller thread each. Each query gets a statement of
+   * its own with this statement's max rows, fetch size and query timeout, so
+   * this statement stays free for other use. Future.cancel(true) on a running
+   * query asks the server to interrupt it.
+   */
+  public Future<ResultSet> executeQueryAsync(String sql) throws SQLException {
+    return executeQueryAsync(sql, null);
+  }
+
+  /**
+   * As executeQueryAsync(sql), also telling callback the outcome.
+   */
+  public Future<ResultSet> executeQueryAsync(final String sql, MapDQueryCallback callback) throws SQLException {
+    if (connection == null) {
+      throw new SQLException("Async queries need a statement created by a MapDConnection");
+    }
+    MapDStatement stmt = new MapDStatement(session, client, connection);
+    stmt.maxRows = maxRows;
+    stmt.fetchSize = fetchSize;
+    stmt.queryTimeout = queryTimeout;
+    MapDAsyncQuery query = new MapDAsyncQuery(stmt, sql, callback);
+    try {
+      connection.asyncExecutor().execute(query);
+    } catch (RejectedExecutionException ex) {
+      throw new SQLException("Connection is closed");
+    }
+    return query;
   }
 
   @Override
   public ResultSet executeQuery(String sql) throws SQLException { //logger.debug("Entered");
+    ResultSet described = describeProbe(sql);
+    if (described != null) {
+      return described;
+    }
+    if (fetchSize > 0 && connection != null && connection.pageResults && isPageable(sql)) {
+      // pull the result in fetchSize windows rather than all at once
+      String afterFnSQL = fnReplace(sql);
+      logger.debug("paging afterFnSQL :'" + afterFnSQL + "' fetch size " + fetchSize);
+      MapDResultSet rs = new MapDResultSet(new MapDResultPager(client, session, afterFnSQL, fetchSize, maxRows), sql);
+      currentRS = rs;
+      return rs;
+    }
     if (maxRows > 0) {
       // add limit to sql call if it doesn't already have one and is a select
       String[] tokens = sql.toLowerCase().split(" ", 3);
@@ -64,31 +127,34 @@ public class MapDStatement implements java.sql.Statement {
     logger.debug("sql is :'" + sql + "'");
     String afterFnSQL = fnReplace(sql);
     logger.debug("afterFnSQL is :'" + afterFnSQL + "'");
-    try {
-      sqlResult = client.sql_execute(session, afterFnSQL + ";", true, null, -1);
-    }
-    catch (TMapDException ex) {
-      throw new SQLException("Query failed : " + ex.getError_msg());
-    }
-    catch (TException ex) {
-      throw new SQLException("Query failed : " + ex.toString());
-    }
+    sqlResult = runQuery(afterFnSQL);
 
     currentRS = new MapDResultSet(sqlResult, sql);
     return currentRS;
   }
 
-  @Override
-  public int executeUpdate(String sql) throws SQLException { //logger.debug("Entered");
-    try {
-      sqlResult = client.sql_execute(session, sql + ";", true, null, -1);
+  /**
+   * The empty result of a probe query, one ending in WHERE 1=0 or LIMIT 0,
+   * built from sql_validate without running the query. Null when sql is no
+   * probe or its columns cannot be told that way.
+   */
+  ResultSet describeProbe(String sql) throws SQLException {
+    if (connection == null || !MapDQueryDescriber.isProbe(sql)) {
+      return null;
     }
-    catch (TMapDException ex) {
-      throw new SQLException("Query failed : " + ex.getError_msg());
-    }
-    catch (TException ex) {
-      throw new SQLException("Query failed : " + ex.toString());
+    TQueryResult described = MapDQueryDescriber.describe(connection, fnReplace(sql));
+    if (described == null) {
+      return null;
     }
+    logger.debug("described probe :'" + sql + "'");
+    sqlResult = described;
+    currentRS = new MapDResultSet(described, sql);
+    return currentRS;
+  }
+
+  @Override
+  public int executeUpdate(String sql) throws SQLException { //logger.debug("Entered");
+    sqlResult = runQuery(sql);
 
     return sqlResult.row_set.columns.size();
   }
@@ -130,20 +196,135 @@ public class MapDStatement implements java.sql.Statement {
 
   @Override
   public int getQueryTimeout() throws SQLException { //logger.debug("Entered");
-    //TODO MAT have overloaded this option to allow for internal time comparisson
-    return (int) sqlResult.execution_time_ms;
+    return queryTimeout;
   }
 
+  /**
+   * Server side execution time of the last query in ms.
+   */
+  public long getExecutionTimeMs() {
+    return sqlResult == null ? 0 : sqlResult.execution_time_ms;
+  }
+
+  /**
+   * Once a query has run for this long the server is asked to interrupt it
+   * and the statement throws SQLTimeoutException. The server has to be
+   * running with its dynamic watchdog for interrupts to take effect.
+   */
   @Override
   public void setQueryTimeout(int seconds) throws SQLException { //logger.debug("Entered");
+    if (seconds < 0) {
+      throw new SQLException("Query timeout must not be negative - " + seconds);
+    }
     queryTimeout = seconds;
   }
 
   @Override
   public void cancel() throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    if (connection == null) {
+      throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
+              getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:"
+              + new Throwable().getStackTrace()[0].getMethodName());
+    }
+    interrupt(false);
+  }
+
+  /**
+   * Cancel the running query and fail any later one before it is sent. Used
+   * for async queries, which may still be waiting for the connection.
+   */
+  void abandon() throws SQLException {
+    synchronized (this) {
+      abandoned = true;
+    }
+    cancel();
+  }
+
+  /**
+   * Called by MapDQueryWatchdog when the query timeout has passed.
+   */
+  void timeout() {
+    try {
+      interrupt(true);
+    } catch (SQLException ex) {
+      logger.warn("Could not interrupt timed out query: " + ex.getMessage());
+    }
+  }
+
+  // the first of cancel and timeout wins, and neither does anything when idle.
+  // The interrupt is sent holding this lock, so runQuery cannot clear executing
+  // and let the session start its next query until it has gone.
+  private synchronized void interrupt(boolean timeout) throws SQLException {
+    if (!executing || cancelled || timedOut) {
+      return;
+    }
+    if (timeout) {
+      timedOut = true;
+    } else {
+      cancelled = true;
+    }
+    connection.interrupt();
+  }
+
+  /**
+   * Run sql, interrupted by cancel() or the query timeout. The interrupt goes
+   * over its own transport, the server then fails the query and this
+   * connection stays usable.
+   */
+  private TQueryResult runQuery(String sql) throws SQLException {
+    synchronized (client) {
+      synchronized (this) {
+        if (abandoned) {
+          throw new SQLException("Query cancelled");
+        }
+        executing = true;
+        cancelled = false;
+        timedOut = false;
+      }
+      // only timed once the connection is ours, interrupt hits whatever the session runs
+      ScheduledFuture<?> deadline = null;
+      if (queryTimeout > 0 && connection != null) {
+        deadline = MapDQueryWatchdog.schedule(this, queryTimeout);
+      }
+      try {
+        TQueryResult result = client.sql_execute(session, sql + ";", true, null, -1);
+        if (connection != null && isDDL(sql)) {
+          connection.metadataCache().invalidate();
+        }
+        return result;
+      } catch (TMapDException ex) {
+        throw failure("Query failed : " + ex.getError_msg());
+      } catch (TException ex) {
+        throw failure("Query failed : " + ex.toString());
+      } finally {
+        if (deadline != null) {
+          MapDQueryWatchdog.cancel(deadline);
+        }
+        synchronized (this) {
+          executing = false;
+        }
+      }
+    }
+  }
+
+  // statements that change the tables DatabaseMetaData reports
+  static boolean isDDL(String sql) {
+    int i = 0;
+    while (i < sql.length() && Character.isWhitespace(sql.charAt(i))) {
+      i++;
+    }
+    return sql.regionMatches(true, i, "CREATE", 0, 6) || sql.regionMatches(true, i, "DROP", 0, 4)
+            || sql.regionMatches(true, i, "ALTER", 0, 5) || sql.regionMatches(true, i, "RENAME", 0, 6);
+  }
+
+  private synchronized SQLException failure(String message) {
+    if (timedOut) {
+      return new SQLTimeoutException("Query timed out after " + queryTimeout + " seconds : " + message);
+    }
+    if (cancelled) {
+      return new SQLException("Query cancelled : " + message);
+    }
+    return new SQLException(message);
   }
 
   @Override
@@ -208,18 +389,21 @@ public class MapDStatement implements java.sql.Statement {
             getStackTrace()[0].getMethodName());
   }
 
+  /**
+   * Only a hint, the whole result is fetched at once unless the connection
+   * sets page_results, see MapDResultPager.
+   */
   @Override
   public void setFetchSize(int rows) throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    if (rows < 0) {
+      throw new SQLException("Fetch size must not be negative, was " + rows);
+    }
+    fetchSize = rows;
   }
 
   @Override
   public int getFetchSize() throws SQLException { //logger.debug("Entered");
-    throw new UnsupportedOperationException("Not supported yet," + " line:" + new Throwable().getStackTrace()[0].
-            getLineNumber() + " class:" + new Throwable().getStackTrace()[0].getClassName() + " method:" + new Throwable().
-            getStackTrace()[0].getMethodName());
+    return fetchSize;
   }
 
   @Override
@@ -376,103 +560,58 @@ public class MapDStatement implements java.sql.Statement {
             getStackTrace()[0].getMethodName());
   }
 
-  private static final Pattern FN = Pattern.compile("\\{fn([^\\{]*?)}",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern QUARTER = Pattern.compile("\\sQUARTER\\(([^\\{]*?)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern DAYOFYEAR = Pattern.compile("\\sDAYOFYEAR\\(([^\\{]*?)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern DAYOFWEEK = Pattern.compile("\\sDAYOFWEEK\\(([^\\{]*?)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern WEEK = Pattern.compile("\\sWEEK\\(([^\\{]*?)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern QUARTER_TRUNC = Pattern.compile(
-          "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) - 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern MONTH_TRUNC = Pattern.compile(
-          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern YEAR_TRUNC = Pattern.compile(
-          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1\\ \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-
-  private static final Pattern MINUTE_TRUNC = Pattern.compile(
-          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-  private static final Pattern SECOND_TRUNC = Pattern.compile(
-          "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\) \\+  EXTRACT\\(SECOND FROM .*?\\) \\* INTERVAL '1' SECOND\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-
-  private static final Pattern YEAR1_TRUNC = Pattern.compile(
-          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-
-  private static final Pattern QUARTER1_TRUNC = Pattern.compile(
-          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
-
-  private static final Pattern WEEK_TRUNC = Pattern.compile(
-          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+ \\(\\-1 \\* \\( EXTRACT\\(ISODOW FROM .*?\\) \\- 1\\)\\) \\* INTERVAL '1' DAY\\)",
-          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  /**
+   * Only a select without its own LIMIT or OFFSET can be split into windows,
+   * and only when it has a top level ORDER BY. MapD returns rows in no
+   * particular order otherwise, so separate LIMIT / OFFSET windows could repeat
+   * or skip rows. Paging is only tried with the page_results connection
+   * property, see MapDResultPager.
+   */
+  static boolean isPageable(String sql) {
+    String lower = sql.trim().toLowerCase();
+    return lower.startsWith("select") && !lower.contains("limit") && !lower.contains("offset")
+            && hasTopLevelOrderBy(lower);
+  }
+
+  /**
+   * Looks for ORDER BY outside of parentheses, quotes and comments.
+   */
+  static boolean hasTopLevelOrderBy(String lower) {
+    int depth = 0;
+    int n = lower.length();
+    for (int i = 0; i < n; i++) {
+      char c = lower.charAt(i);
+      if (c == '\'' || c == '"') {
+        int end = lower.indexOf(c, i + 1);
+        i = end < 0 ? n : end;
+      } else if (lower.startsWith("--", i)) {
+        int end = lower.indexOf('\n', i);
+        i = end < 0 ? n : end;
+      } else if (lower.startsWith("/*", i)) {
+        int end = lower.indexOf("*/", i + 2);
+        i = end < 0 ? n : end + 1;
+      } else if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (depth == 0 && lower.startsWith("order", i) && (i == 0 || !isWordChar(lower.charAt(i - 1)))) {
+        int j = i + 5;
+        while (j < n && Character.isWhitespace(lower.charAt(j))) {
+          j++;
+        }
+        if (j > i + 5 && lower.startsWith("by", j) && (j + 2 == n || !isWordChar(lower.charAt(j + 2)))) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  private static boolean isWordChar(char c) {
+    return Character.isLetterOrDigit(c) || c == '_';
+  }
 
   public static String fnReplace(String sql) {
-    // need to iterate as each reduction of string opens up a anew match
-    String start;
-    do {
-      start = sql;
-      sql = FN.matcher(sql).replaceAll("$1");
-    } while (!sql.equals(start));
-
-    do {
-      start = sql;
-      sql = QUARTER.matcher(sql).replaceAll(" EXTRACT(QUARTER FROM $1");
-    } while (!sql.equals(start));
-
-    do {
-      start = sql;
-      sql = DAYOFYEAR.matcher(sql).replaceAll(" EXTRACT(DOY FROM $1");
-    } while (!sql.equals(start));
-
-    do {
-      start = sql;
-      sql = DAYOFWEEK.matcher(sql).replaceAll(" EXTRACT(ISODOW FROM $1");
-    } while (!sql.equals(start));
-
-    do {
-      start = sql;
-      sql = WEEK.matcher(sql).replaceAll(" EXTRACT(WEEK FROM $1");
-    } while (!sql.equals(start));
-
-    //Order is important here, do not shuffle without checking
-    sql = QUARTER_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(QUARTER, $1)");
-    sql = YEAR_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(YEAR, $1)");
-    sql = SECOND_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(SECOND, $1)");
-    sql = QUARTER1_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(QUARTER, $1)");
-    sql = MONTH_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(MONTH, $1)");
-    sql = MINUTE_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(MINUTE, $1)");
-    sql = YEAR1_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(YEAR, $1)");
-    sql = WEEK_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(WEEK, $1)");
-
-    do {
-      start = sql;
-      sql = QUARTER.matcher(sql).replaceAll(" EXTRACT(QUARTER FROM $1");
-    } while (!sql.equals(start));
-
-    do {
-      start = sql;
-      sql = DAYOFYEAR.matcher(sql).replaceAll(" EXTRACT(DOY FROM $1");
-    } while (!sql.equals(start));
-
-    do {
-      start = sql;
-      sql = DAYOFWEEK.matcher(sql).replaceAll(" EXTRACT(ISODOW FROM $1");
-    } while (!sql.equals(start));
-
-    do {
-      start = sql;
-      sql = WEEK.matcher(sql).replaceAll(" EXTRACT(WEEK FROM $1");
-    } while (!sql.equals(start));
-
-    return sql;
+    return MapDFnRewriter.rewrite(sql);
   }
 }
@@ -0,0 +1,152 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Properties;
+import org.apache.thrift.protocol.TBinaryProtocol;
+import org.apache.thrift.protocol.TCompactProtocol;
+import org.apache.thrift.protocol.TJSONProtocol;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TFramedTransport;
+import org.apache.thrift.transport.THttpClient;
+import org.apache.thrift.transport.TIOStreamTransport;
+import org.apache.thrift.transport.TSocket;
+import org.apache.thrift.transport.TTransport;
+import org.apache.thrift.transport.TTransportException;
+import org.apache.thrift.transport.TZlibTransport;
+
+/**
+ * The thrift protocol and transports a connection talks through, chosen with
+ * connection properties:
+ *
+ *   protocol     binary (default for sockets), compact, or json (default for http)
+ *   transport    buffered (default) or framed, sockets only
+ *   buffer_size  bytes buffered each way on a socket, default 65536
+ *   compression  none (default) or zlib, sockets only
+ *
+ * The server has to use the same stack. mapd_server listens with buffered
+ * binary on its port and json on its http port, the other stacks are for
+ * servers and proxies set up to match.
+ *
+ * zlib is not offered over http: TZlibTransport keeps one deflate and one
+ * inflate stream for the life of the transport, while every THttpClient
+ * call is an exchange of its own, so only the first response could be read.
+ */
+class MapDThriftStack {
+
+  static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+  private final boolean http;
+  private final String protocol;
+  private final boolean framed;
+  private final boolean zlib;
+  private final int bufferSize;
+
+  MapDThriftStack(boolean http, String protocol, boolean framed, boolean zlib, int bufferSize) {
+    this.http = http;
+    this.protocol = protocol;
+    this.framed = framed;
+    this.zlib = zlib;
+    this.bufferSize = bufferSize;
+  }
+
+  static MapDThriftStack fromProperties(boolean http, Properties info) throws SQLException {
+    String protocol = info.getProperty("protocol", http ? "json" : "binary").trim().toLowerCase();
+    if (!protocol.equals("binary") && !protocol.equals("compact") && !protocol.equals("json")) {
+      throw new SQLException("Connection failed invalid protocol - " + protocol);
+    }
+    String transport = info.getProperty("transport", "buffered").trim().toLowerCase();
+    if (!transport.equals("buffered") && !transport.equals("framed")) {
+      throw new SQLException("Connection failed invalid transport - " + transport);
+    }
+    if (http && transport.equals("framed")) {
+      throw new SQLException("Connection failed framed transport is not available over http");
+    }
+    String compression = info.getProperty("compression", "none").trim().toLowerCase();
+    if (!compression.equals("none") && !compression.equals("zlib")) {
+      throw new SQLException("Connection failed invalid compression - " + compression);
+    }
+    if (http && compression.equals("zlib")) {
+      throw new SQLException("Connection failed zlib compression is not available over http");
+    }
+    int bufferSize = MapDConnection.intProperty(info, "buffer_size", DEFAULT_BUFFER_SIZE);
+    if (bufferSize <= 0) {
+      throw new SQLException("Connection failed invalid buffer_size - " + bufferSize);
+    }
+    return new MapDThriftStack(http, protocol, transport.equals("framed"), compression.equals("zlib"), bufferSize);
+  }
+
+  /**
+   * Connect and return the outermost transport, closing it closes the
+   * connection.
+   */
+  TTransport open(String machine, int port) throws TTransportException {
+    TTransport base;
+    if (http) {
+      base = new THttpClient("http://" + machine + ":" + port);
+      base.open();
+    } else {
+      TSocket socket = new TSocket(machine, port);
+      socket.open();
+      // TSocket buffers only 1KB each way, far too little for large results
+      try {
+        base = new TIOStreamTransport(new BufferedInputStream(socket.getSocket().getInputStream(), bufferSize),
+                new BufferedOutputStream(socket.getSocket().getOutputStream(), bufferSize));
+      } catch (IOException ex) {
+        socket.close();
+        throw new TTransportException(TTransportException.NOT_OPEN, ex);
+      }
+    }
+    return wrap(base);
+  }
+
+  /**
+   * Add the compression and framing layers on top of an open transport.
+   */
+  TTransport wrap(TTransport base) {
+    TTransport transport = base;
+    if (zlib) {
+      transport = new TZlibTransport(transport);
+    }
+    if (framed) {
+      // the default 16MB frame limit is less than a large result
+      transport = new TFramedTransport(transport, Integer.MAX_VALUE);
+    }
+    return transport;
+  }
+
+  TProtocol protocol(TTransport transport) {
+    if (protocol.equals("compact")) {
+      return new TCompactProtocol(transport);
+    }
+    if (protocol.equals("json")) {
+      return new TJSONProtocol(transport);
+    }
+    return new TBinaryProtocol(transport);
+  }
+
+  @Override
+  public String toString() {
+    return protocol + (http ? " over http" : framed ? " framed" : " buffered")
+            + (zlib ? " zlib" : "") + (http ? "" : " " + bufferSize + "B");
+  }
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TMapDException;
+import com.mapd.thrift.server.TRow;
+import com.mapd.thrift.server.TStringRow;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write behind buffer for batched inserts on one connection.
+ *
+ * executeBatch hands its rows over and returns without waiting for the
+ * server. Rows for the same table are coalesced across calls and statements
+ * and sent by a background thread once flushRows of them are waiting or the
+ * oldest has waited flushInterval. When capacity rows are buffered callers
+ * block until the flusher has made room.
+ *
+ * flush() sends everything buffered and waits for it, it is called on
+ * commit and close. A failed load is reported once, by the next call into
+ * the buffer; the rows of that load are dropped and counted as failed.
+ */
+class MapDWriteBehind {
+
+  final static Logger logger = LoggerFactory.getLogger(MapDWriteBehind.class);
+
+  static final int DEFAULT_CAPACITY = 500000;
+  static final long DEFAULT_FLUSH_INTERVAL_MS = 1000;
+
+  private final MapD.Client client;
+  private final String session;
+  private final int capacity;
+  private final int flushRows;
+  private final long flushIntervalNanos;
+  private final Thread flusher;
+
+  // guarded by this
+  private final Map<String, Pending> pending = new LinkedHashMap<String, Pending>();
+  private int buffered = 0;
+  private int inFlight = 0;
+  private SQLException failure = null;
+  private boolean closed = false;
+
+  private long rowsEnqueued = 0;
+  private long rowsFlushed = 0;
+  private long rowsFailed = 0;
+  private long flushes = 0;
+  private long flushNanos = 0;
+  private long maxFlushNanos = 0;
+
+  MapDWriteBehind(MapD.Client client, String session, int capacity, int flushRows, long flushIntervalMs) {
+    this.client = client;
+    this.session = session;
+    this.capacity = capacity;
+    this.flushRows = flushRows > 0 ? Math.min(flushRows, capacity) : capacity;
+    this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(flushIntervalMs);
+    this.flusher = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        flushLoop();
+      }
+    }, "mapd-jdbc-write-behind");
+    flusher.setDaemon(true);
+    flusher.start();
+  }
+
+  /**
+   * Buffer rows for table, either typed or text rows. The lists are owned by
+   * the buffer afterwards.
+   */
+  synchronized void enqueue(String table, List<TRow> binaryRows, List<TStringRow> textRows) throws SQLException {
+    int count = binaryRows != null ? binaryRows.size() : textRows.size();
+    if (count == 0) {
+      return;
+    }
+    checkFailure();
+    // a batch larger than the whole buffer still goes through once it is empty
+    while (buffered > 0 && buffered + count > capacity) {
+      waitForChange(0);
+      checkFailure();
+    }
+    String key = (binaryRows != null ? "binary:" : "text:") + table;
+    Pending batch = pending.get(key);
+    if (batch == null) {
+      batch = new Pending(table, binaryRows != null, System.nanoTime());
+      pending.put(key, batch);
+    }
+    batch.add(binaryRows, textRows);
+    buffered += count;
+    rowsEnqueued += count;
+    notifyAll();
+  }
+
+  /**
+   * Send every buffered row and wait until all loads, including those the
+   * flusher already started, have finished.
+   */
+  void flush() throws SQLException {
+    List<Pending> batches;
+    synchronized (this) {
+      batches = new ArrayList<Pending>(pending.values());
+      pending.clear();
+      for (Pending batch : batches) {
+        buffered -= batch.size();
+        inFlight++;
+      }
+      notifyAll();
+    }
+    for (Pending batch : batches) {
+      send(batch);
+    }
+    synchronized (this) {
+      while (inFlight > 0) {
+        waitForChange(0);
+      }
+      checkFailure();
+    }
+  }
+
+  /**
+   * Flush and stop the flusher thread.
+   */
+  void close() throws SQLException {
+    try {
+      flush();
+    } finally {
+      synchronized (this) {
+        closed = true;
+        notifyAll();
+      }
+      logger.debug("Write behind closed " + this);
+    }
+  }
+
+  synchronized Map<String, Long> getStats() {
+    Map<String, Long> stats = new LinkedHashMap<String, Long>();
+    stats.put("rows_buffered", (long) buffered);
+    stats.put("rows_enqueued", rowsEnqueued);
+    stats.put("rows_flushed", rowsFlushed);
+    stats.put("rows_failed", rowsFailed);
+    stats.put("flushes", flushes);
+    stats.put("flush_ms_total", TimeUnit.NANOSECONDS.toMillis(flushNanos));
+    stats.put("flush_ms_max", TimeUnit.NANOSECONDS.toMillis(maxFlushNanos));
+    return stats;
+  }
+
+  @Override
+  public String toString() {
+    return "MapDWriteBehind" + getStats();
+  }
+
+  private void flushLoop() {
+    while (true) {
+      Pending batch;
+      synchronized (this) {
+        while (true) {
+          if (closed) {
+            return;
+          }
+          long now = System.nanoTime();
+          batch = takeReady(now);
+          if (batch != null) {
+            break;
+          }
+          try {
+            wait(nextDeadlineMillis(now));
+          } catch (InterruptedException ex) {
+            return;
+          }
+        }
+        buffered -= batch.size();
+        inFlight++;
+        // producers blocked on a full buffer can go on
+        notifyAll();
+      }
+      send(batch);
+    }
+  }
+
+  // caller holds the lock
+  private Pending takeReady(long now) {
+    Iterator<Pending> it = pending.values().iterator();
+    while (it.hasNext()) {
+      Pending batch = it.next();
+      if (batch.size() >= flushRows || now - batch.since >= flushIntervalNanos) {
+        it.remove();
+        return batch;
+      }
+    }
+    return null;
+  }
+
+  // caller holds the lock, 0 waits until notified
+  private long nextDeadlineMillis(long now) {
+    long wait = 0;
+    for (Pending batch : pending.values()) {
+      long left = TimeUnit.NANOSECONDS.toMillis(batch.since + flushIntervalNanos - now) + 1;
+      if (wait == 0 || left < wait) {
+        wait = left;
+      }
+    }
+    return Math.max(wait, 0);
+  }
+
+  private void send(Pending batch) {
+    long start = System.nanoTime();
+    SQLException error = null;
+    try {
+      synchronized (client) {
+        if (batch.binary) {
+          client.load_table_binary(session, batch.table, batch.binaryRows);
+        } else {
+          client.load_table(session, batch.table, batch.textRows);
+        }
+      }
+    } catch (TMapDException ex) {
+      error = new SQLException("addBatch failed : " + ex.getError_msg());
+    } catch (TException ex) {
+      error = new SQLException("addBatch failed : " + ex.toString());
+    } catch (RuntimeException ex) {
+      error = new SQLException("addBatch failed : " + ex.toString());
+    }
+    long took = System.nanoTime() - start;
+    synchronized (this) {
+      inFlight--;
+      flushes++;
+      flushNanos += took;
+      maxFlushNanos = Math.max(maxFlushNanos, took);
+      if (error == null) {
+        rowsFlushed += batch.size();
+      } else {
+        rowsFailed += batch.size();
+        logger.error("Write behind load of " + batch.size() + " rows into " + batch.table + " failed: "
+                + error.getMessage());
+        if (failure == null) {
+          failure = error;
+        }
+      }
+      notifyAll();
+    }
+  }
+
+  // caller holds the lock
+  private void checkFailure() throws SQLException {
+    if (failure != null) {
+      SQLException ex = failure;
+      failure = null;
+      throw ex;
+    }
+  }
+
+  // caller holds the lock
+  private void waitForChange(long millis) throws SQLException {
+    try {
+      wait(millis);
+    } catch (InterruptedException ex) {
+      Thread.currentThread().interrupt();
+      throw new SQLException("Interrupted waiting for write behind buffer");
+    }
+  }
+
+  private static final class Pending {
+
+    private final String table;
+    private final boolean binary;
+    private final long since;
+    private List<TRow> binaryRows;
+    private List<TStringRow> textRows;
+
+    private Pending(String table, boolean binary, long since) {
+      this.table = table;
+      this.binary = binary;
+      this.since = since;
+    }
+
+    private void add(List<TRow> moreBinary, List<TStringRow> moreText) {
+      if (binary) {
+        if (binaryRows == null) {
+          binaryRows = moreBinary;
+        } else {
+          binaryRows.addAll(moreBinary);
+        }
+      } else {
+        if (textRows == null) {
+          textRows = moreText;
+        } else {
+          textRows.addAll(moreText);
+        }
+      }
+    }
+
+    private int size() {
+      return binary ? binaryRows.size() : textRows.size();
+    }
+  }
+}
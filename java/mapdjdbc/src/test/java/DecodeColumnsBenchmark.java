@@ -0,0 +1,133 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.sql.*;
+import java.util.Properties;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Compares reading a large result with and without the decode_columns
+ * connection property. Needs a running server, run by hand:
+ *
+ *   DecodeColumnsBenchmark [url] [query] [iterations]
+ */
+public class DecodeColumnsBenchmark {
+
+  final static Logger logger = LoggerFactory.getLogger(DecodeColumnsBenchmark.class);
+
+  static final String JDBC_DRIVER = "com.mapd.jdbc.MapDDriver";
+  static final String DB_URL = "jdbc:mapd:localhost:9091:mapd";
+  static final String QUERY = "SELECT * FROM flights_2008_7M LIMIT 5000000";
+
+  static final String USER = "mapd";
+  static final String PASS = "HyperInteractive";
+
+  public static void main(String[] args) throws Exception {
+    String url = args.length > 0 ? args[0] : DB_URL;
+    String query = args.length > 1 ? args[1] : QUERY;
+    int iterations = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+
+    Class.forName(JDBC_DRIVER);
+    // first pass of each mode warms up the jit
+    for (int i = 0; i <= iterations; i++) {
+      run(url, query, false, i > 0);
+      run(url, query, true, i > 0);
+    }
+  }
+
+  private static void run(String url, String query, boolean decodeColumns, boolean report) throws SQLException {
+    Properties props = new Properties();
+    props.setProperty("user", USER);
+    props.setProperty("password", PASS);
+    props.setProperty("decode_columns", String.valueOf(decodeColumns));
+
+    Connection conn = DriverManager.getConnection(url, props);
+    try {
+      Statement stmt = conn.createStatement();
+      // no implicit LIMIT
+      stmt.setMaxRows(0);
+
+      System.gc();
+      long gcCount = gcCount();
+      long gcTime = gcTime();
+      long timer = System.nanoTime();
+
+      ResultSet rs = stmt.executeQuery(query);
+      long fetched = System.nanoTime();
+      ResultSetMetaData md = rs.getMetaData();
+      int numColumns = md.getColumnCount();
+      int[] types = new int[numColumns];
+      for (int c = 0; c < numColumns; c++) {
+        types[c] = md.getColumnType(c + 1);
+      }
+      long rows = 0;
+      long checksum = 0;
+      while (rs.next()) {
+        for (int c = 1; c <= numColumns; c++) {
+          switch (types[c - 1]) {
+            case Types.SMALLINT:
+            case Types.INTEGER:
+            case Types.BIGINT:
+            case Types.BOOLEAN:
+              checksum += rs.getLong(c);
+              break;
+            case Types.FLOAT:
+            case Types.DECIMAL:
+            case Types.DOUBLE:
+              checksum += (long) rs.getDouble(c);
+              break;
+            default:
+              String s = rs.getString(c);
+              checksum += s == null ? 0 : s.length();
+          }
+        }
+        rows++;
+      }
+      long done = System.nanoTime();
+      rs.close();
+      stmt.close();
+
+      if (report) {
+        logger.info((decodeColumns ? "decode_columns " : "thrift lists   ")
+                + rows + " rows, fetch " + (fetched - timer) / 1000000 + " ms, read "
+                + (done - fetched) / 1000000 + " ms, "
+                + (long) (rows / ((done - timer) / 1e9)) + " rows/s, "
+                + (gcCount() - gcCount) + " gcs " + (gcTime() - gcTime) + " ms gc, checksum " + checksum);
+      }
+    } finally {
+      conn.close();
+    }
+  }
+
+  private static long gcCount() {
+    long count = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      count += gc.getCollectionCount();
+    }
+    return count;
+  }
+
+  private static long gcTime() {
+    long time = 0;
+    for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+      time += gc.getCollectionTime();
+    }
+    return time;
+  }
+}
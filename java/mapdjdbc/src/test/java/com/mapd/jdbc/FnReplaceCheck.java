@@ -0,0 +1,186 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import java.util.Random;
+import java.util.regex.Pattern;
+
+/**
+ * The regular expressions fnReplace used to apply, which TestFnRewriter
+ * checks MapDFnRewriter against, and a timing of both on a large generated
+ * query. Needs no server, run by hand:
+ *
+ *   FnReplaceCheck
+ */
+public class FnReplaceCheck {
+
+  private static final Pattern FN = Pattern.compile("\\{fn([^\\{]*?)}",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern QUARTER = Pattern.compile("\\sQUARTER\\(([^\\{]*?)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern DAYOFYEAR = Pattern.compile("\\sDAYOFYEAR\\(([^\\{]*?)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern DAYOFWEEK = Pattern.compile("\\sDAYOFWEEK\\(([^\\{]*?)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern WEEK = Pattern.compile("\\sWEEK\\(([^\\{]*?)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern QUARTER_TRUNC = Pattern.compile(
+          "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) - 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern MONTH_TRUNC = Pattern.compile(
+          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern YEAR_TRUNC = Pattern.compile(
+          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DAY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(\\-1\\ \\* \\( EXTRACT\\(MONTH FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern MINUTE_TRUNC = Pattern.compile(
+          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+  private static final Pattern SECOND_TRUNC = Pattern.compile(
+          "\\(\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  EXTRACT\\(HOUR FROM .*?\\) \\* INTERVAL '1' HOUR\\) \\+  EXTRACT\\(MINUTE FROM .*?\\) \\* INTERVAL '1' MINUTE\\) \\+  EXTRACT\\(SECOND FROM .*?\\) \\* INTERVAL '1' SECOND\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern YEAR1_TRUNC = Pattern.compile(
+          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern QUARTER1_TRUNC = Pattern.compile(
+          "\\(\\(CAST\\(([^\\(]*?) AS DATE\\) \\+  FLOOR\\(\\(\\-1 \\* \\( EXTRACT\\(DOY FROM .*?\\) \\- 1\\)\\)\\) \\* INTERVAL '1' DAY\\) \\+  FLOOR\\(\\(3 \\* \\( FLOOR\\( EXTRACT\\(QUARTER FROM .*?\\)\\) \\- 1\\)\\)\\) \\* INTERVAL '1' MONTH\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  private static final Pattern WEEK_TRUNC = Pattern.compile(
+          "\\(CAST\\(([^\\(]*?) AS DATE\\) \\+ \\(\\-1 \\* \\( EXTRACT\\(ISODOW FROM .*?\\) \\- 1\\)\\) \\* INTERVAL '1' DAY\\)",
+          Pattern.DOTALL | Pattern.CASE_INSENSITIVE);
+
+  static String regexReplace(String sql) {
+    // need to iterate as each reduction of string opens up a anew match
+    String start;
+    do {
+      start = sql;
+      sql = FN.matcher(sql).replaceAll("$1");
+    } while (!sql.equals(start));
+    sql = regexRename(sql);
+
+    //Order is important here, do not shuffle without checking
+    sql = QUARTER_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(QUARTER, $1)");
+    sql = YEAR_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(YEAR, $1)");
+    sql = SECOND_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(SECOND, $1)");
+    sql = QUARTER1_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(QUARTER, $1)");
+    sql = MONTH_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(MONTH, $1)");
+    sql = MINUTE_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(MINUTE, $1)");
+    sql = YEAR1_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(YEAR, $1)");
+    sql = WEEK_TRUNC.matcher(sql).replaceAll(" DATE_TRUNC(WEEK, $1)");
+
+    return regexRename(sql);
+  }
+
+  static String regexRename(String sql) {
+    sql = fixpoint(QUARTER, sql, " EXTRACT(QUARTER FROM $1");
+    sql = fixpoint(DAYOFYEAR, sql, " EXTRACT(DOY FROM $1");
+    sql = fixpoint(DAYOFWEEK, sql, " EXTRACT(ISODOW FROM $1");
+    return fixpoint(WEEK, sql, " EXTRACT(WEEK FROM $1");
+  }
+
+  static String fixpoint(Pattern p, String sql, String replacement) {
+    String start;
+    do {
+      start = sql;
+      sql = p.matcher(sql).replaceAll(replacement);
+    } while (!sql.equals(start));
+    return sql;
+  }
+
+  static final String[] CORPUS = {
+    "SELECT a FROM t",
+    "SELECT {fn CONVERT(a, SQL_BIGINT)} FROM t",
+    "SELECT {FN ucase({fn lcase(a)})} FROM t",
+    "SELECT {fn a {d '2017-01-01'} b} FROM t",
+    "SELECT {fn a {fn b} } c} {fn open",
+    "SELECT {{fn a}} }} {",
+    "SELECT {fn QUARTER(dep_timestamp)} FROM t",
+    "SELECT\tquarter(a), DAYOFYEAR(QUARTER(b)), x\nweek( c), dayofweek(d) FROM t",
+    "SELECT  QUARTER(QUARTER(WEEK(a))) FROM t",
+    "SELECT DAYOFWEEK(a) FROM t WHERE 'week(' <> ' QUARTER('",
+    "SELECT (((CAST(dep_timestamp AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM dep_timestamp) - 1))) * INTERVAL '1' DAY) "
+        + "+  FLOOR((-1 * ( EXTRACT(MONTH FROM dep_timestamp) - 1))) * INTERVAL '1' MONTH) "
+        + "+  FLOOR((3 * ( FLOOR( EXTRACT(QUARTER FROM dep_timestamp)) - 1))) * INTERVAL '1' MONTH) AS q FROM t",
+    "SELECT ((CAST(d AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM d) - 1))) * INTERVAL '1' DAY) "
+        + "+  FLOOR((-1 * ( EXTRACT(MONTH FROM d) - 1))) * INTERVAL '1' MONTH) AS y FROM t",
+    "SELECT (CAST(d AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM d) - 1))) * INTERVAL '1' DAY) AS m FROM t",
+    "SELECT ((CAST(d AS DATE) +  EXTRACT(HOUR FROM d) * INTERVAL '1' HOUR) +  EXTRACT(MINUTE FROM d) * INTERVAL '1' MINUTE) FROM t",
+    "SELECT (((CAST(d AS DATE) +  EXTRACT(HOUR FROM d) * INTERVAL '1' HOUR) +  EXTRACT(MINUTE FROM d) * INTERVAL '1' MINUTE) "
+        + "+  EXTRACT(SECOND FROM d) * INTERVAL '1' SECOND) FROM t",
+    "SELECT (CAST(d AS DATE) +  FLOOR((-1 * ( EXTRACT(DOY FROM d) - 1))) * INTERVAL '1' DAY) FROM t",
+    "SELECT (CAST(d AS DATE) +  FLOOR((-1 * ( {fn DAYOFYEAR(d)} - 1))) * INTERVAL '1' DAY) FROM t",
+    "SELECT (CAST(d AS DATE) + (-1 * ( EXTRACT(ISODOW FROM d) - 1)) * INTERVAL '1' DAY) FROM t",
+    "SELECT (CAST(d AS DATE) + (-1 * ( {fn DAYOFWEEK(d)} - 1)) * INTERVAL '1' DAY) FROM t",
+  };
+
+  static final String[] PIECES = {
+    "{fn ", "{FN ", "{d ", "{", "}", "}", " ", "\t", "\n", "(", ")", "a", "x1", ",", "'", "QUARTER(", "quarter(",
+    "DAYOFYEAR(", "DayOfWeek(", "WEEK(", "week(", " AS DATE)", "CAST(", "EXTRACT(", " FROM ", "d", "f", "n",
+    "(CAST(d AS DATE) +  FLOOR((-1 * ( EXTRACT(DAY FROM d) - 1))) * INTERVAL '1' DAY)",
+    "(CAST(d AS DATE) + (-1 * ( EXTRACT(ISODOW FROM d) - 1)) * INTERVAL '1' DAY)",
+    " +  FLOOR((-1 * ( EXTRACT(MONTH FROM d) - 1))) * INTERVAL '1' MONTH)",
+  };
+
+  /**
+   * Random text of up to 30 pieces, mostly broken SQL, to find inputs where
+   * the rewriter and the regular expressions disagree.
+   */
+  static String randomSql(Random random) {
+    StringBuilder sb = new StringBuilder();
+    int pieces = random.nextInt(30);
+    for (int j = 0; j < pieces; j++) {
+      sb.append(PIECES[random.nextInt(PIECES.length)]);
+    }
+    return sb.toString();
+  }
+
+  /**
+   * The corpus repeated into one select of about 150000 characters.
+   */
+  static String largeStatement() {
+    StringBuilder big = new StringBuilder("SELECT ");
+    while (big.length() < 150000) {
+      for (String sql : CORPUS) {
+        big.append(sql.substring(7)).append(",\n  ");
+      }
+    }
+    big.append("1 FROM t");
+    return big.toString();
+  }
+
+  public static void main(String[] args) {
+    String sql = largeStatement();
+    for (int round = 0; round < 5; round++) {
+      long start = System.nanoTime();
+      regexReplace(sql);
+      long regex = System.nanoTime() - start;
+      start = System.nanoTime();
+      MapDFnRewriter.rewriteUncached(sql);
+      long rewriter = System.nanoTime() - start;
+      start = System.nanoTime();
+      MapDFnRewriter.rewrite(sql);
+      long cached = System.nanoTime() - start;
+      System.out.println(String.format("%d chars  regex %7.2f ms  rewriter %7.2f ms  cached %7.3f ms",
+              sql.length(), regex / 1e6, rewriter / 1e6, cached / 1e6));
+    }
+  }
+}
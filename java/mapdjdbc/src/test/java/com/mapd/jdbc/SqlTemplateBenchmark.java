@@ -0,0 +1,59 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import java.sql.Timestamp;
+
+/**
+ * Renders the same prepared statement over and over and prints the average
+ * time per execution for each window of 100000, which should stay flat.
+ * Needs no server, run by hand:
+ *
+ *   SqlTemplateBenchmark [executions]
+ */
+public class SqlTemplateBenchmark {
+
+  static final String SQL = "SELECT carrier_name, count(*) FROM flights WHERE origin = ? AND dep_delay > ? "
+          + "AND dest <> 'what?' AND dep_timestamp > ? /* any ? here */ GROUP BY carrier_name";
+  static final int WINDOW = 100000;
+
+  public static void main(String[] args) {
+    int executions = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+
+    MapDSqlTemplate template = MapDSqlTemplate.compile(SQL);
+    Object[] values = new Object[template.getParameterCount()];
+    boolean[] quoted = new boolean[] {true, false, true};
+    Timestamp ts = Timestamp.valueOf("2008-01-01 00:00:00");
+
+    System.out.println(template.getParameterCount() + " parameters in " + SQL);
+    long total = 0;
+    long start = System.nanoTime();
+    for (int i = 1; i <= executions; i++) {
+      values[0] = (i & 1) == 0 ? "SFO" : "JFK";
+      values[1] = i % 60;
+      values[2] = ts;
+      total += template.render(values, quoted).length();
+      if (i % WINDOW == 0) {
+        long now = System.nanoTime();
+        System.out.println(String.format("executions %8d  %6d ns/execution", i, (now - start) / WINDOW));
+        start = now;
+      }
+    }
+    System.out.println("last sql " + template.render(values, quoted));
+    System.out.println("average length " + total / executions);
+  }
+}
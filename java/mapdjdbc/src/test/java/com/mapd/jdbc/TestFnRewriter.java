@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks that MapDFnRewriter gives the same SQL as the regular expressions
+ * in FnReplaceCheck, which fnReplace used to apply.
+ */
+public class TestFnRewriter {
+
+  private static final int RANDOM_CASES = 20000;
+
+  @Test
+  public void corpusMatchesRegex() {
+    for (String sql : FnReplaceCheck.CORPUS) {
+      assertEquals(sql, FnReplaceCheck.regexReplace(sql), MapDFnRewriter.rewriteUncached(sql));
+    }
+  }
+
+  @Test
+  public void randomMatchesRegex() {
+    Random random = new Random(42);
+    for (int i = 0; i < RANDOM_CASES; i++) {
+      String sql = FnReplaceCheck.randomSql(random);
+      assertEquals(sql, FnReplaceCheck.regexReplace(sql), MapDFnRewriter.rewriteUncached(sql));
+    }
+  }
+
+  @Test
+  public void largeStatementMatchesRegex() {
+    String sql = FnReplaceCheck.largeStatement();
+    assertEquals(FnReplaceCheck.regexReplace(sql), MapDFnRewriter.rewriteUncached(sql));
+  }
+
+  @Test
+  public void cachedMatchesUncached() {
+    for (String sql : FnReplaceCheck.CORPUS) {
+      String expected = MapDFnRewriter.rewriteUncached(sql);
+      assertEquals(expected, MapDFnRewriter.rewrite(sql));
+      assertEquals(expected, MapDFnRewriter.rewrite(sql));
+    }
+  }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.TColumnType;
+import java.util.Collections;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks which queries are taken for probes and when the validated columns
+ * can be put in select list order without running the query.
+ */
+public class TestQueryDescriber {
+
+  @Test
+  public void probes() {
+    assertTrue(MapDQueryDescriber.isProbe("SELECT a FROM t WHERE 1=0"));
+    assertTrue(MapDQueryDescriber.isProbe("SELECT a FROM t where 0 = 1;"));
+    assertTrue(MapDQueryDescriber.isProbe("SELECT a FROM t WHERE FALSE"));
+    assertTrue(MapDQueryDescriber.isProbe("SELECT a FROM t LIMIT 0"));
+    assertFalse(MapDQueryDescriber.isProbe("SELECT a FROM t WHERE b = 1"));
+    assertFalse(MapDQueryDescriber.isProbe("SELECT a FROM t LIMIT 10"));
+  }
+
+  @Test
+  public void whereAfterSetOperatorIsNoProbe() {
+    assertFalse(MapDQueryDescriber.isProbe("SELECT a FROM t UNION ALL SELECT a FROM u WHERE 1=0"));
+    assertFalse(MapDQueryDescriber.isProbe("SELECT a FROM t\nunion\nSELECT a FROM u WHERE FALSE"));
+    assertFalse(MapDQueryDescriber.isProbe("SELECT a FROM t INTERSECT SELECT a FROM u WHERE 0=1"));
+    assertFalse(MapDQueryDescriber.isProbe("SELECT a FROM t EXCEPT SELECT a FROM u WHERE 1=0"));
+    assertFalse(MapDQueryDescriber.isProbe("SELECT a FROM t MINUS SELECT a FROM u WHERE 1=0"));
+    assertEquals(-1, MapDQueryDescriber.probeStart("SELECT a FROM t UNION ALL SELECT a FROM u WHERE 1=0"));
+  }
+
+  @Test
+  public void setOperatorsOutsideTheTopLevelIgnored() {
+    // a LIMIT applies to the whole union
+    assertTrue(MapDQueryDescriber.isProbe("SELECT a FROM t UNION ALL SELECT a FROM u LIMIT 0"));
+    assertTrue(MapDQueryDescriber.isProbe("SELECT * FROM (SELECT a FROM t UNION SELECT a FROM u) q WHERE 1=0"));
+    assertTrue(MapDQueryDescriber.isProbe("SELECT 'union', \"except\" FROM t WHERE 1=0"));
+    assertTrue(MapDQueryDescriber.isProbe("SELECT a -- union\nFROM t /* minus */ WHERE 1=0"));
+    assertTrue(MapDQueryDescriber.isProbe("SELECT reunion, minus_one FROM t WHERE 1=0"));
+  }
+
+  @Test
+  public void singleColumnShortcut() {
+    Map<String, TColumnType> one = Collections.singletonMap("x", new TColumnType());
+    assertEquals(1, MapDQueryDescriber.order(null, "SELECT x FROM t", one).size());
+    assertEquals(1, MapDQueryDescriber.order(null, "SELECT count(*) FROM t", one).size());
+    assertNull(MapDQueryDescriber.order(null, "SELECT a, a FROM t", one));
+    assertNull(MapDQueryDescriber.order(null, "SELECT t1.x, t2.x FROM t1, t2", one));
+    assertNull(MapDQueryDescriber.order(null, "SELECT t.* FROM t", one));
+  }
+}
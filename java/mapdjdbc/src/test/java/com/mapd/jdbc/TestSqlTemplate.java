@@ -0,0 +1,54 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.jdbc;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Checks which ? are parameters and how values are rendered into the SQL.
+ */
+public class TestSqlTemplate {
+
+  @Test
+  public void skipsQuotedAndCommentedMarkers() {
+    MapDSqlTemplate template = MapDSqlTemplate.compile(
+            "SELECT '?', \"a?\" FROM t WHERE x = ? -- y = ?\nAND z = ? /* ? */");
+    assertEquals(2, template.getParameterCount());
+  }
+
+  @Test
+  public void rendersValues() {
+    MapDSqlTemplate template = MapDSqlTemplate.compile("SELECT * FROM t WHERE a = ? AND b = ? AND c = ?");
+    assertEquals("SELECT * FROM t WHERE a = 'x' AND b = 3 AND c = NULL",
+            template.render(new Object[] {"x", 3, null}, new boolean[] {true, false, true}));
+  }
+
+  @Test
+  public void escapesQuotes() {
+    MapDSqlTemplate template = MapDSqlTemplate.compile("SELECT * FROM t WHERE name = ?");
+    boolean[] quoted = new boolean[] {true};
+    assertEquals("SELECT * FROM t WHERE name = 'O''Brien'",
+            template.render(new Object[] {"O'Brien"}, quoted));
+    assertEquals("SELECT * FROM t WHERE name = 'x'' OR ''1''=''1'",
+            template.render(new Object[] {"x' OR '1'='1"}, quoted));
+    assertEquals("SELECT * FROM t WHERE name = ''''''",
+            template.render(new Object[] {"''"}, quoted));
+    assertEquals("SELECT * FROM t WHERE name = ''",
+            template.render(new Object[] {""}, quoted));
+  }
+}
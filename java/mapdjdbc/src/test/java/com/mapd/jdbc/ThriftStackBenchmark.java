@@ -0,0 +1,161 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.jdbc;
+
+import com.mapd.thrift.server.TColumn;
+import com.mapd.thrift.server.TColumnData;
+import com.mapd.thrift.server.TColumnType;
+import com.mapd.thrift.server.TDatumType;
+import com.mapd.thrift.server.TQueryResult;
+import com.mapd.thrift.server.TRowSet;
+import com.mapd.thrift.server.TTypeInfo;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import org.apache.thrift.TException;
+import org.apache.thrift.protocol.TProtocol;
+import org.apache.thrift.transport.TMemoryBuffer;
+import org.apache.thrift.transport.TMemoryInputTransport;
+import org.apache.thrift.transport.TTransport;
+
+/**
+ * Encodes and decodes a large columnar TQueryResult with every protocol,
+ * framing and compression MapDThriftStack offers and prints the bytes on the
+ * wire and the time each way. Needs no server, run by hand:
+ *
+ *   ThriftStackBenchmark [rows] [iterations]
+ */
+public class ThriftStackBenchmark {
+
+  static final String[] PROTOCOLS = {"binary", "compact", "json"};
+
+  public static void main(String[] args) throws TException {
+    int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+    TQueryResult result = columnarResult(rows);
+
+    System.out.println(String.format("%-30s %12s %10s %10s", "stack", "bytes", "encode ms", "decode ms"));
+    for (String protocol : PROTOCOLS) {
+      for (boolean framed : new boolean[] {false, true}) {
+        for (boolean zlib : new boolean[] {false, true}) {
+          MapDThriftStack stack = new MapDThriftStack(false, protocol, framed, zlib,
+                  MapDThriftStack.DEFAULT_BUFFER_SIZE);
+          run(stack, result, iterations);
+        }
+      }
+    }
+  }
+
+  static void run(MapDThriftStack stack, TQueryResult result, int iterations) throws TException {
+    long encodeNanos = 0;
+    long decodeNanos = 0;
+    int bytes = 0;
+    // the first round warms up
+    for (int i = 0; i <= iterations; i++) {
+      TMemoryBuffer wire = new TMemoryBuffer(64 * 1024 * 1024);
+      long start = System.nanoTime();
+      TTransport out = stack.wrap(wire);
+      result.write(stack.protocol(out));
+      out.flush();
+      long encoded = System.nanoTime();
+
+      bytes = wire.length();
+      TTransport in = stack.wrap(new TMemoryInputTransport(wire.getArray(), 0, bytes));
+      TProtocol protocol = stack.protocol(in);
+      TQueryResult decoded = new TQueryResult();
+      decoded.read(protocol);
+      long end = System.nanoTime();
+
+      if (i > 0) {
+        encodeNanos += encoded - start;
+        decodeNanos += end - encoded;
+      }
+    }
+    System.out.println(String.format("%-30s %12d %10.1f %10.1f", stack, bytes,
+            encodeNanos / 1e6 / iterations, decodeNanos / 1e6 / iterations));
+  }
+
+  static TQueryResult columnarResult(int rows) {
+    Random random = new Random(42);
+    String[] carriers = {"American Airlines", "Delta", "Southwest", "United", "JetBlue", "Alaska"};
+    List<Long> ids = new ArrayList<Long>(rows);
+    List<Long> times = new ArrayList<Long>(rows);
+    List<Double> delays = new ArrayList<Double>(rows);
+    List<String> names = new ArrayList<String>(rows);
+    List<Boolean> nulls = new ArrayList<Boolean>(rows);
+    long time = 1199145600L;
+    for (int i = 0; i < rows; i++) {
+      ids.add((long) i);
+      time += random.nextInt(30);
+      times.add(time);
+      delays.add(random.nextGaussian() * 20);
+      names.add(carriers[random.nextInt(carriers.length)]);
+      nulls.add(false);
+    }
+
+    TRowSet rowSet = new TRowSet();
+    rowSet.setIs_columnar(true);
+    rowSet.setRows(new ArrayList<com.mapd.thrift.server.TRow>());
+    List<TColumnType> desc = new ArrayList<TColumnType>();
+    List<TColumn> columns = new ArrayList<TColumn>();
+    desc.add(columnType("id", TDatumType.BIGINT));
+    columns.add(column(intData(ids), nulls));
+    desc.add(columnType("dep_timestamp", TDatumType.TIMESTAMP));
+    columns.add(column(intData(times), nulls));
+    desc.add(columnType("dep_delay", TDatumType.DOUBLE));
+    TColumnData realData = new TColumnData();
+    realData.setReal_col(delays);
+    columns.add(column(realData, nulls));
+    desc.add(columnType("carrier_name", TDatumType.STR));
+    TColumnData strData = new TColumnData();
+    strData.setStr_col(names);
+    columns.add(column(strData, nulls));
+    rowSet.setRow_desc(desc);
+    rowSet.setColumns(columns);
+
+    TQueryResult result = new TQueryResult();
+    result.setRow_set(rowSet);
+    result.setExecution_time_ms(10);
+    result.setTotal_time_ms(12);
+    result.setNonce("");
+    return result;
+  }
+
+  static TColumnData intData(List<Long> values) {
+    TColumnData data = new TColumnData();
+    data.setInt_col(values);
+    return data;
+  }
+
+  static TColumn column(TColumnData data, List<Boolean> nulls) {
+    TColumn column = new TColumn();
+    column.setData(data);
+    column.setNulls(nulls);
+    return column;
+  }
+
+  static TColumnType columnType(String name, TDatumType type) {
+    TTypeInfo info = new TTypeInfo();
+    info.setType(type);
+    info.setNullable(true);
+    TColumnType columnType = new TColumnType();
+    columnType.setCol_name(name);
+    columnType.setCol_type(info);
+    return columnType;
+  }
+}
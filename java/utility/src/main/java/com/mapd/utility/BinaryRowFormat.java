@@ -0,0 +1,197 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.utility;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TColumnType;
+import com.mapd.thrift.server.TDatum;
+import com.mapd.thrift.server.TDatumVal;
+import com.mapd.thrift.server.TRow;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TimeZone;
+import org.apache.thrift.TException;
+
+/**
+ * Rows of typed values read with the getter matching each target column,
+ * sent with load_table_binary.
+ *
+ * The server takes integers, booleans, times and scaled decimals from
+ * int_val, floating point from real_val and text from str_val. Dates and
+ * times are sent as the seconds of their local wall clock time, which is
+ * what the server stores when it parses the text getString returns, so both
+ * formats load the same data.
+ */
+class BinaryRowFormat implements ImportPipeline.RowFormat<TRow> {
+
+  private static final long SECONDS_PER_DAY = 24 * 60 * 60;
+
+  private final List<TColumnType> columns;
+  private final TimeZone zone = TimeZone.getDefault();
+
+  private BinaryRowFormat(List<TColumnType> columns) {
+    this.columns = columns;
+  }
+
+  /**
+   * The format for loading the source columns into target, or null with the
+   * reason logged when a column has no binary form.
+   */
+  static BinaryRowFormat forColumns(ResultSetMetaData md, List<TColumnType> target) throws SQLException {
+    for (int i = 1; i <= target.size(); i++) {
+      TColumnType column = target.get(i - 1);
+      if (column.col_type.is_array || !supported(column) || !readable(md.getColumnType(i))) {
+        SQLImporter.LOGGER.info("Column " + column.col_name + " of type " + column.col_type.type
+                + (column.col_type.is_array ? "[]" : "") + " from source type " + md.getColumnTypeName(i)
+                + " is loaded as text");
+        return null;
+      }
+    }
+    return new BinaryRowFormat(target);
+  }
+
+  private static boolean supported(TColumnType column) {
+    switch (column.col_type.type) {
+      case BOOL:
+      case SMALLINT:
+      case INT:
+      case BIGINT:
+      case FLOAT:
+      case DOUBLE:
+      case DECIMAL:
+      case STR:
+      case TIME:
+      case TIMESTAMP:
+      case DATE:
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  private static boolean readable(int sqlType) {
+    switch (sqlType) {
+      case Types.ARRAY:
+      case Types.BINARY:
+      case Types.BLOB:
+      case Types.DATALINK:
+      case Types.DISTINCT:
+      case Types.JAVA_OBJECT:
+      case Types.LONGVARBINARY:
+      case Types.OTHER:
+      case Types.REF:
+      case Types.SQLXML:
+      case Types.STRUCT:
+      case Types.VARBINARY:
+        return false;
+      default:
+        return true;
+    }
+  }
+
+  @Override
+  public TRow read(ResultSet rs, TRow row) throws SQLException {
+    if (row == null) {
+      row = new TRow(new ArrayList<TDatum>(columns.size()));
+      for (int i = 0; i < columns.size(); i++) {
+        TDatum datum = new TDatum();
+        datum.setVal(new TDatumVal());
+        row.addToCols(datum);
+      }
+    }
+    for (int i = 1; i <= columns.size(); i++) {
+      TDatum datum = row.cols.get(i - 1);
+      TDatumVal val = datum.val;
+      TColumnType column = columns.get(i - 1);
+      switch (column.col_type.type) {
+        case BOOL:
+          val.setInt_val(rs.getBoolean(i) ? 1 : 0);
+          break;
+        case SMALLINT:
+        case INT:
+        case BIGINT:
+          val.setInt_val(rs.getLong(i));
+          break;
+        case FLOAT:
+        case DOUBLE:
+          val.setReal_val(rs.getDouble(i));
+          break;
+        case DECIMAL:
+          BigDecimal decimal = rs.getBigDecimal(i);
+          if (decimal != null) {
+            val.setInt_val(decimal.setScale(column.col_type.scale, RoundingMode.HALF_UP).unscaledValue().longValue());
+          }
+          break;
+        case STR:
+          val.setStr_val(rs.getString(i));
+          break;
+        case TIME:
+          java.util.Date time = rs.getTime(i);
+          if (time != null) {
+            val.setInt_val(floorMod(wallClockSeconds(time), SECONDS_PER_DAY));
+          }
+          break;
+        case TIMESTAMP:
+          java.util.Date timestamp = rs.getTimestamp(i);
+          if (timestamp != null) {
+            val.setInt_val(wallClockSeconds(timestamp));
+          }
+          break;
+        case DATE:
+          java.util.Date date = rs.getDate(i);
+          if (date != null) {
+            val.setInt_val(wallClockSeconds(date));
+          }
+          break;
+        default:
+          throw new SQLException("Binary load of " + column.col_type.type + " values is not supported");
+      }
+      datum.setIs_null(rs.wasNull());
+    }
+    return row;
+  }
+
+  @Override
+  public void load(MapD.Client client, String session, String table, List<TRow> rows) throws TException {
+    client.load_table_binary(session, table, rows);
+  }
+
+  private long wallClockSeconds(java.util.Date value) {
+    long millis = value.getTime();
+    millis += zone.getOffset(millis);
+    return floorDiv(millis, 1000);
+  }
+
+  private static long floorDiv(long x, long y) {
+    long q = x / y;
+    if ((x % y != 0) && ((x < 0) != (y < 0))) {
+      q--;
+    }
+    return q;
+  }
+
+  private static long floorMod(long x, long y) {
+    return x - floorDiv(x, y) * y;
+  }
+}
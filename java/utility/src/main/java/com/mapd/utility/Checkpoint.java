@@ -0,0 +1,175 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.utility;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigDecimal;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Time;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.Properties;
+
+/**
+ * The watermark of an import, the highest value of a monotonic source
+ * column, such as a key or a timestamp, up to which every row is loaded.
+ *
+ * It is kept in a properties file with the table and column it belongs to.
+ * Each save writes a new file, syncs it to disk and moves it over the old
+ * one, so a crash leaves either the previous or the new watermark.
+ *
+ * The watermark is saved after its rows are loaded, and a crash in between
+ * loads those rows again on resume, so rows are loaded at least once.
+ */
+class Checkpoint {
+
+  private final File file;
+  private final String table;
+  private final String column;
+
+  Checkpoint(File file, String table, String column) {
+    this.file = file;
+    this.table = table;
+    this.column = column;
+  }
+
+  /**
+   * The saved watermark, or null when nothing was saved yet.
+   */
+  Object load() throws IOException {
+    if (!file.exists()) {
+      return null;
+    }
+    Properties props = new Properties();
+    InputStream in = new FileInputStream(file);
+    try {
+      props.load(in);
+    } finally {
+      in.close();
+    }
+    if (!table.equals(props.getProperty("table")) || !column.equalsIgnoreCase(props.getProperty("column"))) {
+      throw new IOException("Checkpoint " + file + " is for table " + props.getProperty("table") + " column "
+              + props.getProperty("column"));
+    }
+    String type = props.getProperty("type");
+    String value = props.getProperty("watermark");
+    if (value == null) {
+      return null;
+    }
+    try {
+      if (type.equals("long")) {
+        return Long.valueOf(value);
+      } else if (type.equals("decimal")) {
+        return new BigDecimal(value);
+      } else if (type.equals("timestamp")) {
+        return Timestamp.valueOf(value);
+      } else if (type.equals("date")) {
+        return Date.valueOf(value);
+      } else if (type.equals("time")) {
+        return Time.valueOf(value);
+      }
+      return value;
+    } catch (IllegalArgumentException ex) {
+      throw new IOException("Checkpoint " + file + " has an invalid " + type + " watermark " + value);
+    }
+  }
+
+  void save(Object watermark, long rows) throws IOException {
+    Properties props = new Properties();
+    props.setProperty("table", table);
+    props.setProperty("column", column);
+    props.setProperty("type", type(watermark));
+    props.setProperty("watermark", watermark.toString());
+    props.setProperty("rows", String.valueOf(rows));
+    File temp = new File(file.getPath() + ".tmp");
+    FileOutputStream out = new FileOutputStream(temp);
+    try {
+      props.store(out, "SQLImporter checkpoint");
+      out.getFD().sync();
+    } finally {
+      out.close();
+    }
+    try {
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException ex) {
+      // still replaces the old file in one step on the file systems that get here
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  @Override
+  public String toString() {
+    return file.getPath();
+  }
+
+  /**
+   * The watermark column of the current row, as a comparable value that
+   * can be saved and bound as a query parameter.
+   */
+  static Object value(ResultSet rs, int index, int sqlType) throws SQLException {
+    Object value;
+    switch (sqlType) {
+      case Types.TINYINT:
+      case Types.SMALLINT:
+      case Types.INTEGER:
+      case Types.BIGINT:
+        value = rs.getLong(index);
+        break;
+      case Types.DECIMAL:
+      case Types.NUMERIC:
+        value = rs.getBigDecimal(index);
+        break;
+      case Types.TIMESTAMP:
+        value = rs.getTimestamp(index);
+        break;
+      case Types.DATE:
+        value = rs.getDate(index);
+        break;
+      case Types.TIME:
+        value = rs.getTime(index);
+        break;
+      default:
+        value = rs.getString(index);
+    }
+    return rs.wasNull() ? null : value;
+  }
+
+  private static String type(Object value) {
+    if (value instanceof Long) {
+      return "long";
+    } else if (value instanceof BigDecimal) {
+      return "decimal";
+    } else if (value instanceof Timestamp) {
+      return "timestamp";
+    } else if (value instanceof Date) {
+      return "date";
+    } else if (value instanceof Time) {
+      return "time";
+    }
+    return "string";
+  }
+}
@@ -0,0 +1,386 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.utility;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TMapDException;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import org.apache.thrift.TException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Moves rows from source result sets into a MapD table.
+ *
+ * Each reader thread reads one result set and turns its rows into batches
+ * in the RowFormat given. The batches go through a bounded queue to loader
+ * threads, each with its own MapD session, so reading and loading overlap
+ * and a slow side holds up the other only once the queue is full or empty.
+ * Loaded batches go back to the readers, which fill the same row objects
+ * again. The first failure stops every thread.
+ *
+ * With a checkpoint there is one reader, whose query is ordered by the
+ * watermark column, and one loader, so batches are loaded in order. Batches
+ * end only between different watermarks and the checkpoint is saved after
+ * each one is loaded. A crash between loading a batch and saving its
+ * watermark loads the batch again on resume, rows are loaded at least once.
+ *
+ * Progress is logged every REPORT_INTERVAL_MS with the throughput of each
+ * stage and how long readers waited for room in the queue, meaning loading
+ * is the bottleneck, and loaders waited for batches, meaning reading is.
+ */
+class ImportPipeline<R> {
+
+  final static Logger LOGGER = LoggerFactory.getLogger(ImportPipeline.class);
+
+  static final long REPORT_INTERVAL_MS = 10000;
+
+  /**
+   * How rows are built from a result set and sent to MapD.
+   */
+  interface RowFormat<R> {
+
+    /**
+     * The current row of rs, written into row when it is not null.
+     */
+    R read(ResultSet rs, R row) throws SQLException;
+
+    void load(MapD.Client client, String session, String table, List<R> rows) throws TException;
+  }
+
+  private final SQLImporter importer;
+  private final RowFormat<R> format;
+  private final String table;
+  private final int bufferSize;
+  private final BlockingQueue<Batch<R>> queue;
+  // loaded batches, their rows are filled again by the readers
+  private final ConcurrentLinkedQueue<List<R>> free = new ConcurrentLinkedQueue<List<R>>();
+  private final List<Thread> readers = new ArrayList<Thread>();
+  private final List<Thread> loaders = new ArrayList<Thread>();
+
+  private volatile boolean readersDone = false;
+  private volatile boolean stopped = false;
+  // the first failure, guarded by this
+  private Exception failure = null;
+
+  private final AtomicLong rowsRead = new AtomicLong();
+  private final AtomicLong rowsLoaded = new AtomicLong();
+  private final AtomicLong batchesLoaded = new AtomicLong();
+  private final AtomicLong readNanos = new AtomicLong();
+  private final AtomicLong loadNanos = new AtomicLong();
+  private final AtomicLong readerWaitNanos = new AtomicLong();
+  private final AtomicLong loaderWaitNanos = new AtomicLong();
+
+  // set when the import keeps a checkpoint
+  private Checkpoint checkpoint = null;
+  private int watermarkIndex = 0;
+  private int watermarkType = 0;
+  private long rowsCommitted = 0;
+
+  ImportPipeline(SQLImporter importer, RowFormat<R> format, String table, int bufferSize, int queueDepth) {
+    this.importer = importer;
+    this.format = format;
+    this.table = table;
+    this.bufferSize = bufferSize;
+    this.queue = new ArrayBlockingQueue<Batch<R>>(queueDepth);
+  }
+
+  /**
+   * Save the watermark, column index of the source rows with the given
+   * java.sql.Types type, to checkpoint as rows are loaded. Needs a single
+   * reader ordered by the watermark and a single loader.
+   */
+  void setCheckpoint(Checkpoint checkpoint, int index, int sqlType) {
+    this.checkpoint = checkpoint;
+    this.watermarkIndex = index;
+    this.watermarkType = sqlType;
+  }
+
+  /**
+   * Read an already executed query, closing rs, stmt and conn when done.
+   */
+  void addReader(final Connection conn, final Statement stmt, final ResultSet rs) {
+    readers.add(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          read(rs);
+        } catch (Exception ex) {
+          fail(ex);
+        } finally {
+          close(conn, stmt, rs);
+        }
+      }
+    }, "sqlimporter-reader-" + readers.size()));
+  }
+
+  /**
+   * Run query on a connection of its own and read it.
+   */
+  void addReader(final String query) {
+    readers.add(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        try {
+          conn = importer.openSourceConnection();
+          stmt = conn.createStatement();
+          LOGGER.debug("Reading " + query);
+          rs = stmt.executeQuery(query);
+          read(rs);
+        } catch (Exception ex) {
+          fail(ex);
+        } finally {
+          close(conn, stmt, rs);
+        }
+      }
+    }, "sqlimporter-reader-" + readers.size()));
+  }
+
+  /**
+   * Load batches over client with session, disconnecting it when done.
+   */
+  void addLoader(final MapD.Client client, final String session) {
+    loaders.add(new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          load(client, session);
+        } catch (Exception ex) {
+          fail(ex);
+        } finally {
+          try {
+            client.disconnect(session);
+          } catch (TException ex) {
+            LOGGER.debug("Disconnect failed - " + ex.toString());
+          }
+        }
+      }
+    }, "sqlimporter-loader-" + loaders.size()));
+  }
+
+  /**
+   * Run every reader and loader to the end, returning the first failure or
+   * null.
+   */
+  Exception run() {
+    if (checkpoint != null && (readers.size() != 1 || loaders.size() != 1)) {
+      throw new IllegalStateException("A checkpoint needs one reader and one loader");
+    }
+    long start = System.nanoTime();
+    for (Thread t : loaders) {
+      t.start();
+    }
+    for (Thread t : readers) {
+      t.start();
+    }
+    long nextReport = start + TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL_MS);
+    try {
+      for (Thread t : readers) {
+        while (t.isAlive()) {
+          t.join(1000);
+          if (System.nanoTime() >= nextReport) {
+            LOGGER.info(progress(System.nanoTime() - start));
+            nextReport += TimeUnit.MILLISECONDS.toNanos(REPORT_INTERVAL_MS);
+          }
+        }
+      }
+      readersDone = true;
+      for (Thread t : loaders) {
+        t.join();
+      }
+    } catch (InterruptedException ex) {
+      fail(ex);
+    }
+    LOGGER.info("Finished " + progress(System.nanoTime() - start));
+    return getFailure();
+  }
+
+  String progress(long elapsedNanos) {
+    double seconds = Math.max(elapsedNanos, 1) / 1e9;
+    return "read " + rowsRead.get() + " rows by " + readers.size() + " readers ("
+            + rate(rowsRead.get(), readNanos.get(), readers.size()) + " rows/s busy, "
+            + millis(readerWaitNanos.get()) + "ms waiting for loaders), loaded " + rowsLoaded.get() + " rows in "
+            + batchesLoaded.get() + " batches by " + loaders.size() + " loaders ("
+            + rate(rowsLoaded.get(), loadNanos.get(), loaders.size()) + " rows/s busy, "
+            + millis(loaderWaitNanos.get()) + "ms waiting for readers), " + queue.size() + " batches queued, "
+            + Math.round(rowsLoaded.get() / seconds) + " rows/s overall";
+  }
+
+  long getRowsLoaded() {
+    return rowsLoaded.get();
+  }
+
+  private void read(ResultSet rs) throws SQLException, InterruptedException {
+    List<R> rows = batch();
+    int count = 0;
+    Object watermark = null;
+    Object batchWatermark = null;
+    long started = System.nanoTime();
+    while (!stopped && rs.next()) {
+      Object previous = watermark;
+      if (checkpoint != null) {
+        watermark = Checkpoint.value(rs, watermarkIndex, watermarkType);
+      }
+      // rows with the same watermark stay in one batch so a saved watermark covers all of them
+      if (count >= bufferSize && (checkpoint == null || !same(watermark, previous))) {
+        readNanos.addAndGet(System.nanoTime() - started);
+        put(rows, count, batchWatermark);
+        rows = batch();
+        count = 0;
+        batchWatermark = null;
+        started = System.nanoTime();
+      }
+      if (count < rows.size()) {
+        format.read(rs, rows.get(count));
+      } else {
+        rows.add(format.read(rs, null));
+      }
+      count++;
+      if (watermark != null) {
+        batchWatermark = watermark;
+      }
+    }
+    readNanos.addAndGet(System.nanoTime() - started);
+    if (count > 0) {
+      put(rows, count, batchWatermark);
+    }
+  }
+
+  private List<R> batch() {
+    List<R> rows = free.poll();
+    return rows != null ? rows : new ArrayList<R>(bufferSize);
+  }
+
+  private void put(List<R> rows, int count, Object watermark) throws InterruptedException {
+    // a recycled batch can hold more rows than were read into it, a short last
+    // batch or a full one after a batch that grew over a run of equal watermarks
+    rows.subList(count, rows.size()).clear();
+    Batch<R> batch = new Batch<R>(rows, count, watermark);
+    long waitStart = System.nanoTime();
+    while (!queue.offer(batch, 100, TimeUnit.MILLISECONDS)) {
+      if (stopped) {
+        return;
+      }
+    }
+    readerWaitNanos.addAndGet(System.nanoTime() - waitStart);
+    rowsRead.addAndGet(count);
+  }
+
+  private void load(MapD.Client client, String session) throws TException, InterruptedException, IOException {
+    while (!stopped) {
+      long waitStart = System.nanoTime();
+      // checked before polling so the last batches are still taken
+      boolean last = readersDone;
+      Batch<R> batch = queue.poll(100, TimeUnit.MILLISECONDS);
+      loaderWaitNanos.addAndGet(System.nanoTime() - waitStart);
+      if (batch == null) {
+        if (last) {
+          return;
+        }
+        continue;
+      }
+      long loadStart = System.nanoTime();
+      format.load(client, session, table, batch.rows);
+      loadNanos.addAndGet(System.nanoTime() - loadStart);
+      rowsLoaded.addAndGet(batch.count);
+      free.add(batch.rows);
+      if (checkpoint != null) {
+        rowsCommitted += batch.count;
+        if (batch.watermark != null) {
+          checkpoint.save(batch.watermark, rowsCommitted);
+        }
+      }
+      long batches = batchesLoaded.incrementAndGet();
+      if (batches % 100 == 0) {
+        LOGGER.debug("Loaded " + batches + " batches");
+      }
+    }
+  }
+
+  private static boolean same(Object a, Object b) {
+    return a == null ? b == null : a.equals(b);
+  }
+
+  private synchronized void fail(Exception ex) {
+    if (failure == null) {
+      failure = ex;
+      stopped = true;
+      if (ex instanceof TMapDException) {
+        LOGGER.error("Import failed - " + ((TMapDException) ex).getError_msg());
+      } else {
+        LOGGER.error("Import failed - " + ex.toString());
+      }
+    }
+  }
+
+  private synchronized Exception getFailure() {
+    return failure;
+  }
+
+  private static void close(Connection conn, Statement stmt, ResultSet rs) {
+    try {
+      if (rs != null) {
+        rs.close();
+      }
+      if (stmt != null) {
+        stmt.close();
+      }
+      if (conn != null) {
+        conn.close();
+      }
+    } catch (SQLException ex) {
+      LOGGER.debug("Close failed - " + ex.toString());
+    }
+  }
+
+  private static long rate(long rows, long nanos, int threads) {
+    // busy time is summed over the threads of the stage
+    return nanos == 0 ? 0 : Math.round(rows * threads / (nanos / 1e9));
+  }
+
+  private static long millis(long nanos) {
+    return TimeUnit.NANOSECONDS.toMillis(nanos);
+  }
+
+  private static final class Batch<R> {
+
+    private final List<R> rows;
+    private final int count;
+    private final Object watermark;
+
+    private Batch(List<R> rows, int count, Object watermark) {
+      this.rows = rows;
+      this.count = count;
+      this.watermark = watermark;
+    }
+  }
+}
@@ -19,11 +19,14 @@ package com.mapd.utility;
 import com.mapd.thrift.server.MapD;
 import com.mapd.thrift.server.TColumnType;
 import com.mapd.thrift.server.TQueryResult;
-import com.mapd.thrift.server.TStringRow;
-import com.mapd.thrift.server.TStringValue;
 import com.mapd.thrift.server.TTableDetails;
 import com.mapd.thrift.server.TMapDException;
 import static java.lang.System.exit;
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.math.RoundingMode;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -153,6 +156,57 @@ public class SQLImporter {
             .longOpt("truncate")
             .build();
 
+    Option partitionColumn = Option.builder("pc")
+            .hasArg()
+            .desc("Numeric source column to split the query into ranges on")
+            .longOpt("partitionColumn")
+            .build();
+
+    Option partitions = Option.builder("pn")
+            .hasArg()
+            .desc("Number of ranges read in parallel, each on its own connection")
+            .longOpt("partitions")
+            .build();
+
+    Option loaderThreads = Option.builder("lt")
+            .hasArg()
+            .desc("Number of MapD sessions loading in parallel")
+            .longOpt("loaderThreads")
+            .build();
+
+    Option textLoad = Option.builder("txt")
+            .desc("Send rows as text with load_table rather than typed with load_table_binary")
+            .longOpt("textLoad")
+            .build();
+
+    Option watermarkColumn = Option.builder("wc")
+            .hasArg()
+            .desc("Source column that only grows, a key or timestamp, to checkpoint the import on")
+            .longOpt("watermarkColumn")
+            .build();
+
+    Option checkpointFile = Option.builder("cf")
+            .hasArg()
+            .desc("File recording the watermark of the rows loaded so far")
+            .longOpt("checkpointFile")
+            .build();
+
+    Option resume = Option.builder("rs")
+            .desc("Continue a failed import after the rows of its checkpoint")
+            .longOpt("resume")
+            .build();
+
+    Option incremental = Option.builder("inc")
+            .desc("Load only the rows above the watermark of the checkpoint")
+            .longOpt("incremental")
+            .build();
+
+    Option queueDepth = Option.builder("qd")
+            .hasArg()
+            .desc("Batches buffered between readers and loaders")
+            .longOpt("queueDepth")
+            .build();
+
     options.addOption(driver);
     options.addOption(sqlStmt);
     options.addOption(jdbcConnect);
@@ -167,6 +221,15 @@ public class SQLImporter {
     options.addOption(bufferSize);
     options.addOption(fragmentSize);
     options.addOption(truncate);
+    options.addOption(partitionColumn);
+    options.addOption(partitions);
+    options.addOption(loaderThreads);
+    options.addOption(queueDepth);
+    options.addOption(textLoad);
+    options.addOption(watermarkColumn);
+    options.addOption(checkpointFile);
+    options.addOption(resume);
+    options.addOption(incremental);
 
     CommandLineParser parser = new DefaultParser();
 
@@ -188,81 +251,74 @@ public class SQLImporter {
 
     try {
       //Open a connection
-      LOGGER.info("Connecting to database url :" + cmd.getOptionValue("jdbcConnect"));
-      conn = DriverManager.getConnection(cmd.getOptionValue("jdbcConnect"),
-              cmd.getOptionValue("sourceUser"),
-              cmd.getOptionValue("sourcePasswd"));
+      conn = openSourceConnection();
 
       long startTime = System.currentTimeMillis();
 
+      Checkpoint checkpoint = checkpoint();
+      Object since = null;
+      if (checkpoint != null && (cmd.hasOption("resume") || cmd.hasOption("incremental"))) {
+        since = checkpoint.load();
+        if (since == null && cmd.hasOption("resume")) {
+          LOGGER.error("No checkpoint to resume from in " + checkpoint);
+          exit(1);
+        }
+        LOGGER.info(since == null ? "No checkpoint yet, loading all rows"
+                : "Loading rows with " + cmd.getOptionValue("watermarkColumn") + " above " + since);
+      }
+
+      List<String> queries = partitionQueries(conn, checkpoint != null, since != null);
+
       //Execute a query
-      stmt = conn.createStatement();
+      PreparedStatement ps = conn.prepareStatement(queries.get(0));
+      stmt = ps;
+      if (since != null) {
+        ps.setObject(1, since);
+      }
 
-      long timer;
-      ResultSet rs = stmt.executeQuery(cmd.getOptionValue("sqlStmt"));
+      ResultSet rs = ps.executeQuery();
 
       //check if table already exists and is compatible in MapD with the query metadata
       ResultSetMetaData md = rs.getMetaData();
-      checkMapDTable(md);
+      List<TColumnType> columns = checkMapDTable(md);
 
-      timer = System.currentTimeMillis();
-
-      long resultCount = 0;
-      int bufferCount = 0;
-      long total = 0;
       int bufferSize = Integer.valueOf(cmd.getOptionValue("bufferSize", "10000"));
+      int loaderThreads = Integer.valueOf(cmd.getOptionValue("loaderThreads", "1"));
+      int queueDepth = Integer.valueOf(cmd.getOptionValue("queueDepth", String.valueOf(2 * loaderThreads)));
+      ImportPipeline<?> pipeline = newPipeline(rowFormat(md, columns), bufferSize, Math.max(queueDepth, 1));
+      if (checkpoint != null) {
+        int index = watermarkIndex(md);
+        pipeline.setCheckpoint(checkpoint, index, md.getColumnType(index));
+      }
 
-      List<TStringRow> rows = new ArrayList(bufferSize);
-      while (rs.next()) {
-        TStringRow tsr = new TStringRow();
-        for (int i = 1; i <= md.getColumnCount(); i++) {
-          // place string in rows array
-          TStringValue tsv = new TStringValue();
-          tsv.str_val = rs.getString(i);
-          if (rs.wasNull()) {
-            tsv.is_null = true;
-          } else {
-            tsv.is_null = false;
-          }
-          tsr.addToCols(tsv);
-        }
-        rows.add(tsr);
-
-        resultCount++;
-        bufferCount++;
-        if (bufferCount == bufferSize) {
-          bufferCount = 0;
-          //send the buffer to mapD
-          client.load_table(session, cmd.getOptionValue("targetTable"), rows);
-          rows.clear();
-          if (resultCount % 100000 == 0) {
-            LOGGER.info("Imported " + resultCount + " records");
-          }
-        }
+      // the first range is read over the connection already open
+      pipeline.addReader(conn, stmt, rs);
+      conn = null;
+      stmt = null;
+      for (int i = 1; i < queries.size(); i++) {
+        pipeline.addReader(queries.get(i));
       }
-      if (bufferCount > 0) {
-        //send the LAST buffer to mapD
-        client.load_table(session, cmd.getOptionValue("targetTable"), rows);
-        rows.clear();
-        bufferCount = 0;
+      // the session that checked the table loads too
+      pipeline.addLoader(client, session);
+      for (int i = 1; i < loaderThreads; i++) {
+        createMapDConnection();
+        pipeline.addLoader(client, session);
       }
-      LOGGER.info("result set count is " + resultCount + " read time is " + (System.currentTimeMillis() - timer) + "ms");
 
-      //Clean-up environment
-      rs.close();
-      stmt.close();
+      Exception failure = pipeline.run();
 
       totalTime = System.currentTimeMillis() - startTime;
-      conn.close();
+      if (failure != null) {
+        LOGGER.error("Import stopped after " + pipeline.getRowsLoaded() + " records");
+        exit(1);
+      }
+      LOGGER.info("result set count is " + pipeline.getRowsLoaded() + " total time is " + totalTime + "ms");
     } catch (SQLException se) {
       LOGGER.error("SQLException - " + se.toString());
       se.printStackTrace();
-    } catch (TMapDException ex) {
-      LOGGER.error("TMapDException - " + ex.toString());
-      ex.printStackTrace();
-    } catch (TException ex) {
-      LOGGER.error("TException failed - " + ex.toString());
-      ex.printStackTrace();
+    } catch (IOException ex) {
+      LOGGER.error("Checkpoint failed - " + ex.toString());
+      exit(1);
     } finally {
       //finally block used to close resources
       try {
@@ -282,13 +338,141 @@ public class SQLImporter {
     }//end try
   }
 
+  Connection openSourceConnection() throws SQLException {
+    LOGGER.info("Connecting to database url :" + cmd.getOptionValue("jdbcConnect"));
+    return DriverManager.getConnection(cmd.getOptionValue("jdbcConnect"),
+            cmd.getOptionValue("sourceUser"),
+            cmd.getOptionValue("sourcePasswd"));
+  }
+
+  /**
+   * The checkpoint of the import or null when it keeps none. A checkpoint
+   * needs the rows in watermark order, so one reader and one loader.
+   */
+  private Checkpoint checkpoint() {
+    String column = cmd.getOptionValue("watermarkColumn");
+    String file = cmd.getOptionValue("checkpointFile");
+    boolean continues = cmd.hasOption("resume") || cmd.hasOption("incremental");
+    if (column == null && file == null && !continues) {
+      return null;
+    }
+    if (column == null || file == null) {
+      LOGGER.error("A checkpoint needs both --watermarkColumn and --checkpointFile");
+      exit(1);
+    }
+    if (continues && cmd.hasOption("truncate")) {
+      LOGGER.error("--resume and --incremental add to the table and cannot be used with --truncate");
+      exit(1);
+    }
+    if (Integer.valueOf(cmd.getOptionValue("partitions", "1")) > 1
+            || Integer.valueOf(cmd.getOptionValue("loaderThreads", "1")) > 1) {
+      LOGGER.error("A checkpoint needs the rows in order, --partitions and --loaderThreads must be 1");
+      exit(1);
+    }
+    return new Checkpoint(new File(file), cmd.getOptionValue("targetTable"), column);
+  }
+
+  private int watermarkIndex(ResultSetMetaData md) throws SQLException {
+    String column = cmd.getOptionValue("watermarkColumn");
+    for (int i = 1; i <= md.getColumnCount(); i++) {
+      if (md.getColumnLabel(i).equalsIgnoreCase(column)) {
+        return i;
+      }
+    }
+    throw new SQLException("Watermark column " + column + " is not selected by the source query");
+  }
+
+  /**
+   * The source query, or with partitionColumn set the source query split
+   * into that many ranges of the column's values. The first range also
+   * holds the rows where the column is null.
+   *
+   * With a checkpoint the query is ordered by the watermark column, and
+   * with filtered set only selects the rows above the watermark bound as
+   * its parameter.
+   */
+  List<String> partitionQueries(Connection conn, boolean checkpointed, boolean filtered) throws SQLException {
+    String sql = cmd.getOptionValue("sqlStmt");
+    List<String> queries = new ArrayList<String>();
+    int partitions = Integer.valueOf(cmd.getOptionValue("partitions", "1"));
+    String column = cmd.getOptionValue("partitionColumn");
+    if (checkpointed) {
+      String watermark = cmd.getOptionValue("watermarkColumn");
+      queries.add("SELECT * FROM (" + sql + ") w" + (filtered ? " WHERE " + watermark + " > ?" : "")
+              + " ORDER BY " + watermark);
+      return queries;
+    }
+    if (column == null || partitions <= 1) {
+      queries.add(sql);
+      return queries;
+    }
+    // no AS before the alias, Oracle does not take one
+    String source = "SELECT * FROM (" + sql + ") q";
+    BigInteger low;
+    BigInteger high;
+    Statement stmt = conn.createStatement();
+    try {
+      ResultSet rs = stmt.executeQuery("SELECT MIN(" + column + "), MAX(" + column + ") FROM (" + sql + ") q");
+      rs.next();
+      BigDecimal min = rs.getBigDecimal(1);
+      BigDecimal max = rs.getBigDecimal(2);
+      rs.close();
+      if (min == null || max == null) {
+        queries.add(sql);
+        return queries;
+      }
+      low = min.setScale(0, RoundingMode.FLOOR).toBigIntegerExact();
+      high = max.setScale(0, RoundingMode.FLOOR).toBigIntegerExact();
+    } finally {
+      stmt.close();
+    }
+    BigInteger span = high.subtract(low).add(BigInteger.ONE);
+    if (span.compareTo(BigInteger.valueOf(partitions)) < 0) {
+      partitions = span.intValue();
+    }
+    String lastBound = null;
+    for (int i = 1; i <= partitions; i++) {
+      String where;
+      if (i < partitions) {
+        String bound = low.add(span.multiply(BigInteger.valueOf(i)).divide(BigInteger.valueOf(partitions))).toString();
+        where = lastBound == null
+                ? column + " < " + bound + " OR " + column + " IS NULL"
+                : column + " >= " + lastBound + " AND " + column + " < " + bound;
+        lastBound = bound;
+      } else {
+        where = lastBound == null ? "1 = 1" : column + " >= " + lastBound;
+      }
+      queries.add(source + " WHERE " + where);
+    }
+    LOGGER.info("Reading " + queries.size() + " ranges of " + column + " from " + low + " to " + high);
+    return queries;
+  }
+
+  private ImportPipeline.RowFormat<?> rowFormat(ResultSetMetaData md, List<TColumnType> columns)
+          throws SQLException {
+    if (!cmd.hasOption("textLoad")) {
+      BinaryRowFormat binary = BinaryRowFormat.forColumns(md, columns);
+      if (binary != null) {
+        return binary;
+      }
+    }
+    return new TextRowFormat(md.getColumnCount());
+  }
+
+  private <R> ImportPipeline<R> newPipeline(ImportPipeline.RowFormat<R> format, int bufferSize, int queueDepth) {
+    return new ImportPipeline<R>(this, format, cmd.getOptionValue("targetTable"), bufferSize, queueDepth);
+  }
+
   private void help(Options options) {
     // automatically generate the help statement
     HelpFormatter formatter = new HelpFormatter();
     formatter.printHelp("SQLImporter", options);
   }
 
-  private void checkMapDTable(ResultSetMetaData md) throws SQLException {
+  /**
+   * Make sure the target table exists and matches md, returning its columns.
+   */
+  private List<TColumnType> checkMapDTable(ResultSetMetaData md) throws SQLException {
     createMapDConnection();
     String tName = cmd.getOptionValue("targetTable");
 
@@ -313,10 +497,12 @@ public class SQLImporter {
             exit(1);
           }
         }
+        return columnInfo;
       }
     } else {
       createMapDTable(md);
     }
+    return getColumnInfo(tName);
   }
 
   private void createMapDTable(ResultSetMetaData metaData) {
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.mapd.utility;
+
+import com.mapd.thrift.server.MapD;
+import com.mapd.thrift.server.TStringRow;
+import com.mapd.thrift.server.TStringValue;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import org.apache.thrift.TException;
+
+/**
+ * Rows as the text of each value, sent with load_table. Used when a column
+ * has no binary form.
+ */
+class TextRowFormat implements ImportPipeline.RowFormat<TStringRow> {
+
+  private final int columnCount;
+
+  TextRowFormat(int columnCount) {
+    this.columnCount = columnCount;
+  }
+
+  @Override
+  public TStringRow read(ResultSet rs, TStringRow row) throws SQLException {
+    if (row == null) {
+      row = new TStringRow(new ArrayList<TStringValue>(columnCount));
+      for (int i = 0; i < columnCount; i++) {
+        row.addToCols(new TStringValue());
+      }
+    }
+    for (int i = 1; i <= columnCount; i++) {
+      // place string in rows array
+      TStringValue tsv = row.cols.get(i - 1);
+      tsv.str_val = rs.getString(i);
+      tsv.is_null = rs.wasNull();
+    }
+    return row;
+  }
+
+  @Override
+  public void load(MapD.Client client, String session, String table, List<TStringRow> rows) throws TException {
+    client.load_table(session, table, rows);
+  }
+}
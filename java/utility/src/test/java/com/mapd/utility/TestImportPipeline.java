@@ -0,0 +1,141 @@
+/*
+ * Copyright 2017 MapD Technologies, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.mapd.utility;
+
+import com.mapd.thrift.server.MapD;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+import org.junit.Test;
+
+/**
+ * Runs the pipeline from an in memory sqlite table into a format that only
+ * records the ids it is asked to load.
+ */
+public class TestImportPipeline {
+
+  private static final int BUFFER_SIZE = 10;
+
+  /**
+   * Runs of equal watermarks longer than a batch grow its row list, which is
+   * then filled again for later, full size batches.
+   */
+  @Test
+  public void checkpointedRowsLoadedOnce() throws Exception {
+    File file = File.createTempFile("checkpoint", ".properties");
+    file.delete();
+    try {
+      Connection conn = DriverManager.getConnection("jdbc:sqlite::memory:");
+      int rows = fill(conn);
+      Statement stmt = conn.createStatement();
+      ResultSet rs = stmt.executeQuery("SELECT id, wm FROM src ORDER BY wm, id");
+
+      Checkpoint checkpoint = new Checkpoint(file, "dst", "wm");
+      RecordingFormat format = new RecordingFormat();
+      ImportPipeline<long[]> pipeline = new ImportPipeline<long[]>(null, format, "dst", BUFFER_SIZE, 2);
+      pipeline.setCheckpoint(checkpoint, 2, Types.BIGINT);
+      pipeline.addReader(conn, stmt, rs);
+      pipeline.addLoader(new Client(), "session");
+      assertNull(pipeline.run());
+
+      List<Long> loaded = format.ids();
+      Collections.sort(loaded);
+      assertEquals(rows, loaded.size());
+      for (int i = 0; i < rows; i++) {
+        assertEquals(i, loaded.get(i).longValue());
+      }
+      assertEquals(rows, pipeline.getRowsLoaded());
+      assertEquals(lastWatermark(rows), checkpoint.load());
+    } finally {
+      file.delete();
+    }
+  }
+
+  // blocks of 15 rows sharing a watermark then 10 with a watermark each
+  private static int fill(Connection conn) throws SQLException {
+    conn.createStatement().execute("CREATE TABLE src (id INTEGER, wm INTEGER)");
+    PreparedStatement insert = conn.prepareStatement("INSERT INTO src VALUES (?, ?)");
+    int id = 0;
+    long wm = 0;
+    for (int block = 0; block < 200; block++) {
+      wm++;
+      for (int i = 0; i < 15; i++) {
+        insert.setInt(1, id++);
+        insert.setLong(2, wm);
+        insert.addBatch();
+      }
+      for (int i = 0; i < 10; i++) {
+        insert.setInt(1, id++);
+        insert.setLong(2, ++wm);
+        insert.addBatch();
+      }
+    }
+    insert.executeBatch();
+    return id;
+  }
+
+  private static long lastWatermark(int rows) {
+    return rows / 25 * 11;
+  }
+
+  private static final class RecordingFormat implements ImportPipeline.RowFormat<long[]> {
+
+    private final List<Long> ids = new ArrayList<Long>();
+
+    @Override
+    public long[] read(ResultSet rs, long[] row) throws SQLException {
+      if (row == null) {
+        row = new long[1];
+      }
+      row[0] = rs.getLong(1);
+      return row;
+    }
+
+    @Override
+    public synchronized void load(MapD.Client client, String session, String table, List<long[]> rows) {
+      for (long[] row : rows) {
+        ids.add(row[0]);
+      }
+    }
+
+    private synchronized List<Long> ids() {
+      return new ArrayList<Long>(ids);
+    }
+  }
+
+  private static final class Client extends MapD.Client {
+
+    private Client() {
+      super(null);
+    }
+
+    @Override
+    public void disconnect(String session) {
+    }
+  }
+}